@@ -0,0 +1,252 @@
+package eu.sqooss.service.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory based implementation of the cache service that holds at most a
+ * configurable number of bytes. When full, entries are evicted using a
+ * segmented LRU policy: new entries are put in a probationary segment and
+ * are promoted to a protected segment when they are accessed again, so that
+ * bursts of entries read only once do not flush frequently used entries
+ * out of the cache. To reduce lock contention, the key space is split in
+ * a number of independently locked partitions, each managing an equal
+ * share of the memory budget. An entry larger than a partition's share
+ * replaces all other entries of its partition and takes the space it
+ * needs beyond the share from the other partitions. Entries larger than
+ * the whole budget are not cached.
+ *
+ * Accepts the following system properties:
+ *
+ *  <dl>
+ *      <dt>eu.sqooss.service.cache.memory.size</dt>
+ *      <dd>The maximum number of bytes to cache (default: 64MB)</dd>
+ *      <dt>eu.sqooss.service.cache.memory.ttl</dt>
+ *      <dd>Time in seconds after which entries expire. If 0 (the default)
+ *      entries do not expire</dd>
+ *  </dl>
+ */
+public class BoundedInMemoryCache extends CacheServiceImpl {
+
+    public static final String CACHE_SIZE = "eu.sqooss.service.cache.memory.size";
+    public static final String CACHE_TTL = "eu.sqooss.service.cache.memory.ttl";
+
+    private static final long DEFAULT_SIZE = 64 * 1024 * 1024;
+    private static final int PARTITIONS = 16;
+
+    /** Share of each partition's budget reserved for protected entries */
+    private static final double PROTECTED_RATIO = 0.8;
+
+    private Partition[] partitions;
+    private long maxBytes;
+    /** Bytes held by all partitions */
+    private AtomicLong total = new AtomicLong();
+    private long ttl;
+    private CacheStats stats = new CacheStats();
+
+    public BoundedInMemoryCache() {
+        this(Long.getLong(CACHE_SIZE, DEFAULT_SIZE),
+                Long.getLong(CACHE_TTL, 0) * 1000);
+    }
+
+    /**
+     * @param maxBytes Maximum number of bytes to keep in the cache
+     * @param ttl Time in milliseconds after which entries expire,
+     * 0 for no expiration
+     */
+    public BoundedInMemoryCache(long maxBytes, long ttl) {
+        this.maxBytes = maxBytes;
+        this.ttl = ttl;
+        partitions = new Partition[PARTITIONS];
+        for (int i = 0; i < PARTITIONS; i++)
+            partitions[i] = new Partition(maxBytes / PARTITIONS);
+    }
+
+    @Override
+    public byte[] get(String key) {
+        byte[] data = partitionFor(key).get(key);
+        if (data == null)
+            stats.miss();
+        else
+            stats.hit();
+        return data;
+    }
+
+    @Override
+    public void set(String key, byte[] data) {
+        Partition p = partitionFor(key);
+        p.put(key, data);
+
+        /* A large entry may have pushed the cache over its budget */
+        for (int i = 0; i < PARTITIONS && total.get() > maxBytes; i++) {
+            if (partitions[i] != p)
+                partitions[i].shrink();
+        }
+    }
+
+    /**
+     * Remove an entry from the cache.
+     *
+     * @return The removed entry's contents or null if the key was not found
+     */
+    public byte[] remove(String key) {
+        return partitionFor(key).remove(key);
+    }
+
+    @Override
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    private Partition partitionFor(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return partitions[(h & Integer.MAX_VALUE) % PARTITIONS];
+    }
+
+    private static class Entry {
+        byte[] data;
+        long expires;
+        boolean isProtected;
+
+        Entry(byte[] data, long expires) {
+            this.data = data;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * A segmented LRU cache over a fraction of the key space.
+     */
+    private class Partition {
+        private long share;
+        private long maxProtectedBytes;
+        private long bytes = 0;
+        private long protectedBytes = 0;
+
+        /* Both maps iterate from the least to the most recently used entry */
+        private LinkedHashMap<String, Entry> probation =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        private LinkedHashMap<String, Entry> protect =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+        Partition(long share) {
+            this.share = share;
+            this.maxProtectedBytes = (long) (share * PROTECTED_RATIO);
+        }
+
+        synchronized byte[] get(String key) {
+            Entry e = protect.get(key);
+            if (e == null) {
+                e = probation.get(key);
+                if (e == null)
+                    return null;
+            }
+
+            if (e.expires > 0 && e.expires < System.currentTimeMillis()) {
+                unlink(key, e);
+                stats.evicted(e.data.length);
+                return null;
+            }
+
+            if (!e.isProtected) {
+                /* Second access, promote to the protected segment */
+                probation.remove(key);
+                protect.put(key, e);
+                e.isProtected = true;
+                protectedBytes += e.data.length;
+                demote();
+            }
+            return e.data;
+        }
+
+        synchronized void put(String key, byte[] data) {
+            remove(key);
+            if (data.length > maxBytes)
+                return;
+
+            Entry e = new Entry(data, ttl > 0 ?
+                    System.currentTimeMillis() + ttl : 0);
+            probation.put(key, e);
+            bytes += data.length;
+            total.addAndGet(data.length);
+            stats.added(data.length);
+            evict(probation, key, false);
+            evict(protect, key, false);
+        }
+
+        /**
+         * Evict least recently used entries until the whole cache fits
+         * its budget.
+         */
+        synchronized void shrink() {
+            evict(probation, null, true);
+            evict(protect, null, true);
+        }
+
+        synchronized byte[] remove(String key) {
+            Entry e = protect.get(key);
+            if (e == null)
+                e = probation.get(key);
+            if (e == null)
+                return null;
+            unlink(key, e);
+            stats.removed(e.data.length);
+            return e.data;
+        }
+
+        private void unlink(String key, Entry e) {
+            if (e.isProtected) {
+                protect.remove(key);
+                protectedBytes -= e.data.length;
+            } else {
+                probation.remove(key);
+            }
+            bytes -= e.data.length;
+            total.addAndGet(-e.data.length);
+        }
+
+        /**
+         * Move the least recently used protected entries back to
+         * probation until the protected segment fits its budget
+         */
+        private void demote() {
+            Iterator<Map.Entry<String, Entry>> i = protect.entrySet().iterator();
+            while (protectedBytes > maxProtectedBytes && i.hasNext()) {
+                Map.Entry<String, Entry> lru = i.next();
+                i.remove();
+                lru.getValue().isProtected = false;
+                protectedBytes -= lru.getValue().data.length;
+                probation.put(lru.getKey(), lru.getValue());
+            }
+        }
+
+        /**
+         * Evict least recently used entries of a segment until the
+         * partition fits its share or, if global is set, until the whole
+         * cache fits its budget. Probationary entries must be evicted
+         * first.
+         *
+         * @param keep Key of an entry not to evict, or null
+         */
+        private void evict(LinkedHashMap<String, Entry> segment, String keep,
+                boolean global) {
+            Iterator<Map.Entry<String, Entry>> i = segment.entrySet().iterator();
+            while ((global ? total.get() > maxBytes : bytes > share)
+                    && i.hasNext()) {
+                Map.Entry<String, Entry> next = i.next();
+                if (next.getKey().equals(keep))
+                    continue;
+                Entry lru = next.getValue();
+                i.remove();
+                bytes -= lru.data.length;
+                total.addAndGet(-lru.data.length);
+                if (lru.isProtected)
+                    protectedBytes -= lru.data.length;
+                stats.evicted(lru.data.length);
+            }
+        }
+    }
+}
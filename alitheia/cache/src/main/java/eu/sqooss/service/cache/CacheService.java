@@ -3,6 +3,7 @@ package eu.sqooss.service.cache;
 import java.io.InputStream;
 
 import eu.sqooss.core.AlitheiaCoreService;
+import eu.sqooss.service.util.ByteCache;
 
 /**
  * A generic key value pair cache.
@@ -13,7 +14,7 @@ import eu.sqooss.core.AlitheiaCoreService;
  * @author Georgios Gousios <gousiosg@gmail.com>
  *
  */
-public interface CacheService extends AlitheiaCoreService {
+public interface CacheService extends AlitheiaCoreService, ByteCache {
 
     /**
      * Get contents of key as an unencoded raw byte data array. The contents of
@@ -42,4 +43,11 @@ public interface CacheService extends AlitheiaCoreService {
      * you know the size of the data you want to put on the cache.
      */
     void setStream(String key, InputStream oos);
+    
+    /**
+     * Get the usage counters for this cache. Implementations that do not 
+     * keep track of their usage return an object whose counters are
+     * all zero.
+     */
+    CacheStats getStats();
 }
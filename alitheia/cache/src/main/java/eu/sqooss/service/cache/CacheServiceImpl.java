@@ -13,7 +13,7 @@ import eu.sqooss.service.logging.Logger;
 
 public class CacheServiceImpl implements CacheService {
 
-    public static final String CACHE_IMPL = "eu.sqooss.service.cache.OnDiskCache";
+    public static final String CACHE_IMPL = "eu.sqooss.service.cache.impl";
     
     private static List<Class<? extends CacheService>> impls;
     
@@ -21,11 +21,15 @@ public class CacheServiceImpl implements CacheService {
         impls = new ArrayList<Class<? extends CacheService>>();
         impls.add(OnDiskCache.class);
         impls.add(InMemoryCache.class);
+        impls.add(BoundedInMemoryCache.class);
+        impls.add(OnDiskLogCache.class);
+        impls.add(TieredCache.class);
     }
   
     private CacheService c;
     private BundleContext bc;
     private Logger log;
+    private CacheStats stats = new CacheStats();
     
     public CacheServiceImpl() {}
     
@@ -36,7 +40,10 @@ public class CacheServiceImpl implements CacheService {
     
     @Override
     public InputStream getStream(String key) {
-        byte[] buff = c.get(key);
+        if (c != null)
+            return c.getStream(key);
+
+        byte[] buff = get(key);
         
         if (buff == null)
             return null;
@@ -68,13 +75,20 @@ public class CacheServiceImpl implements CacheService {
             log.error("Error");
         }
     }
+    
+    @Override
+    public CacheStats getStats() {
+        if (c != null)
+            return c.getStats();
+        return stats;
+    }
 
     @Override
     public boolean startUp() {
         String impl = System.getProperty(CACHE_IMPL);
         
         if (impl == null)
-            impl = "eu.sqooss.service.cache.OnDiskCache";
+            impl = "eu.sqooss.service.cache.TieredCache";
         
         try {
             Class clazz = Thread.currentThread().getContextClassLoader().loadClass(impl);
@@ -91,6 +105,8 @@ public class CacheServiceImpl implements CacheService {
 
     @Override
     public void shutDown() {
+        if (c != null)
+            c.shutDown();
         c = null;
     }
 
@@ -0,0 +1,84 @@
+package eu.sqooss.service.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Usage counters for a cache. Counters are updated by the cache 
+ * implementations as they serve requests and can be read at any time. 
+ */
+public class CacheStats {
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private AtomicLong evictions = new AtomicLong();
+    private AtomicLong entries = new AtomicLong();
+    private AtomicLong bytes = new AtomicLong();
+
+    public void hit() {
+        hits.incrementAndGet();
+    }
+
+    public void miss() {
+        misses.incrementAndGet();
+    }
+
+    /**
+     * An entry of the provided size was removed to free up space 
+     * or because it expired.
+     */
+    public void evicted(long size) {
+        evictions.incrementAndGet();
+        removed(size);
+    }
+
+    /** An entry of the provided size was added to the cache. */
+    public void added(long size) {
+        entries.incrementAndGet();
+        bytes.addAndGet(size);
+    }
+
+    /** An entry of the provided size was removed or replaced. */
+    public void removed(long size) {
+        entries.decrementAndGet();
+        bytes.addAndGet(-size);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /** Number of entries currently stored in the cache */
+    public long getEntries() {
+        return entries.get();
+    }
+
+    /** Number of bytes currently stored in the cache */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return The ratio of hits to total requests, 0 if no requests
+     * have been made.
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return "hits: " + getHits() + ", misses: " + getMisses()
+                + ", evictions: " + getEvictions() + ", entries: "
+                + getEntries() + ", bytes: " + getBytes();
+    }
+}
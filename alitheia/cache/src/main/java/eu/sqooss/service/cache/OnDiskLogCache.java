@@ -0,0 +1,607 @@
+package eu.sqooss.service.cache;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import eu.sqooss.core.AlitheiaCore;
+import eu.sqooss.service.logging.Logger;
+
+/**
+ * Disk based implementation of the cache service that appends entries to a
+ * small number of large segment files instead of creating one file per key.
+ * An in-memory index maps each key to the location of its latest value.
+ * Segments whose contents are mostly overwritten values are compacted in
+ * the background: their live entries are copied to the current segment
+ * and the segment file is deleted. The index is rebuilt by scanning the
+ * segment files when the cache is opened, so cached values survive
+ * restarts.
+ *
+ * Each entry is stored as a header (magic number, key length, value length
+ * and CRC32 checksum of key and value) followed by the key and the value.
+ * Incomplete entries at the end of the last segment, e.g. after a crash,
+ * are discarded on startup.
+ *
+ * Accepts the following system properties:
+ *
+ *  <dl>
+ *      <dt>eu.sqooss.service.cache.dir</dt>
+ *      <dd>The directory to store segment files to</dd>
+ *      <dt>eu.sqooss.service.cache.segment.size</dt>
+ *      <dd>Size in bytes after which a new segment is started
+ *      (default: 64MB)</dd>
+ *      <dt>eu.sqooss.service.cache.disk.size</dt>
+ *      <dd>Maximum number of bytes to keep on disk. When exceeded, the
+ *      oldest segments are dropped. If 0, the cache is not bounded
+ *      (default: 4GB)</dd>
+ *  </dl>
+ */
+public class OnDiskLogCache extends CacheServiceImpl {
+
+    public static final String SEGMENT_SIZE = "eu.sqooss.service.cache.segment.size";
+    public static final String DISK_SIZE = "eu.sqooss.service.cache.disk.size";
+
+    private static final int MAGIC = 0xCAC4E001;
+    private static final int HEADER_SIZE = 16;
+    private static final String SEGMENT_PREFIX = "cache-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final long DEFAULT_DISK_SIZE = 4L * 1024 * 1024 * 1024;
+
+    /** Segments with less live data than this are compacted */
+    private static final double COMPACTION_THRESHOLD = 0.5;
+
+    private File dir;
+    private long maxSegmentSize;
+    private long maxDiskSize;
+
+    private ConcurrentHashMap<String, Location> index =
+        new ConcurrentHashMap<String, Location>();
+    private ConcurrentSkipListMap<Integer, Segment> segments =
+        new ConcurrentSkipListMap<Integer, Segment>();
+
+    /** The segment new entries are appended to, guarded by this */
+    private Segment active;
+
+    private ScheduledExecutorService compactor;
+    private CacheStats stats = new CacheStats();
+    private Logger log;
+
+    public OnDiskLogCache() throws IOException {
+        this(cacheDir(), Long.getLong(SEGMENT_SIZE, DEFAULT_SEGMENT_SIZE),
+                Long.getLong(DISK_SIZE, DEFAULT_DISK_SIZE));
+    }
+
+    /**
+     * @param path Directory to store the segment files to
+     * @param maxSegmentSize Size in bytes after which a new segment is started
+     * @param maxDiskSize Bytes to keep on disk before dropping old segments,
+     * 0 for no limit
+     */
+    public OnDiskLogCache(String path, long maxSegmentSize, long maxDiskSize)
+            throws IOException {
+        this.dir = new File(path);
+        this.maxSegmentSize = maxSegmentSize;
+        this.maxDiskSize = maxDiskSize;
+
+        AlitheiaCore core = AlitheiaCore.getInstance();
+        if (core != null)
+            log = core.getLogManager().createLogger("sqooss.cache");
+
+        if (!dir.exists())
+            dir.mkdirs();
+
+        recover();
+
+        compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Cache segment compactor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        compactor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    warn("Cache compaction failed: " + e.getMessage());
+                }
+            }
+        }, 30, 30, TimeUnit.SECONDS);
+    }
+
+    private static String cacheDir() {
+        String dirpath = System.getProperty(OnDiskCache.CACHE_DIR);
+
+        if (dirpath == null) {
+            dirpath = System.getProperty("java.io.tmpdir");
+            if (dirpath == null)
+                dirpath = "tmp";
+        }
+        return dirpath;
+    }
+
+    @Override
+    public byte[] get(String key) {
+        while (true) {
+            Location loc = index.get(key);
+            if (loc == null) {
+                stats.miss();
+                return null;
+            }
+
+            Segment seg = loc.segment;
+            if (!seg.acquire())
+                continue; //Moved by compaction, look it up again
+            try {
+                byte[] data = new byte[loc.length];
+                seg.read(ByteBuffer.wrap(data), loc.offset);
+                stats.hit();
+                return data;
+            } catch (IOException e) {
+                warn("Cannot read key " + key + ": " + e.getMessage());
+                stats.miss();
+                return null;
+            } finally {
+                seg.release();
+            }
+        }
+    }
+
+    /**
+     * Returns a stream that reads the value directly from the segment file,
+     * without loading it in memory first. The stream keeps the segment file
+     * open, even if compaction deletes the segment, until it is closed.
+     * Streams that are garbage collected without having been closed are 
+     * closed then, and reported.
+     */
+    @Override
+    public InputStream getStream(String key) {
+        while (true) {
+            Location loc = index.get(key);
+            if (loc == null) {
+                stats.miss();
+                return null;
+            }
+            if (!loc.segment.acquire())
+                continue;
+            stats.hit();
+            return new SegmentInputStream(loc);
+        }
+    }
+
+    @Override
+    public void set(String key, byte[] data) {
+        try {
+            Location old;
+            /* Index updates are ordered with segment rolls, so that
+             * compaction sees all entries of the segments it processes */
+            synchronized (this) {
+                old = index.put(key, append(key, data));
+            }
+            stats.added(data.length);
+            if (old != null) {
+                old.segment.discard(old);
+                stats.removed(old.length);
+            }
+        } catch (IOException e) {
+            warn("Cannot store key " + key + " An exception occured: "
+                    + e.getMessage());
+        }
+    }
+
+    @Override
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public void shutDown() {
+        compactor.shutdownNow();
+        for (Segment s : segments.values())
+            s.close();
+        segments.clear();
+        index.clear();
+    }
+
+    /**
+     * @return The total number of bytes stored in segment files
+     */
+    public long getDiskSize() {
+        long size = 0;
+        for (Segment s : segments.values())
+            size += s.size();
+        return size;
+    }
+
+    /**
+     * @return The number of segment files currently in use
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    private synchronized Location append(String key, byte[] data)
+            throws IOException {
+        if (active == null || active.size() >= maxSegmentSize)
+            roll();
+
+        byte[] k = key.getBytes("UTF-8");
+        CRC32 crc = new CRC32();
+        crc.update(k);
+        crc.update(data);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(k.length).putInt(data.length)
+            .putInt((int) crc.getValue());
+        header.flip();
+
+        long pos = active.append(header, ByteBuffer.wrap(k), ByteBuffer.wrap(data));
+        return new Location(active, pos + HEADER_SIZE + k.length, k.length,
+                data.length);
+    }
+
+    /** Start a new segment file. Called with the append lock held. */
+    private void roll() throws IOException {
+        int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        active = new Segment(id, new File(dir, segmentName(id)));
+        segments.put(id, active);
+    }
+
+    private static String segmentName(int id) {
+        return SEGMENT_PREFIX + String.format("%08d", id) + SEGMENT_SUFFIX;
+    }
+
+    /**
+     * Rebuild the index from the segment files found in the cache directory.
+     */
+    private void recover() throws IOException {
+        File[] files = dir.listFiles(new FilenameFilter() {
+            public boolean accept(File d, String name) {
+                return name.startsWith(SEGMENT_PREFIX)
+                        && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+
+        if (files == null || files.length == 0)
+            return;
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+
+        for (int i = 0; i < files.length; i++) {
+            String name = files[i].getName();
+            int id = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                    name.length() - SEGMENT_SUFFIX.length()));
+            Segment s = new Segment(id, files[i]);
+            segments.put(id, s);
+            /* Only the last segment may have been written partially */
+            scan(s, i == files.length - 1);
+        }
+        active = segments.lastEntry().getValue();
+    }
+
+    /**
+     * Add the entries of a segment to the index, truncating the segment
+     * after the last valid entry.
+     *
+     * @param verify Whether to check entry checksums
+     */
+    private void scan(Segment s, boolean verify) throws IOException {
+        long pos = 0, size = s.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+        while (pos + HEADER_SIZE <= size) {
+            header.clear();
+            s.read(header, pos);
+            header.flip();
+            int magic = header.getInt();
+            int keyLen = header.getInt();
+            int dataLen = header.getInt();
+            int checksum = header.getInt();
+
+            if (magic != MAGIC || keyLen < 0 || dataLen < 0
+                    || pos + HEADER_SIZE + keyLen + dataLen > size)
+                break;
+
+            ByteBuffer k = ByteBuffer.allocate(keyLen);
+            s.read(k, pos + HEADER_SIZE);
+
+            if (verify) {
+                ByteBuffer data = ByteBuffer.allocate(dataLen);
+                s.read(data, pos + HEADER_SIZE + keyLen);
+                CRC32 crc = new CRC32();
+                crc.update(k.array());
+                crc.update(data.array());
+                if ((int) crc.getValue() != checksum)
+                    break;
+            }
+
+            Location loc = new Location(s, pos + HEADER_SIZE + keyLen, keyLen,
+                    dataLen);
+            s.live.addAndGet(loc.recordSize());
+            stats.added(dataLen);
+            Location old = index.put(new String(k.array(), "UTF-8"), loc);
+            if (old != null) {
+                old.segment.discard(old);
+                stats.removed(old.length);
+            }
+            pos += HEADER_SIZE + keyLen + dataLen;
+        }
+
+        if (pos < size) {
+            warn("Discarding " + (size - pos) + " bytes of incomplete cache "
+                    + "entries in " + s.file);
+            s.truncate(pos);
+        }
+    }
+
+    /**
+     * Copy the live entries of sparsely used segments to the active segment
+     * and delete them. Also drops the oldest segments if the cache is
+     * larger than its disk budget. Runs periodically in the background.
+     */
+    public void compact() throws IOException {
+        List<Segment> sealed = new ArrayList<Segment>();
+        synchronized (this) {
+            for (Segment s : segments.values())
+                if (s != active)
+                    sealed.add(s);
+        }
+
+        if (maxDiskSize > 0) {
+            long size = getDiskSize();
+            while (size > maxDiskSize && !sealed.isEmpty()) {
+                Segment oldest = sealed.remove(0);
+                size -= oldest.size();
+                for (Map.Entry<String, Location> e : index.entrySet()) {
+                    Location loc = e.getValue();
+                    if (loc.segment == oldest && index.remove(e.getKey(), loc))
+                        stats.evicted(loc.length);
+                }
+                drop(oldest);
+            }
+        }
+
+        for (Segment s : sealed) {
+            if (s.size() > 0 && s.live.get() >= s.size() * COMPACTION_THRESHOLD)
+                continue;
+
+            for (Map.Entry<String, Location> e : index.entrySet()) {
+                Location loc = e.getValue();
+                if (loc.segment != s)
+                    continue;
+                byte[] data = new byte[loc.length];
+                s.read(ByteBuffer.wrap(data), loc.offset);
+                synchronized (this) {
+                    /* A concurrent set() wins over the copy */
+                    if (index.get(e.getKey()) != loc)
+                        continue;
+                    index.put(e.getKey(), append(e.getKey(), data));
+                }
+                s.discard(loc);
+            }
+            drop(s);
+        }
+    }
+
+    private void drop(Segment s) {
+        segments.remove(s.id);
+        s.delete();
+    }
+
+    private void warn(String message) {
+        if (log != null)
+            log.warn(message);
+        else 
+            System.err.println(message);
+    }
+
+    /**
+     * Position of a value in a segment file.
+     */
+    private static class Location {
+        final Segment segment;
+        final long offset;
+        final int keyLength;
+        final int length;
+
+        Location(Segment segment, long offset, int keyLength, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.keyLength = keyLength;
+            this.length = length;
+        }
+
+        /** Bytes taken by the entry's record: header, key and value */
+        long recordSize() {
+            return HEADER_SIZE + keyLength + length;
+        }
+    }
+
+    /**
+     * A segment file. Readers acquire a reference before accessing the file,
+     * so that deleted segments are only closed when the last reader is done.
+     */
+    private static class Segment {
+        final int id;
+        final File file;
+        final FileChannel channel;
+        /* Bytes of records still referenced by the index */
+        final AtomicLong live = new AtomicLong();
+        private final AtomicLong size;
+        /* Number of readers plus one while the segment is in use */
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        Segment(int id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+            this.size = new AtomicLong(channel.size());
+        }
+
+        long size() {
+            return size.get();
+        }
+
+        /**
+         * Append buffers at the end of the segment. Called with the cache's
+         * append lock held.
+         *
+         * @return The position the first buffer was written to
+         */
+        long append(ByteBuffer... buffers) throws IOException {
+            long pos = size.get();
+            long len = 0;
+            for (ByteBuffer b : buffers)
+                len += b.remaining();
+            long written = 0;
+            channel.position(pos);
+            while (written < len)
+                written += channel.write(buffers);
+            size.addAndGet(len);
+            live.addAndGet(len);
+            return pos;
+        }
+
+        void read(ByteBuffer buf, long pos) throws IOException {
+            while (buf.hasRemaining()) {
+                int n = channel.read(buf, pos);
+                if (n < 0)
+                    throw new IOException("Unexpected end of segment " + file);
+                pos += n;
+            }
+        }
+
+        void truncate(long pos) throws IOException {
+            channel.truncate(pos);
+            size.set(pos);
+        }
+
+        /** The value at the provided location is no longer referenced */
+        void discard(Location loc) {
+            live.addAndGet(-loc.recordSize());
+        }
+
+        boolean acquire() {
+            while (true) {
+                int r = refs.get();
+                if (r == 0)
+                    return false;
+                if (refs.compareAndSet(r, r + 1))
+                    return true;
+            }
+        }
+
+        void release() {
+            if (refs.decrementAndGet() == 0) {
+                close();
+                file.delete();
+            }
+        }
+
+        /** Delete the segment as soon as no readers use it */
+        void delete() {
+            release();
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //Ignore
+            }
+        }
+    }
+
+    /**
+     * Stream over a value stored in a segment file.
+     */
+    private class SegmentInputStream extends InputStream {
+        private Location loc;
+        private long pos;
+        private long end;
+        private boolean closed = false;
+
+        SegmentInputStream(Location loc) {
+            this.loc = loc;
+            this.pos = loc.offset;
+            this.end = loc.offset + loc.length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed)
+                throw new IOException("Stream closed");
+            if (pos >= end)
+                return -1;
+            len = (int) Math.min(len, end - pos);
+            int n = loc.segment.channel.read(ByteBuffer.wrap(b, off, len), pos);
+            if (n > 0)
+                pos += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, end - pos));
+            pos += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - pos);
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                loc.segment.release();
+            }
+        }
+
+        @Override
+        protected void finalize() throws Throwable {
+            try {
+                if (!closed) {
+                    warn("Cache stream for segment " + loc.segment.file
+                            + " was not closed");
+                    close();
+                }
+            } finally {
+                super.finalize();
+            }
+        }
+    }
+}
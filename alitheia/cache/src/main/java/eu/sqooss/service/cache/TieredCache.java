@@ -0,0 +1,241 @@
+package eu.sqooss.service.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two level cache that serves frequently used entries from a bounded
+ * in-memory tier and keeps all entries in a disk tier. Entries found only
+ * on disk are promoted to the memory tier when read. Writes to the disk
+ * tier happen asynchronously, in batches, on a background thread, so that
+ * the cost of {@link #set(String, byte[])} does not depend on the disk.
+ * Entries waiting to be written are still served by the cache. When more
+ * than a configurable amount of data is waiting to be written, set() writes
+ * to disk directly until the writer catches up.
+ *
+ * Accepts the following system properties, in addition to the ones of the
+ * memory tier ({@link BoundedInMemoryCache}) and disk tier implementations:
+ *
+ *  <dl>
+ *      <dt>eu.sqooss.service.cache.tiered.disk</dt>
+ *      <dd>The disk tier implementation
+ *      (default: eu.sqooss.service.cache.OnDiskLogCache)</dd>
+ *      <dt>eu.sqooss.service.cache.tiered.pending</dt>
+ *      <dd>Maximum number of bytes waiting to be written to the disk tier
+ *      (default: 16MB)</dd>
+ *  </dl>
+ */
+public class TieredCache extends CacheServiceImpl {
+
+    public static final String DISK_IMPL = "eu.sqooss.service.cache.tiered.disk";
+    public static final String MAX_PENDING = "eu.sqooss.service.cache.tiered.pending";
+
+    private static final long DEFAULT_MAX_PENDING = 16 * 1024 * 1024;
+    private static final int WRITE_BATCH = 64;
+
+    private BoundedInMemoryCache heap;
+    private CacheService disk;
+
+    /* Entries not yet written to the disk tier, and their write order */
+    private ConcurrentHashMap<String, byte[]> pending =
+        new ConcurrentHashMap<String, byte[]>();
+    private LinkedBlockingQueue<String> writeQueue =
+        new LinkedBlockingQueue<String>();
+    private AtomicLong pendingBytes = new AtomicLong();
+    private long maxPending;
+
+    private Object writeLock = new Object();
+    private Thread writer;
+    private volatile boolean running = true;
+
+    private CacheStats stats = new CacheStats();
+    private AtomicLong promotions = new AtomicLong();
+    private AtomicLong batches = new AtomicLong();
+    private AtomicLong syncWrites = new AtomicLong();
+
+    public TieredCache() throws Exception {
+        this(new BoundedInMemoryCache(), diskTier(),
+                Long.getLong(MAX_PENDING, DEFAULT_MAX_PENDING));
+    }
+
+    /**
+     * @param heap The memory tier
+     * @param disk The disk tier
+     * @param maxPending Maximum number of bytes waiting to be written to
+     * the disk tier before set() starts writing synchronously
+     */
+    public TieredCache(BoundedInMemoryCache heap, CacheService disk,
+            long maxPending) {
+        this.heap = heap;
+        this.disk = disk;
+        this.maxPending = maxPending;
+
+        writer = new Thread("Cache write-behind thread") {
+            public void run() {
+                writeBehind();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private static CacheService diskTier() throws Exception {
+        String impl = System.getProperty(DISK_IMPL,
+                OnDiskLogCache.class.getName());
+        Class<?> clazz = TieredCache.class.getClassLoader().loadClass(impl);
+        return (CacheService) clazz.newInstance();
+    }
+
+    @Override
+    public byte[] get(String key) {
+        byte[] data = heap.get(key);
+        if (data == null)
+            data = pending.get(key);
+
+        if (data == null) {
+            data = disk.get(key);
+            if (data != null) {
+                heap.set(key, data);
+                promotions.incrementAndGet();
+            }
+        }
+
+        if (data == null)
+            stats.miss();
+        else
+            stats.hit();
+        return data;
+    }
+
+    @Override
+    public void set(String key, byte[] data) {
+        heap.set(key, data);
+
+        byte[] old = pending.put(key, data);
+        pendingBytes.addAndGet(data.length - (old == null ? 0 : old.length));
+
+        if (!running || pendingBytes.get() > maxPending) {
+            /* The writer cannot keep up, don't let the backlog grow */
+            syncWrites.incrementAndGet();
+            write(Collections.singletonList(key));
+            return;
+        }
+
+        /* Keys already in the queue will pick up the latest value */
+        if (old == null)
+            writeQueue.offer(key);
+    }
+
+    /**
+     * Block until all entries set so far have been written to the
+     * disk tier.
+     */
+    public void flush() throws InterruptedException {
+        while (!pending.isEmpty() && writer.isAlive())
+            Thread.sleep(10);
+    }
+
+    @Override
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    /** Usage counters for the memory tier */
+    public CacheStats getHeapStats() {
+        return heap.getStats();
+    }
+
+    /** Usage counters for the disk tier */
+    public CacheStats getDiskStats() {
+        return disk.getStats();
+    }
+
+    /** Number of entries copied from the disk tier to the memory tier */
+    public long getPromotions() {
+        return promotions.get();
+    }
+
+    /** Number of bytes waiting to be written to the disk tier */
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    /** Number of batches written to the disk tier by the background thread */
+    public long getWriteBatches() {
+        return batches.get();
+    }
+
+    /** Number of entries written to disk by set() because of a backlog */
+    public long getSyncWrites() {
+        return syncWrites.get();
+    }
+
+    @Override
+    public void shutDown() {
+        running = false;
+        writer.interrupt();
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            //Ignore
+        }
+        /* Write out whatever the writer did not get to */
+        List<String> batch = new ArrayList<String>();
+        writeQueue.drainTo(batch);
+        write(batch);
+        disk.shutDown();
+    }
+
+    @Override
+    public String toString() {
+        return "TieredCache: " + stats + " [memory: " + heap.getStats()
+                + "] [disk: " + disk.getStats() + "] promotions: "
+                + promotions + ", pending bytes: " + pendingBytes
+                + ", write batches: " + batches + ", synchronous writes: "
+                + syncWrites;
+    }
+
+    private void writeBehind() {
+        List<String> batch = new ArrayList<String>(WRITE_BATCH);
+        while (running) {
+            try {
+                String key = writeQueue.poll(1, TimeUnit.SECONDS);
+                if (key == null)
+                    continue;
+                batch.add(key);
+                writeQueue.drainTo(batch, WRITE_BATCH - 1);
+                write(batch);
+                batches.incrementAndGet();
+                batch.clear();
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        /* Keys taken from the queue but not written yet */
+        write(batch);
+    }
+
+    private void write(List<String> keys) {
+        for (String key : keys) {
+            /* Keep writes of the same key by set() and the writer ordered */
+            synchronized (writeLock) {
+                while (true) {
+                    byte[] data = pending.get(key);
+                    if (data == null)
+                        break;
+                    disk.set(key, data);
+                    /* If the value changed in the meantime, write it again */
+                    if (pending.remove(key, data)) {
+                        pendingBytes.addAndGet(-data.length);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+}
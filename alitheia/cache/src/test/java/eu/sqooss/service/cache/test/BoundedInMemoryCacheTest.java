@@ -0,0 +1,124 @@
+package eu.sqooss.service.cache.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import eu.sqooss.service.cache.BoundedInMemoryCache;
+import eu.sqooss.service.cache.CacheService;
+import eu.sqooss.service.cache.InMemoryCache;
+
+public class BoundedInMemoryCacheTest {
+
+    @Test
+    public void testGetSet() {
+        BoundedInMemoryCache cache = new BoundedInMemoryCache(1024 * 1024, 0);
+        cache.set("foo", "this is val1".getBytes());
+        assertEquals("this is val1", new String(cache.get("foo")));
+        assertNull(cache.get("bar"));
+
+        assertEquals(1, cache.getStats().getHits());
+        assertEquals(1, cache.getStats().getMisses());
+        assertEquals(1, cache.getStats().getEntries());
+        assertEquals(12, cache.getStats().getBytes());
+
+        cache.set("foo", "val2".getBytes());
+        assertEquals("val2", new String(cache.get("foo")));
+        assertEquals(1, cache.getStats().getEntries());
+        assertEquals(4, cache.getStats().getBytes());
+    }
+
+    @Test
+    public void testBudget() {
+        long budget = 16 * 1024;
+        BoundedInMemoryCache cache = new BoundedInMemoryCache(budget, 0);
+
+        for (int i = 0; i < 1000; i++)
+            cache.set("key" + i, new byte[100]);
+
+        assertTrue(cache.getStats().getBytes() <= budget);
+        assertTrue(cache.getStats().getEvictions() > 0);
+        assertEquals(1000 - cache.getStats().getEvictions(),
+                cache.getStats().getEntries());
+    }
+
+    @Test
+    public void testFrequentEntriesSurviveScans() {
+        BoundedInMemoryCache cache = new BoundedInMemoryCache(16 * 1024, 0);
+
+        /* Entries accessed twice are protected from entries read once */
+        for (int i = 0; i < 16; i++) {
+            cache.set("hot" + i, new byte[100]);
+            cache.get("hot" + i);
+        }
+        for (int i = 0; i < 1000; i++)
+            cache.set("cold" + i, new byte[100]);
+
+        for (int i = 0; i < 16; i++)
+            assertNotNull(cache.get("hot" + i));
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        BoundedInMemoryCache cache = new BoundedInMemoryCache(1024 * 1024, 50);
+        cache.set("foo", "bar".getBytes());
+        assertNotNull(cache.get("foo"));
+        Thread.sleep(100);
+        assertNull(cache.get("foo"));
+        assertEquals(0, cache.getStats().getEntries());
+    }
+
+    /**
+     * Compares the throughput of the bounded cache against the unbounded
+     * InMemoryCache under concurrent get/set load.
+     */
+    @Test
+    public void testBenchmark() throws InterruptedException {
+        benchmark(new InMemoryCache());
+        BoundedInMemoryCache bounded = new BoundedInMemoryCache(8 * 1024 * 1024, 0);
+        benchmark(bounded);
+        System.out.println("BoundedInMemoryCache: " + bounded.getStats());
+    }
+
+    private void benchmark(final CacheService cache) throws InterruptedException {
+        final int threads = 8;
+        final int ops = 200000;
+        final int keys = 20000;
+        List<Thread> workers = new ArrayList<Thread>();
+
+        for (int i = 0; i < threads; i++) {
+            final Random r = new Random(i);
+            workers.add(new Thread() {
+                public void run() {
+                    byte[] data = new byte[1024];
+                    for (int j = 0; j < ops; j++) {
+                        /* Skewed key distribution, 1 write per 4 reads */
+                        int k = (int) (keys * Math.pow(r.nextDouble(), 3));
+                        if (j % 5 == 0)
+                            cache.set("key" + k, data);
+                        else
+                            cache.get("key" + k);
+                    }
+                }
+            });
+        }
+
+        long ts = System.currentTimeMillis();
+        for (Thread t : workers)
+            t.start();
+        for (Thread t : workers)
+            t.join();
+        long time = Math.max(1, System.currentTimeMillis() - ts);
+
+        System.out.println(cache.getClass().getSimpleName() + ": "
+                + (threads * ops) + " operations in " + time + " ms ("
+                + (threads * ops * 1000L / time) + " ops/sec)");
+    }
+}
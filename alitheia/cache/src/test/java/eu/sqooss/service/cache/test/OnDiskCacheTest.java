@@ -1,11 +1,20 @@
 package eu.sqooss.service.cache.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 
+import eu.sqooss.service.cache.CacheService;
 import eu.sqooss.service.cache.OnDiskCache;
+import eu.sqooss.service.cache.OnDiskLogCache;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -51,10 +60,168 @@ public class OnDiskCacheTest {
         }
     }
 
+    @Test
+    public void testLogGetSet() throws Exception {
+        OnDiskLogCache log = new OnDiskLogCache(logDir("getset"), 1024, 0);
+        log.set("foo", "this is val1".getBytes());
+        assertEquals("this is val1", new String(log.get("foo")));
+        log.set("foo", "val2".getBytes());
+        assertEquals("val2", new String(log.get("foo")));
+        assertNull(log.get("bar"));
+        assertEquals(1, log.getStats().getEntries());
+        log.shutDown();
+    }
+
+    @Test
+    public void testLogStream() throws Exception {
+        OnDiskLogCache log = new OnDiskLogCache(logDir("stream"), 1024 * 1024, 0);
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) i;
+        log.set("foo", "bar".getBytes());
+        log.set("big", data);
+
+        InputStream in = log.getStream("big");
+        assertEquals(data.length, in.available());
+        byte[] read = new byte[data.length];
+        int n, off = 0;
+        while ((n = in.read(read, off, read.length - off)) > 0)
+            off += n;
+        in.close();
+        assertEquals(data.length, off);
+        for (int i = 0; i < data.length; i++)
+            assertEquals(data[i], read[i]);
+        assertNull(log.getStream("none"));
+        log.shutDown();
+    }
+
+    @Test
+    public void testLogRestart() throws Exception {
+        String dir = logDir("restart");
+        OnDiskLogCache log = new OnDiskLogCache(dir, 1024, 0);
+        for (int i = 0; i < 100; i++)
+            log.set("foo" + i, ("bar" + i).getBytes());
+        log.set("foo0", "baz".getBytes());
+        assertTrue(log.getSegmentCount() > 1);
+        log.shutDown();
+
+        log = new OnDiskLogCache(dir, 1024, 0);
+        assertEquals("baz", new String(log.get("foo0")));
+        for (int i = 1; i < 100; i++)
+            assertEquals("bar" + i, new String(log.get("foo" + i)));
+        log.shutDown();
+    }
+
+    @Test
+    public void testLogIncompleteEntry() throws Exception {
+        String dir = logDir("incomplete");
+        OnDiskLogCache log = new OnDiskLogCache(dir, 1024 * 1024, 0);
+        log.set("foo", "bar".getBytes());
+        log.set("baz", "qux".getBytes());
+        log.shutDown();
+
+        /* Simulate a crash while writing the last entry */
+        File seg = new File(dir).listFiles()[0];
+        RandomAccessFile f = new RandomAccessFile(seg, "rw");
+        f.setLength(f.length() - 1);
+        f.close();
+
+        log = new OnDiskLogCache(dir, 1024 * 1024, 0);
+        assertEquals("bar", new String(log.get("foo")));
+        assertNull(log.get("baz"));
+        log.set("baz", "qux".getBytes());
+        log.shutDown();
+
+        log = new OnDiskLogCache(dir, 1024 * 1024, 0);
+        assertEquals("qux", new String(log.get("baz")));
+        log.shutDown();
+    }
+
+    @Test
+    public void testLogCompaction() throws Exception {
+        OnDiskLogCache log = new OnDiskLogCache(logDir("compact"), 1024, 0);
+        for (int j = 0; j < 10; j++)
+            for (int i = 0; i < 10; i++)
+                log.set("foo" + i, new byte[100]);
+        log.set("foo0", "bar".getBytes());
+        long before = log.getDiskSize();
+
+        /* Streams opened before compaction remain readable */
+        InputStream in = log.getStream("foo1");
+        log.compact();
+        assertTrue(log.getDiskSize() < before);
+        assertEquals(0, in.read());
+        assertEquals(99, in.available());
+        in.close();
+
+        assertEquals("bar", new String(log.get("foo0")));
+        for (int i = 1; i < 10; i++)
+            assertEquals(100, log.get("foo" + i).length);
+        log.shutDown();
+    }
+
+    @Test
+    public void testLogCompactionLongKeys() throws Exception {
+        /* Small values under long keys, all of them live */
+        String dir = logDir("longkeys");
+        OnDiskLogCache log = new OnDiskLogCache(dir, 1024, 0);
+        for (int i = 0; i < 100; i++)
+            log.set("fds:project:0123456789abcdef:/src/main/java/File" + i, 
+                    new byte[4]);
+        int segments = log.getSegmentCount();
+        assertTrue(segments > 1);
+        String[] before = new File(dir).list();
+
+        /* Segments without dead entries are not rewritten */
+        log.compact();
+        assertEquals(segments, log.getSegmentCount());
+        assertEquals(new HashSet<String>(Arrays.asList(before)),
+                new HashSet<String>(Arrays.asList(new File(dir).list())));
+        log.shutDown();
+    }
+
+    @Test
+    public void testLogDiskBudget() throws Exception {
+        OnDiskLogCache log = new OnDiskLogCache(logDir("budget"), 1024, 4096);
+        for (int i = 0; i < 100; i++)
+            log.set("foo" + i, new byte[100]);
+        log.compact();
+        assertTrue(log.getDiskSize() <= 4096 + 1024);
+        assertTrue(log.getStats().getEvictions() > 0);
+        assertEquals(100, log.get("foo99").length);
+        assertNull(log.get("foo0"));
+        log.shutDown();
+    }
+
+    @Test
+    public void testLogStress() throws Exception {
+        OnDiskLogCache log = new OnDiskLogCache(logDir("stress"), 64 * 1024, 0);
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < 8; i++) {
+            StresserThread t = new StresserThread(log);
+            threads.add(t);
+            t.start();
+        }
+        log.compact();
+        for (Thread t : threads) {
+            t.join();
+        }
+        log.shutDown();
+    }
+
+    private static String logDir(String name) {
+        File dir = new File(path, "log-" + name);
+        if (dir.exists())
+            for (File f : dir.listFiles())
+                f.delete();
+        return dir.getPath();
+    }
+
     class StresserThread extends Thread {
-        OnDiskCache cache;
+        CacheService cache;
         
-        public StresserThread(OnDiskCache cache) {
+        public StresserThread(CacheService cache) {
             this.cache = cache;
         }
         
@@ -0,0 +1,65 @@
+package eu.sqooss.service.cache.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import eu.sqooss.service.cache.BoundedInMemoryCache;
+import eu.sqooss.service.cache.InMemoryCache;
+import eu.sqooss.service.cache.TieredCache;
+
+public class TieredCacheTest {
+
+    @Test
+    public void testGetSet() throws InterruptedException {
+        InMemoryCache disk = new InMemoryCache();
+        TieredCache cache = new TieredCache(
+                new BoundedInMemoryCache(1024 * 1024, 0), disk, 1024 * 1024);
+
+        cache.set("foo", "this is val1".getBytes());
+        assertEquals("this is val1", new String(cache.get("foo")));
+        assertNull(cache.get("bar"));
+
+        cache.flush();
+        assertEquals("this is val1", new String(disk.get("foo")));
+        assertEquals(0, cache.getPendingBytes());
+        cache.shutDown();
+    }
+
+    @Test
+    public void testPromotion() throws InterruptedException {
+        InMemoryCache disk = new InMemoryCache();
+        TieredCache cache = new TieredCache(
+                new BoundedInMemoryCache(16 * 1024, 0), disk, 1024 * 1024);
+
+        for (int i = 0; i < 1000; i++)
+            cache.set("key" + i, new byte[100]);
+        cache.flush();
+
+        /* Evicted from memory, served from disk and promoted */
+        assertEquals(100, cache.get("key0").length);
+        assertEquals(1, cache.getPromotions());
+        assertEquals(100, cache.get("key0").length);
+        assertEquals(1, cache.getPromotions());
+        assertTrue(cache.getHeapStats().getEvictions() > 0);
+        cache.shutDown();
+    }
+
+    @Test
+    public void testBacklog() throws InterruptedException {
+        InMemoryCache disk = new InMemoryCache();
+        TieredCache cache = new TieredCache(
+                new BoundedInMemoryCache(1024 * 1024, 0), disk, 0);
+
+        for (int i = 0; i < 100; i++)
+            cache.set("key" + i, ("val" + i).getBytes());
+        cache.shutDown();
+
+        /* All writes reach the disk tier, either way */
+        for (int i = 0; i < 100; i++)
+            assertEquals("val" + i, new String(disk.get("key" + i)));
+        assertTrue(cache.getSyncWrites() > 0);
+    }
+}
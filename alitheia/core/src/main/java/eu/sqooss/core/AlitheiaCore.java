@@ -179,6 +179,22 @@ public class AlitheiaCore {
         initService(service);
     }
 
+    /**
+     * Returns a started service that implements the provided interface. This
+     * lets core services use services registered by external bundles,
+     * through an interface the core knows about.
+     *
+     * @param iface The interface to look for
+     * @return A service instance or null if no such service has been started
+     */
+    public synchronized <T> T getService(Class<T> iface) {
+        for (Object o : instances.values()) {
+            if (iface.isInstance(o))
+                return iface.cast(o);
+        }
+        return null;
+    }
+
     /**
      * Unregisters an external implementation of an Alitheia Core service. 
      * This method does not check if external entities hold references to the
@@ -215,6 +231,17 @@ public class AlitheiaCore {
         instances.put(DBService.class, db);
         err("Service " + DBServiceImpl.class.getName() + " started");
 
+        /* Alternative scheduler implementations can be selected at startup */
+        String sched = System.getProperty("eu.sqooss.scheduler.impl");
+        if (sched != null) {
+            try {
+                implementations.put(Scheduler.class, Class.forName(sched));
+            } catch (ClassNotFoundException e) {
+                err("Cannot load scheduler implementation " + sched 
+                        + ", using the default one");
+            }
+        }
+
         for (Class<? extends AlitheiaCoreService> s : services) {
             initService(s);
         }
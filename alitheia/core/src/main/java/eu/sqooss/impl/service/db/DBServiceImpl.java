@@ -39,32 +39,54 @@ import java.io.FilenameFilter;
 import java.net.URL;
 import java.net.URI;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.Driver;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.persistence.Table;
+
 import org.hibernate.HibernateException;
 import org.hibernate.LockMode;
 import org.hibernate.QueryException;
 import org.hibernate.JDBCException;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.cfg.AnnotationConfiguration;
 import org.hibernate.cfg.Configuration;	
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.RootClass;
+import org.hibernate.mapping.SimpleValue;
 import org.osgi.framework.BundleContext;
 
 import eu.sqooss.core.AlitheiaCoreService;
 import eu.sqooss.service.db.DAObject;
 import eu.sqooss.service.db.DBService;
+import eu.sqooss.service.db.EncapsulationUnitMeasurement;
+import eu.sqooss.service.db.ExecutionUnitMeasurement;
+import eu.sqooss.service.db.MailMessageMeasurement;
+import eu.sqooss.service.db.MailingListThreadMeasurement;
+import eu.sqooss.service.db.MetricMeasurement;
+import eu.sqooss.service.db.NameSpaceMeasurement;
+import eu.sqooss.service.db.ProjectFile;
+import eu.sqooss.service.db.ProjectFileMeasurement;
+import eu.sqooss.service.db.ProjectVersionMeasurement;
+import eu.sqooss.service.db.StoredProjectMeasurement;
 import eu.sqooss.service.logging.Logger;
 import eu.sqooss.service.util.URIUtills;
 
@@ -119,12 +141,18 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
     private static final String DB_USERNAME = "eu.sqooss.db.user";
     private static final String DB_PASSWORD = "eu.sqooss.db.passwd";
     private static final String DB_CONPOOL = "eu.sqooss.db.conpool";
+    private static final String DB_BATCHSIZE = "eu.sqooss.db.batchsize";
+    private static final String DB_IDPREALLOC = "eu.sqooss.db.idprealloc";
+    
+    private static final int DEFAULT_BATCHSIZE = 50;
     
     private Logger logger = null;
     private SessionFactory sessionFactory = null;
     private BundleContext bc = null;
     private AtomicBoolean isInitialised = new AtomicBoolean(false);
     private Properties conProp = new Properties();
+    private int batchSize = DEFAULT_BATCHSIZE;
+    private boolean idPrealloc = false;
     
     private void logSQLException(SQLException e) {
 
@@ -271,6 +299,8 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
                     }
                 } 
             }
+            if (idPrealloc)
+                usePooledIds(c);
             sessionFactory = c.buildSessionFactory();
             
             if (sessionFactory == null)
@@ -283,6 +313,42 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
         return true;
     }
     
+    /**
+     * Generate the ids of measurement tables with pooled sequences, so
+     * that each sequence call reserves the ids of a whole insert batch.
+     * Each table gets its own sequence, named after the table. Databases
+     * without sequences get a single row table instead.
+     */
+    private void usePooledIds(Configuration c) {
+        c.buildMappings();
+        for (Iterator<?> i = c.getClassMappings(); i.hasNext(); ) {
+            PersistentClass pc = (PersistentClass) i.next();
+            if (!(pc instanceof RootClass))
+                continue;
+            try {
+                if (!MetricMeasurement.class.isAssignableFrom(pc.getMappedClass()))
+                    continue;
+            } catch (HibernateException e) {
+                logger.warn("Cannot load mapped class " + pc.getClassName()
+                        + ": " + e.getMessage());
+                continue;
+            }
+            
+            SimpleValue id = (SimpleValue) pc.getIdentifier();
+            Properties p = new Properties();
+            if (id.getIdentifierGeneratorProperties() != null)
+                p.putAll(id.getIdentifierGeneratorProperties());
+            p.setProperty(SequenceStyleGenerator.SEQUENCE_PARAM, 
+                    pc.getTable().getName() + "_SEQ");
+            p.setProperty(SequenceStyleGenerator.INCREMENT_PARAM, 
+                    String.valueOf(batchSize));
+            p.setProperty(SequenceStyleGenerator.OPT_PARAM, "pooled");
+            id.setIdentifierGeneratorStrategy(SequenceStyleGenerator.class.getName());
+            id.setIdentifierGeneratorProperties(p);
+            logger.info("Using pooled ID generator for " + pc.getTable().getName());
+        }
+    }
+    
     public DBServiceImpl() { }
     
     public DBServiceImpl(Properties p, URL configFileURL, Logger l) { 
@@ -523,6 +589,52 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
         
     }
 
+    /* (non-Javadoc)
+     * @see eu.sqooss.service.db.DBService#doHQLIds(java.lang.String, java.util.Map)
+     */
+    public long[] doHQLIds(String hql, Map<String, Object> params)
+        throws QueryException {
+        if (!checkSession()) {
+            return new long[0];
+        }
+        ScrollableResults rs = null;
+        try {
+            Session s = sessionFactory.getCurrentSession();
+            Query query = s.createQuery(hql);
+            if (params != null) {
+                for (String param : params.keySet()) {
+                    query.setParameter(param, params.get(param));
+                }
+            }
+            rs = query.scroll(ScrollMode.FORWARD_ONLY);
+            long[] result = new long[1024];
+            int n = 0;
+            while (rs.next()) {
+                if (n == result.length)
+                    result = Arrays.copyOf(result, n * 2);
+                result[n++] = ((Number) rs.get(0)).longValue();
+            }
+            return Arrays.copyOf(result, n);
+        } catch (QueryException e) {
+            logExceptionAndTerminateSession(e);
+            throw e;
+        } catch (HibernateException e) {
+            logExceptionAndTerminateSession(e);
+            return new long[0];
+        } catch (ClassCastException e) {
+            QueryException ebis = new QueryException("Invalid HQL query parameter type: "
+                                                    + e.getMessage(), e);
+            logExceptionAndTerminateSession(ebis);
+            throw ebis;
+        } finally {
+            if (rs != null) {
+                try {
+                    rs.close();
+                } catch (HibernateException e) {}
+            }
+        }
+    }
+
     /* (non-Javadoc)
      * @see eu.sqooss.service.db.DBService#addRecord(eu.sqooss.service.db.DAObject)
      */
@@ -569,6 +681,50 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
         }
     }
 
+    /* (non-Javadoc)
+     * @see eu.sqooss.service.db.DBService#addRecordsBatched(java.util.List)
+     */
+    public <T extends DAObject> boolean addRecordsBatched(List<T> records) {
+        if( !checkSession() )
+            return false;
+
+        DAObject lastRecord = null;
+        try {
+            Session s = sessionFactory.getCurrentSession();
+            int written = 0;
+            for (int i = 0; i < records.size(); i++) {
+                lastRecord = records.get(i);
+                s.save(lastRecord);
+                if ((i + 1) % batchSize == 0) {
+                    // Send the batch and keep the session small
+                    s.flush();
+                    for (; written <= i; written++)
+                        s.evict(records.get(written));
+                }
+            }
+            lastRecord = null;
+            s.flush();
+            for (; written < records.size(); written++)
+                s.evict(records.get(written));
+            return true;
+        } catch (HibernateException e) {
+            if (lastRecord != null) {
+                logger.error("Failed to add object "
+                        + "[" + lastRecord.getClass().getName() + ":" + lastRecord.getId() + "]"
+                        + " to the database: " + e.getMessage());
+            }
+            logExceptionAndTerminateSession(e);
+            return false;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see eu.sqooss.service.db.DBService#getBatchSize()
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
     /* (non-Javadoc)
      * @see eu.sqooss.service.db.DBService#deleteRecords(java.util.List)
      */
@@ -773,6 +929,163 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
         }
     }
 
+    /** Measurement types that have a numeric result column */
+    private static final Class<?>[] measurementTypes = {
+        ProjectFileMeasurement.class, ProjectVersionMeasurement.class, 
+        StoredProjectMeasurement.class, MailMessageMeasurement.class, 
+        MailingListThreadMeasurement.class, NameSpaceMeasurement.class, 
+        EncapsulationUnitMeasurement.class, ExecutionUnitMeasurement.class};
+    
+    /**
+     * Find the existing tables that lack columns added by this version of
+     * the schema, whose values have to be filled in once Hibernate has 
+     * created the columns. Must be called before Hibernate updates the 
+     * schema.
+     * 
+     * @param missing Receives the measurement types that have no numeric
+     * result column yet
+     * @return true if the project file table has no validity sequence 
+     * columns yet
+     */
+    private boolean findMissingColumns(List<Class<?>> missing) {
+        boolean noFileValidity = false;
+        Connection c = null;
+        try {
+            c = DriverManager.getConnection(
+                    conProp.getProperty("hibernate.connection.url"),
+                    conProp.getProperty("hibernate.connection.username"),
+                    conProp.getProperty("hibernate.connection.password"));
+            DatabaseMetaData md = c.getMetaData();
+            for (Class<?> type : measurementTypes) {
+                String table = type.getAnnotation(Table.class).name();
+                if (hasColumn(md, table, null) 
+                        && !hasColumn(md, table, "NUMERIC_RESULT"))
+                    missing.add(type);
+            }
+            String files = ProjectFile.class.getAnnotation(Table.class).name();
+            noFileValidity = hasColumn(md, files, null)
+                    && !hasColumn(md, files, "VALID_UNTIL_SEQ");
+        } catch (SQLException e) {
+            logger.warn("Cannot check for missing columns");
+            logSQLException(e);
+        } finally {
+            if (c != null) {
+                try {
+                    c.close();
+                } catch (SQLException e) {}
+            }
+        }
+        return noFileValidity;
+    }
+    
+    /**
+     * Check whether a table (if column is null) or a column in a table
+     * exists, in any of the cases databases store unquoted names in.
+     */
+    private static boolean hasColumn(DatabaseMetaData md, String table, 
+            String column) throws SQLException {
+        String[] tables = {table, table.toUpperCase(), table.toLowerCase()};
+        for (String t : tables) {
+            ResultSet rs = md.getColumns(null, null, t, 
+                    column == null ? "%" : column);
+            boolean found = rs.next();
+            if (!found && column != null) {
+                rs.close();
+                rs = md.getColumns(null, null, t, column.toLowerCase());
+                found = rs.next();
+            }
+            rs.close();
+            if (found)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Copy numeric measurement results stored before the numeric result
+     * columns were introduced to those columns. Only runs for the tables 
+     * the columns have just been added to, as results stored afterwards
+     * have their numeric value set when they are stored.
+     */
+    private void fillNumericResults(List<Class<?>> types) {
+        int filled = 0;
+        
+        for (Class<?> type : types) {
+            long last = -1;
+            while (true) {
+                Session s = sessionFactory.getCurrentSession();
+                try {
+                    s.beginTransaction();
+                    List<?> page = s.createQuery("from " 
+                            + type.getName() + " m where m.numericResult is null "
+                            + "and m.result is not null and m.id > :last "
+                            + "order by m.id")
+                            .setLong("last", last)
+                            .setMaxResults(batchSize * 20).list();
+                    for (Object o : page) {
+                        MetricMeasurement m = (MetricMeasurement) o;
+                        last = m.getId();
+                        Double value = MetricMeasurement.toNumber(m.getResult());
+                        if (value != null) {
+                            m.setNumericResult(value);
+                            filled++;
+                        }
+                    }
+                    s.getTransaction().commit();
+                    if (page.isEmpty())
+                        break;
+                } catch (HibernateException e) {
+                    logger.error("Failed to fill in numeric results for " 
+                            + type.getSimpleName() + ": " + e.getMessage());
+                    try {
+                        s.getTransaction().rollback();
+                    } catch (HibernateException e1) {
+                    }
+                    break;
+                }
+            }
+        }
+        if (filled > 0)
+            logger.info("Filled in numeric results for " + filled + " measurements");
+    }
+
+    /**
+     * Fill in the project and validity sequence columns of files stored
+     * before these columns were introduced. Only runs when the columns
+     * have just been added, as files stored afterwards have them set when
+     * they are stored.
+     */
+    private void fillFileValidity() {
+        Session s = sessionFactory.getCurrentSession();
+        try {
+            s.beginTransaction();
+            int files = s.createQuery("update ProjectFile pf set "
+                    + "pf.project = (select pv.project from ProjectVersion pv "
+                    + "  where pv = pf.validFrom), "
+                    + "pf.validFromSeq = (select pv.sequence from ProjectVersion pv "
+                    + "  where pv = pf.validFrom) "
+                    + "where pf.validFromSeq is null").executeUpdate();
+            s.createQuery("update ProjectFile pf set "
+                    + "pf.validUntilSeq = (select pv.sequence from ProjectVersion pv "
+                    + "  where pv = pf.validUntil) "
+                    + "where pf.validUntilSeq is null "
+                    + "and pf.validUntil is not null").executeUpdate();
+            s.createQuery("update ProjectFile pf set pf.validUntilSeq = :live "
+                    + "where pf.validUntilSeq is null")
+                    .setLong("live", ProjectFile.LIVE).executeUpdate();
+            s.getTransaction().commit();
+            if (files > 0)
+                logger.info("Filled in validity sequences for " + files + " files");
+        } catch (HibernateException e) {
+            logger.error("Failed to fill in file validity sequences: " 
+                    + e.getMessage());
+            try {
+                s.getTransaction().rollback();
+            } catch (HibernateException e1) {
+            }
+        }
+    }
+
     @Override
     public boolean startUp() {
         String db  = bc.getProperty(DB).toLowerCase();
@@ -787,14 +1100,40 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
         conProp.setProperty("hibernate.connection.dialect",  hbmDialects.get(db));
         conProp.setProperty("hibernate.connection.provider_class", conPools.get(bc.getProperty(DB_CONPOOL)));
         
+        if (bc.getProperty(DB_BATCHSIZE) != null) {
+            try {
+                batchSize = Math.max(1, Integer.parseInt(bc.getProperty(DB_BATCHSIZE)));
+            } catch (NumberFormatException nfe) {
+                logger.warn("Invalid " + DB_BATCHSIZE + " value "
+                        + bc.getProperty(DB_BATCHSIZE) + ", using "
+                        + DEFAULT_BATCHSIZE);
+            }
+        }
+        conProp.setProperty("hibernate.jdbc.batch_size", String.valueOf(batchSize));
+        // Group inserts/updates per table, so that batches are not split
+        conProp.setProperty("hibernate.order_inserts", "true");
+        conProp.setProperty("hibernate.order_updates", "true");
+        
+        // Hibernate cannot batch inserts to identity columns (MySQL).
+        // Pooled generators use sequences or a sequence table instead,
+        // which changes the schema, so only use them on new databases.
+        idPrealloc = Boolean.parseBoolean(bc.getProperty(DB_IDPREALLOC));
+        
         if (!getJDBCConnection()) {
             logger.error("DB service got no JDBC connectors.");
             return false;
         }
         
+        List<Class<?>> noNumericResults = new ArrayList<Class<?>>();
+        boolean noFileValidity = findMissingColumns(noNumericResults);
+        
         if(!initHibernate(bc.getBundle().getResource("hibernate.cfg.xml")))
             return false;
         
+        if (noFileValidity)
+            fillFileValidity();
+        fillNumericResults(noNumericResults);
+        
         isInitialised.compareAndSet(false, true);
         return true; 
     }
@@ -0,0 +1,448 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.impl.service.fds;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.sqooss.service.db.ProjectVersion;
+import eu.sqooss.service.fds.CheckoutException;
+import eu.sqooss.service.fds.OnDiskCheckout;
+import eu.sqooss.service.logging.Logger;
+import eu.sqooss.service.tds.InvalidProjectRevisionException;
+import eu.sqooss.service.tds.InvalidRepositoryException;
+import eu.sqooss.service.tds.SCMAccessor;
+import eu.sqooss.service.util.FileUtils;
+
+/**
+ * Keeps on disk checkouts around after they are released, so that they
+ * can be reused. A request for a version that is already checked out
+ * shares the existing checkout. Otherwise, the idle checkout of the
+ * nearest older version of the same project is updated to the requested
+ * version, which is much cheaper than a fresh checkout. At most a fixed
+ * number of checkouts is kept per project. When the pooled checkouts use
+ * more disk space than allowed, the least recently used idle checkouts
+ * are deleted.
+ *
+ * Checkouts requested when all of a project's checkouts are in use are
+ * not pooled, and are deleted when released.
+ */
+class CheckoutPool {
+
+    private Logger logger;
+    private File root;
+    private int maxPerProject;
+    private long maxDiskUsage;
+    /*
+     * Checkouts are done in directories with a random name, as they are
+     * not tied to specific revisions.
+     */
+    private Random random = new Random();
+
+    /* All guarded by this */
+    private Map<Long, List<Entry>> pool = new HashMap<Long, List<Entry>>();
+    private Map<OnDiskCheckout, Entry> entries =
+        new IdentityHashMap<OnDiskCheckout, Entry>();
+
+    private AtomicLong checkouts = new AtomicLong();
+    private AtomicLong checkoutTime = new AtomicLong();
+    private AtomicLong updates = new AtomicLong();
+    private AtomicLong updateTime = new AtomicLong();
+    private AtomicLong reuses = new AtomicLong();
+    private AtomicLong evictions = new AtomicLong();
+
+    /**
+     * A checkout and its bookkeeping information. Version information is
+     * kept as plain values, as the checkout's ProjectVersion may belong to
+     * a closed DB session.
+     */
+    private static class Entry {
+        OnDiskCheckoutImpl co;
+        long projectId;
+        String path;
+        long versionId;
+        long sequence;
+        String revisionId;
+        int handles = 0;
+        long lastUsed;
+        /* Measured when the checkout is created or updated */
+        volatile long diskUsage = 0;
+        boolean pooled;
+        boolean failed = false;
+
+        void setVersion(ProjectVersion pv) {
+            versionId = pv.getId();
+            sequence = pv.getSequence();
+            revisionId = pv.getRevisionId();
+        }
+    }
+
+    /**
+     * @param root Directory to create checkouts in
+     * @param maxPerProject Maximum number of checkouts to keep per project
+     * @param maxDiskUsage Maximum size in bytes of all kept checkouts
+     */
+    CheckoutPool(Logger logger, File root, int maxPerProject,
+            long maxDiskUsage) {
+        this.logger = logger;
+        this.root = root;
+        this.maxPerProject = maxPerProject;
+        this.maxDiskUsage = maxDiskUsage;
+    }
+
+    /**
+     * Get a checkout of the provided project version, creating or updating
+     * one if necessary. The checkout must be returned with
+     * {@link #release(OnDiskCheckout)}.
+     */
+    OnDiskCheckout acquire(SCMAccessor scm, ProjectVersion pv, String path)
+            throws CheckoutException {
+        Entry e = null;
+        Entry victim = null;
+        String from = null;
+        boolean create = false;
+        boolean owner = false;
+
+        synchronized (this) {
+            List<Entry> project = pool.get(pv.getProject().getId());
+            if (project == null) {
+                project = new ArrayList<Entry>();
+                pool.put(pv.getProject().getId(), project);
+            }
+
+            Entry older = null;
+            for (Entry c : project) {
+                if (c.failed || !c.path.equals(path))
+                    continue;
+                if (c.versionId == pv.getId()) {
+                    e = c;
+                    break;
+                }
+                if (c.handles == 0 && c.sequence < pv.getSequence()
+                        && (older == null || c.sequence > older.sequence))
+                    older = c;
+            }
+
+            if (e != null) {
+                e.handles++;
+                reuses.incrementAndGet();
+            } else {
+                if (older != null) {
+                    e = older;
+                } else {
+                    if (project.size() >= maxPerProject) {
+                        victim = leastRecentlyUsed(project);
+                        if (victim != null)
+                            remove(victim);
+                    }
+                    e = newEntry(scm, pv, path);
+                    e.pooled = project.size() < maxPerProject;
+                    if (e.pooled)
+                        project.add(e);
+                    entries.put(e.co, e);
+                    create = true;
+                }
+                e.handles = 1;
+                from = e.revisionId;
+                e.setVersion(pv);
+                owner = true;
+                /* Make clients sharing this checkout wait until it is ready */
+                e.co.lock();
+            }
+        }
+
+        if (victim != null)
+            delete(victim);
+
+        if (!owner) {
+            /* Shared checkout, wait for its creation or update to finish */
+            e.co.lock();
+            e.co.unlock();
+            if (e.failed) {
+                release(e.co);
+                throw new CheckoutException("Checkout of " + pv + " failed");
+            }
+            return e.co;
+        }
+
+        boolean ready = false;
+        try {
+            if (create)
+                checkout(e, pv);
+            else
+                update(e, from, pv);
+            ready = true;
+        } finally {
+            if (!ready)
+                fail(e);
+            e.co.unlock();
+            if (!ready)
+                release(e.co);
+        }
+        return e.co;
+    }
+
+    /**
+     * Return a checkout obtained by {@link #acquire}. When no longer used,
+     * checkouts that are not pooled are deleted.
+     */
+    void release(OnDiskCheckout c) {
+        Entry e;
+        synchronized (this) {
+            e = entries.get(c);
+            if (e == null) {
+                logger.warn("Attempting to release unknown checkout " + c);
+                return;
+            }
+            e.handles--;
+            e.lastUsed = System.currentTimeMillis();
+            if (e.handles > 0)
+                return;
+            if (!e.pooled || e.failed)
+                entries.remove(c);
+        }
+
+        if (!e.pooled || e.failed) {
+            delete(e);
+            return;
+        }
+
+        trim();
+    }
+
+    /**
+     * Update a checkout held only by the caller to a newer version.
+     *
+     * @return false if the checkout is shared with other clients
+     */
+    boolean update(OnDiskCheckout c, ProjectVersion pv)
+            throws CheckoutException {
+        Entry e;
+        synchronized (this) {
+            e = entries.get(c);
+            if (e == null)
+                throw new CheckoutException("Checkout " + c
+                        + " is not managed by the FDS");
+            if (e.handles > 1)
+                return false;
+            if (e.sequence > pv.getSequence())
+                throw new CheckoutException("Checkout already updated");
+            if (e.versionId == pv.getId())
+                return true;
+            e.co.lock();
+        }
+
+        try {
+            update(e, e.revisionId, pv);
+            synchronized (this) {
+                e.setVersion(pv);
+            }
+        } catch (CheckoutException ex) {
+            fail(e);
+            throw ex;
+        } finally {
+            e.co.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Delete all pooled checkouts that are not in use.
+     */
+    void clear() {
+        List<Entry> idle = new ArrayList<Entry>();
+        synchronized (this) {
+            for (List<Entry> project : pool.values())
+                for (Entry e : project)
+                    if (e.handles == 0)
+                        idle.add(e);
+            for (Entry e : idle)
+                remove(e);
+        }
+        for (Entry e : idle)
+            delete(e);
+    }
+
+    @Override
+    public String toString() {
+        return "Checkouts: " + checkouts + " (" + checkoutTime + " ms), "
+                + "updates: " + updates + " (" + updateTime + " ms), "
+                + "reused: " + reuses + ", evicted: " + evictions;
+    }
+
+    private Entry newEntry(SCMAccessor scm, ProjectVersion pv, String path) {
+        File projectRoot = new File(root, pv.getProject().getName());
+        File checkoutRoot;
+        do {
+            checkoutRoot = new File(projectRoot,
+                    Integer.toHexString(random.nextInt()));
+        } while (checkoutRoot.exists());
+
+        Entry e = new Entry();
+        e.co = new OnDiskCheckoutImpl(scm, path, pv, checkoutRoot);
+        e.projectId = pv.getProject().getId();
+        e.path = path;
+        return e;
+    }
+
+    /** Called with the entry's update lock held */
+    private void checkout(Entry e, ProjectVersion pv)
+            throws CheckoutException {
+        File checkoutRoot = e.co.getLocalRoot();
+        if (!checkoutRoot.mkdirs()) {
+            throw new CheckoutException("Could not create checkout root <"
+                    + checkoutRoot + ">");
+        }
+
+        long ts = System.currentTimeMillis();
+        try {
+            e.co.getRoot();
+        } catch (FileNotFoundException ex) {
+            throw new CheckoutException("Error accessing checkout root. "
+                    + ex.getMessage());
+        }
+        long time = System.currentTimeMillis() - ts;
+        e.diskUsage = DiskUtil.du(checkoutRoot);
+        checkouts.incrementAndGet();
+        checkoutTime.addAndGet(time);
+        logger.info("Checked out " + pv + " in <" + checkoutRoot + "> in "
+                + time + " ms");
+    }
+
+    /** 
+     * Update a checkout from revision <code>from</code>. Called with the 
+     * entry's update lock held.
+     */
+    private void update(Entry e, String from, ProjectVersion pv) 
+            throws CheckoutException {
+        SCMAccessor scm = e.co.getAccessor();
+
+        long ts = System.currentTimeMillis();
+        try {
+            scm.updateCheckout(e.path, scm.newRevision(from),
+                    scm.newRevision(pv.getRevisionId()), e.co.getLocalRoot());
+            e.co.setRevision(pv);
+        } catch (InvalidProjectRevisionException ex) {
+            throw new CheckoutException("Project version " + pv
+                    + " does not map to an SCM revision. Error was:"
+                    + ex.getMessage());
+        } catch (InvalidRepositoryException ex) {
+            throw new CheckoutException("Error accessing repository "
+                    + scm.toString() + ". Error was:" + ex.getMessage());
+        } catch (FileNotFoundException ex) {
+            throw new CheckoutException("Error accessing checkout root. "
+                    + ex.getMessage());
+        }
+        long time = System.currentTimeMillis() - ts;
+        e.diskUsage = DiskUtil.du(e.co.getLocalRoot());
+        updates.incrementAndGet();
+        updateTime.addAndGet(time);
+        logger.info("Updated checkout <" + e.co.getLocalRoot() + "> from "
+                + "r" + from + " to " + pv + " in " + time + " ms");
+    }
+
+    /** Take a failed checkout out of the pool, to be deleted on release */
+    private synchronized void fail(Entry e) {
+        e.failed = true;
+        List<Entry> project = pool.get(e.projectId);
+        if (project != null)
+            project.remove(e);
+    }
+
+    /**
+     * Delete least recently used idle checkouts until the pooled checkouts
+     * fit the disk budget.
+     */
+    private void trim() {
+        if (maxDiskUsage <= 0)
+            return;
+
+        List<Entry> victims = new ArrayList<Entry>();
+        synchronized (this) {
+            long usage = 0;
+            List<Entry> all = new ArrayList<Entry>();
+            for (List<Entry> project : pool.values()) {
+                for (Entry e : project) {
+                    usage += e.diskUsage;
+                    all.add(e);
+                }
+            }
+
+            while (usage > maxDiskUsage) {
+                Entry victim = leastRecentlyUsed(all);
+                if (victim == null)
+                    break;
+                all.remove(victim);
+                remove(victim);
+                victims.add(victim);
+                usage -= victim.diskUsage;
+            }
+        }
+
+        for (Entry e : victims)
+            delete(e);
+    }
+
+    /** Called with the pool lock held */
+    private Entry leastRecentlyUsed(List<Entry> candidates) {
+        Entry lru = null;
+        for (Entry e : candidates)
+            if (e.handles == 0 && (lru == null || e.lastUsed < lru.lastUsed))
+                lru = e;
+        return lru;
+    }
+
+    /** Called with the pool lock held */
+    private void remove(Entry e) {
+        List<Entry> project = pool.get(e.projectId);
+        if (project != null)
+            project.remove(e);
+        entries.remove(e.co);
+        evictions.incrementAndGet();
+    }
+
+    private void delete(Entry e) {
+        logger.debug("Deleting checkout <" + e.co.getLocalRoot() + ">");
+        FileUtils.deleteRecursive(e.co.getLocalRoot());
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -85,6 +85,25 @@ public final class DiskUtil {
         return false;
     }
 
+    /**
+     * Calculate the total size of the files in a directory tree d.
+     * @param d directory to measure
+     * @return size of all files under d in bytes
+     */
+    public static long du(final File d) {
+        if (d.isFile()) {
+            return d.length();
+        }
+        long size = 0;
+        File[] files = d.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                size += du(f);
+            }
+        }
+        return size;
+    }
+
     /**
      * Create a bunch of junk files underneath a given directory.
      * Recurse into any directories created this way (and create
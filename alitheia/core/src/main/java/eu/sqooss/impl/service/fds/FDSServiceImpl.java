@@ -39,17 +39,19 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
-import java.util.Random;
-import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
+import eu.sqooss.service.util.ByteCache;
 import eu.sqooss.service.util.FileUtils;
 import org.apache.commons.codec.binary.Hex;
 import org.osgi.framework.BundleContext;
 
 import eu.sqooss.core.AlitheiaCore;
-import eu.sqooss.service.db.DBService;
 import eu.sqooss.service.db.ProjectFile;
 import eu.sqooss.service.db.ProjectVersion;
 import eu.sqooss.service.db.StoredProject;
@@ -82,25 +84,35 @@ public class FDSServiceImpl implements FDSService, Runnable {
      * directory, and then checkouts of that project live under there.
      */
     private File fdsCheckoutRoot = null;
-    /**
-     * Checkouts are done in directories with a random prefix; this is done to
-     * avoid the suggestion that the checkouts are tied to specific revisions.
-     * We generate the random prefixes with this random generator.
-     */
-    private Random randomCheckout = null;
+    /** Checkouts kept for reuse after they are released */
+    private CheckoutPool checkouts;
 
-    /**
-     * Cache checkouts in a live system. The cache will not be re-populated from
-     * on disk data if the system is shutdown.
-     */
-    private ConcurrentHashMap<String, OnDiskCheckout> checkoutCache;
+    /** Default number of checkouts kept per project */
+    private static final int DEFAULT_CHECKOUTS_PER_PROJECT = 4;
+    /** Default disk space for kept checkouts, in MB */
+    private static final long DEFAULT_CHECKOUT_DISK = 2048;
 
     /**
-     * Number of handles acquired on each cached checkout.
+     * Files being retrieved by getFile(), by target path. Concurrent
+     * requests for the same file wait for the first one to finish.
      */
-    private ConcurrentHashMap<OnDiskCheckout, Integer> checkoutHandles;
+    private ConcurrentHashMap<String, FutureTask<File>> pendingFiles =
+        new ConcurrentHashMap<String, FutureTask<File>>();
 
     private BundleContext bc;
+
+    /**
+     * Cache for file contents. The cache is provided by an external service,
+     * so it is looked up periodically until it becomes available.
+     */
+    private volatile ByteCache contentsCache;
+    private volatile long lastCacheLookup = 0;
+    private boolean useContentsCache = true;
+    private static final long CACHE_LOOKUP_INTERVAL = 10000;
+
+    /** File contents requests served from and missed by the cache */
+    private AtomicLong contentsHits = new AtomicLong();
+    private AtomicLong contentsMisses = new AtomicLong();
     
     /*
      * The following constants influence the formatting of checkout and project
@@ -143,42 +155,6 @@ public class FDSServiceImpl implements FDSService, Runnable {
         }
     }
 
-    /**
-     * Create, for a given SCM accessor, an on disk checkout at a given
-     * revision. This assumes that there is not already a checkout for this
-     * project in this revision, and uses the SCM itself to do the checkout
-     * somewhere underneath the FDS root.
-     * 
-     * @return
-     */
-    private OnDiskCheckout createCheckout(SCMAccessor scm, ProjectVersion pv, String path) {
-        logger.info("Creating new checkout for " + pv);
-
-        File projectRoot = new File(fdsCheckoutRoot, pv.getProject().getName());
-        // It might not exist yet
-        projectRoot.mkdirs();
-
-        // Side effect: throws if the revision is invalid
-        Revision r = scm.newRevision(pv.getRevisionId());
-        File checkoutRoot = new File(projectRoot, pv.getRevisionId());
-
-        if (checkoutRoot.exists()) {
-            logger.warn("Checkout root <" + checkoutRoot + "> exists. " +
-                    "Cleaning up");
-            FileUtils.deleteRecursive(checkoutRoot);
-        }
-        if (!checkoutRoot.mkdirs()) {
-            logger.warn("Could not create checkout root <" + checkoutRoot
-                    + ">");
-            return null;
-        }
-
-        // Now checkoutRoot exists and is a directory.
-        logger.info("Created checkout root <" + checkoutRoot + ">");
-        OnDiskCheckoutImpl c = new OnDiskCheckoutImpl(scm, path, pv, checkoutRoot);
-        return c;
-    }
-
     /**
      * For a project file, return the SCM revision that it refers to.
      * 
@@ -304,149 +280,123 @@ public class FDSServiceImpl implements FDSService, Runnable {
         return true;
     }
 
-    // Checkout cache ops
     /**
-     * Atomic get from cache and increment handle count.
+     * Get the file contents cache, or null if no cache is available.
      */
-    private synchronized OnDiskCheckout getCheckoutFromCache(ProjectVersion pv) {
-
-        if (pv == null || pv.getId() == 0) {
-            return null;
+    private ByteCache contentsCache() {
+        ByteCache c = contentsCache;
+        if (c != null || !useContentsCache)
+            return c;
+
+        long now = System.currentTimeMillis();
+        if (now - lastCacheLookup > CACHE_LOOKUP_INTERVAL) {
+            lastCacheLookup = now;
+            c = AlitheiaCore.getInstance().getService(ByteCache.class);
+            if (c != null) {
+                logger.info("Caching file contents in " + c.getClass().getName());
+                contentsCache = c;
+            }
         }
-
-        OnDiskCheckout co = checkoutCache.get(cacheKey(pv));
-
-        if (co == null)
-            return null;
-
-        checkoutHandles.put(co, checkoutHandles.get(co) + 1);
-
-        return co;
-    }
-
-    /**
-     * Atomic decrement of checkout handle counts.
-     */
-    private synchronized void returnCheckout(OnDiskCheckout c) {
-        if (c == null)
-            return;
-
-        if (checkoutHandles.contains(c))
-            checkoutHandles.put(c, checkoutHandles.get(c) - 1);
-    }
-
-    /**
-     * Atomic add checkout to both cache tables
-     */
-    private synchronized void addCheckoutToCache(ProjectVersion pv,
-            OnDiskCheckout c) {
-        checkoutCache.putIfAbsent(cacheKey(pv), c);
-        checkoutHandles.putIfAbsent(c, 0);
-    }
-
-    /**
-     * Atomically check whether the checkout can be updated
-     */
-    private synchronized boolean isUpdatable(OnDiskCheckout c) {
-        if (checkoutHandles.get(c) > 0)
-            return false;
-        return true;
+        return c;
     }
 
     /**
-     * Check if there is a checkout for a specific project version.
+     * Key for the contents of a project file in the contents cache. File
+     * contents do not change once committed, so project, path and revision
+     * identify them uniquely.
      */
-    private synchronized boolean cacheContains(ProjectVersion pv) {
-        if (checkoutCache.keySet().contains(cacheKey(pv)))
-            return true;
-        return false;
+    private String contentsKey(ProjectFile pf) {
+        ProjectVersion pv = pf.getProjectVersion();
+        return "fds:" + pv.getProject().getId() + ":" + pv.getRevisionId()
+                + ":" + pf.getFileName();
     }
 
-    // Cache key ops
-    /**
-     * Munge together info from the provided project version to create a unique
-     * key for indexing cache checkouts.
-     */
-    private String cacheKey(ProjectVersion pv) {
-        return pv.getProject().getName() + "|" + pv.getId() + "|"
-                + pv.getRevisionId();
-    }
+    // ===[ INTERFACE METHODS ]===============================================
 
-    /**
-     * Retrieve the project name part of the provided cache key.
-     */
-    private String cacheKeyProject(String key) {
-        if (key == null || key.length() == 0)
+    /** {@inheritDoc} */
+    public File getFile(ProjectFile pf) {
+        final Revision projectRevision = projectFileRevision(pf);
+        if (projectRevision == null) {
             return null;
+        }
 
-        return key.split("|")[0];
-    }
-
-    /**
-     * Retrieve from the provided cache key and resolve from the DB the
-     * ProjectVersion object attached to a checkout.
-     */
-    private ProjectVersion cacheKeyProjectVersion(String key) {
-        if (key == null || key.length() == 0)
+        final File checkoutFile = projectFileLocal(pf, projectRevision);
+        if (checkoutFile == null) {
             return null;
+        }
 
-        DBService dbs = AlitheiaCore.getInstance().getDBService();
-
-        Long id = Long.parseLong(key.split("|")[1]);
-        return dbs.findObjectById(ProjectVersion.class, id);
-    }
-
-    /**
-     * Convert between database and SCM revision representations
-     */
-    private static Revision projectVersionToRevision(ProjectVersion pv) {
-        TDSService tds = AlitheiaCore.getInstance().getTDSService();
-        SCMAccessor scm = null;
+        // Skip the checkout, in case this ProjectFile is already
+        // available (i.e. retrieved in a previous checkout). Files are
+        // moved in place only when completely written.
+        if (isReadableFile(checkoutFile)) {
+            return checkoutFile;
+        }
 
-        if (tds.accessorExists(pv.getProject().getId())) {
-            scm = (SCMAccessor) tds.getAccessor(pv.getProject().getId());
-        } else {
+        final SCMAccessor scm = projectFileAccessor(pf);
+        if (scm == null) {
             return null;
         }
 
-        return scm.newRevision(pv.getRevisionId());
-    }
-
-    // ===[ INTERFACE METHODS ]===============================================
+        // Only one thread retrieves each file, the others wait for it
+        final ProjectFile file = pf;
+        FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+            public File call() {
+                return retrieveFile(file, scm, projectRevision, checkoutFile);
+            }
+        });
+        String key = checkoutFile.getAbsolutePath();
+        FutureTask<File> running = pendingFiles.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                pendingFiles.remove(key, task);
+            }
+        }
 
-    /** {@inheritDoc} */
-    public synchronized File getFile(ProjectFile pf) {
-        Revision projectRevision = projectFileRevision(pf);
-        if (projectRevision == null) {
-            return null;
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while waiting for " + pf.toString());
+        } catch (ExecutionException e) {
+            logger.error("Error retrieving " + pf.toString() + ": "
+                    + e.getCause().getMessage());
         }
+        return null;
+    }
 
-        File checkoutFile = projectFileLocal(pf, projectRevision);
-        if (checkoutFile == null) {
-            return null;
+    /**
+     * Check out a project file to the provided location. The file is
+     * written to a temporary file first, so that concurrent readers
+     * never see a partially written file.
+     */
+    private File retrieveFile(ProjectFile pf, SCMAccessor scm,
+            Revision projectRevision, File checkoutFile) {
+        // Retrieved while waiting to get here
+        if (isReadableFile(checkoutFile)) {
+            return checkoutFile;
         }
 
-        SCMAccessor scm = projectFileAccessor(pf);
-        if (scm == null) {
-            return null;
+        // Create the path to the target file if it doesn't exist
+        if ((checkoutFile.getParentFile() != null)
+                && (!checkoutFile.getParentFile().exists())) {
+            checkoutFile.getParentFile().mkdirs();
         }
 
+        File tmp = new File(checkoutFile.getPath() + ".part"
+                + Thread.currentThread().getId());
         try {
-            // Skip the checkout, in case this ProjectFile is already
-            // available (i.e. retrieved in a previous checkout)
-            if (!(checkoutFile.exists() && checkoutFile.length() <= 0)) {
-                // Create the path to the target file if it doesn't exist
-                if ((checkoutFile.getParentFile() != null)
-                        && (!checkoutFile.getParentFile().exists())) {
-                    checkoutFile.getParentFile().mkdirs();
-                }
-                // Try to checkout the target file
-                scm.getFile(pf.getFileName(), projectRevision, checkoutFile);
+            // Try to checkout the target file
+            scm.getFile(pf.getFileName(), projectRevision, tmp);
+
+            if (tmp.exists() && !tmp.renameTo(checkoutFile)) {
+                logger.warn("Cannot move " + tmp + " to " + checkoutFile);
             }
 
             // Make sure that the target file is accessible
-            if ((checkoutFile.exists()) && (checkoutFile.isFile())
-                    && (checkoutFile.canRead())) {
+            if (isReadableFile(checkoutFile)) {
                 return checkoutFile;
             }
             // returning null here is fine
@@ -460,13 +410,31 @@ public class FDSServiceImpl implements FDSService, Runnable {
         } catch (FileNotFoundException e) {
             logger.error("File " + pf.toString() + " not found in the given "
                     + "repository: " + e.getMessage());
+        } finally {
+            tmp.delete();
         }
         return null;
     }
 
+    private static boolean isReadableFile(File f) {
+        return f.exists() && f.isFile() && f.canRead();
+    }
+
     /** {@inheritDoc} */
     public InputStream getFileContents(ProjectFile pf) {
 
+        ByteCache cache = contentsCache();
+        String key = null;
+        if (cache != null) {
+            key = contentsKey(pf);
+            byte[] contents = cache.get(key);
+            if (contents != null) {
+                contentsHits.incrementAndGet();
+                return new ByteArrayInputStream(contents);
+            }
+        }
+        contentsMisses.incrementAndGet();
+
         Revision projectRevision = projectFileRevision(pf);
         if (projectRevision == null) {
             return null;
@@ -474,8 +442,10 @@ public class FDSServiceImpl implements FDSService, Runnable {
 
         SCMAccessor scm = projectFileAccessor(pf);
         ByteArrayOutputStream buff = new ByteArrayOutputStream();
+        boolean retrieved = false;
         try {
             scm.getFile(pf.getFileName(), projectRevision, buff);
+            retrieved = true;
         } catch (InvalidProjectRevisionException e) {
             logger.error("The repository for " + pf.toString()
                     + " is invalid: " + e.getMessage());
@@ -488,9 +458,18 @@ public class FDSServiceImpl implements FDSService, Runnable {
                     + "repository: " + e.getMessage());
         }
 
-        ByteArrayInputStream contents = new ByteArrayInputStream(buff
-                .toByteArray());
-        return contents;
+        byte[] contents = buff.toByteArray();
+        if (cache != null && retrieved)
+            cache.set(key, contents);
+
+        return new ByteArrayInputStream(contents);
+    }
+
+    /** {@inheritDoc} */
+    public double getFileContentsHitRate() {
+        long hits = contentsHits.get();
+        long total = hits + contentsMisses.get();
+        return total == 0 ? 0 : (double) hits / total;
     }
 
     /** {@inheritDoc} */
@@ -543,122 +522,29 @@ public class FDSServiceImpl implements FDSService, Runnable {
 
         svn.newRevision(pv.getRevisionId());
 
-        logger.info("Finding available checkout for " + pv);
-        OnDiskCheckout co = getCheckoutFromCache(pv);
-
-        if (co != null) {
-            // Checkout acquired from cache, return it.
-            return co;
-        }
-
-        // Search for a cached checkout that could be updated
-        /*Set<String> c = checkoutCache.keySet();
-        OnDiskCheckoutImpl updatable = null;
-
-        for (String s : c) {
-            if (cacheKeyProject(s).equals(pv.getProject())) {
-                ProjectVersion cached = cacheKeyProjectVersion(s);
-                if (cached.lt(pv)) {
-                    updatable = (OnDiskCheckoutImpl) getCheckoutFromCache(cached);
-
-                    if (checkoutHandles.get(updatable) == 1) {
-                        try {
-                            updateCheckout(updatable, pv);
-                        } finally {
-                            releaseCheckout(updatable);
-                        }
-                        return getCheckoutFromCache(pv);
-                    }
-                    releaseCheckout(updatable);
-                    updatable = null;
-                }
-            }
-        }
-
-        // No updatable checkout found, create
-        synchronized (pv) {
-            if (!cacheContains(pv))
-                addCheckoutToCache(pv, createCheckout(svn, pv));
-        } */
-        //return getCheckoutFromCache(pv);
-        return createCheckout(svn, pv, path);
+        return checkouts.acquire(svn, pv, path);
     }
 
     /** {@inheritDoc} */
     public boolean updateCheckout(OnDiskCheckout c, ProjectVersion pv)
             throws CheckoutException {
 
-        if (c != null) {
-            return false;
-        }
-
-        // Check if the checkout is held by another client before updating
-        if (!isUpdatable(c)) {
+        if (c == null) {
             return false;
         }
 
-        OnDiskCheckoutImpl cimpl = (OnDiskCheckoutImpl) c;
-        cimpl.lock();
-
-        // Check if an update took place while waiting for the lock to become
-        // available
-        if (cimpl.getProjectVersion().gt(pv)) {
-            logger.error("Error updating checkout. Checkout has been"
-                    + " already updated to a newer version");
-            throw new CheckoutException("Checkout already updated");
-        } else if (cimpl.getProjectVersion().eq(pv)) {
-            return true;
-        }
-
-        SCMAccessor scm = (SCMAccessor) AlitheiaCore.getInstance()
-                .getTDSService().getAccessor(pv.getProject().getId());
-        try {
-            scm.updateCheckout(cimpl.getRepositoryPath(),
-                    projectVersionToRevision(cimpl.getProjectVersion()),
-                    projectVersionToRevision(pv), cimpl.getRoot());
-            cimpl.setRevision(pv);
-
-        } catch (InvalidProjectRevisionException e) {
-            throw new CheckoutException("Project version " + pv
-                    + " does not map to an SCM revision. Error was:"
-                    + e.getMessage());
-        } catch (InvalidRepositoryException e) {
-            throw new CheckoutException("Error accessing repository "
-                    + scm.toString() + ". Error was:" + e.getMessage());
-        } catch (FileNotFoundException e) {
-            throw new CheckoutException("Error accessing checkout root. "
-                    + e.getMessage());
-        } finally {
-            cimpl.unlock();
-        }
-        return true;
+        return checkouts.update(c, pv);
     }
 
     /** {@inheritDoc} */
     public void releaseCheckout(OnDiskCheckout c) {
 
-        /*
         if (c == null) {
             logger.warn("Attempting to release null checkout");
             return;
         }
 
-        if (!checkoutCache.contains(c)) {
-            logger.warn("Attempting to release not cached checkout");
-            return;
-        }
-
-        returnCheckout(c);
-        */
-        File root = null;
-        try {
-            root = c.getRoot();
-            FileUtils.deleteRecursive(root);
-        } catch (Exception e) {
-            logger.error("Cannot clean up checkout root: " +
-                    root.getAbsolutePath());
-        }
-        c = null;
+        checkouts.release(c);
     }
 
     public Timeline getTimeline(StoredProject c) {
@@ -677,6 +563,12 @@ public class FDSServiceImpl implements FDSService, Runnable {
 
     @Override
     public void shutDown() {
+        logger.info(checkouts.toString());
+        checkouts.clear();
+        logger.info("File contents cache: " + contentsHits + " hits, "
+                + contentsMisses + " misses, hit rate "
+                + getFileContentsHitRate());
+
         String s = bc.getProperty("eu.sqooss.fds.cleanupOnExit");
 
         if (s != null && s.equals("true")) {
@@ -691,8 +583,6 @@ public class FDSServiceImpl implements FDSService, Runnable {
         tds = AlitheiaCore.getInstance().getTDSService();
         logger.info("Got TDS service for FDS.");
 
-        checkoutCache = new ConcurrentHashMap<String, OnDiskCheckout>();
-        checkoutHandles = new ConcurrentHashMap<OnDiskCheckout, Integer>();
         // Get the checkout root from the properties file.
         String s = bc.getProperty("eu.sqooss.fds.root");
         if (s == null) {
@@ -702,7 +592,29 @@ public class FDSServiceImpl implements FDSService, Runnable {
             logger.info("FDS root directory " + s);
         }
         fdsCheckoutRoot = new File(s);
-        randomCheckout = new Random();
+
+        int perProject = DEFAULT_CHECKOUTS_PER_PROJECT;
+        long disk = DEFAULT_CHECKOUT_DISK;
+        try {
+            s = bc.getProperty("eu.sqooss.fds.checkouts");
+            if (s != null)
+                perProject = Integer.parseInt(s);
+            s = bc.getProperty("eu.sqooss.fds.checkouts.disk");
+            if (s != null)
+                disk = Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid checkout pool configuration: " + e.getMessage());
+        }
+        logger.info("Keeping up to " + perProject + " checkouts per project, "
+                + "using up to " + disk + "MB");
+        checkouts = new CheckoutPool(logger, fdsCheckoutRoot, perProject,
+                disk * 1024 * 1024);
+
+        s = bc.getProperty("eu.sqooss.fds.contentcache");
+        if (s != null && s.equals("false")) {
+            logger.info("File contents cache disabled");
+            useContentsCache = false;
+        }
 
         return true;
     }
@@ -64,7 +64,7 @@ class OnDiskCheckoutImpl implements OnDiskCheckout {
     private ProjectVersion revision;
     private SCMAccessor scm;
     
-    private boolean initCheckout = false;
+    private volatile boolean initCheckout = false;
 
     OnDiskCheckoutImpl(SCMAccessor accessor, String path,
                        ProjectVersion pv, File root) {
@@ -82,6 +82,15 @@ class OnDiskCheckoutImpl implements OnDiskCheckout {
     void setAccessor(SCMAccessor scm) {
         this.scm = scm;
     }
+
+    SCMAccessor getAccessor() {
+        return scm;
+    }
+
+    /** The directory the checkout lives in, without checking it out */
+    File getLocalRoot() {
+        return localRoot;
+    }
     
     void lock() {
         if (!updateLock.isHeldByCurrentThread())
@@ -98,11 +107,17 @@ class OnDiskCheckoutImpl implements OnDiskCheckout {
         throws FileNotFoundException, CheckoutException {
         
         if (initCheckout == false) {
-            lock();
+            /* The FDS holds the lock while creating a pooled checkout */
+            boolean locked = !updateLock.isHeldByCurrentThread();
+            if (locked)
+                updateLock.lock();
             try {
+                if (initCheckout)
+                    return localRoot;
                 scm.getCheckout(repoPath, 
                         scm.newRevision(revision.getRevisionId()), 
                         localRoot);
+                initCheckout = true;
             } catch (InvalidProjectRevisionException e) {
                 throw new CheckoutException("Project version " + revision +
                         " does not map to an SCM revision. Error was:" 
@@ -111,9 +126,9 @@ class OnDiskCheckoutImpl implements OnDiskCheckout {
                 throw new CheckoutException("Error accessing repository " 
                         + scm.toString() + ". Error was:" + e.getMessage());
             } finally {
-                unlock();
+                if (locked)
+                    updateLock.unlock();
             }
-            initCheckout = true;
         } 
         
         return localRoot;
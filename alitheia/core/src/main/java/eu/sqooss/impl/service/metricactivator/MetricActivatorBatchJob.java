@@ -0,0 +1,222 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2008 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.impl.service.metricactivator;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.sqooss.core.AlitheiaCore;
+import eu.sqooss.service.abstractmetric.AbstractMetric;
+import eu.sqooss.service.abstractmetric.AlreadyProcessingException;
+import eu.sqooss.service.abstractmetric.MetricMismatchException;
+import eu.sqooss.service.db.DAObject;
+import eu.sqooss.service.db.DBService;
+import eu.sqooss.service.db.Metric;
+import eu.sqooss.service.logging.Logger;
+import eu.sqooss.service.scheduler.Job;
+
+/**
+ * Metric job that runs a metric on a batch of resources of the same
+ * activation type. All resources are processed by the same worker thread 
+ * and the DB session is committed every few resources, so that large 
+ * metric synchronisations do not need to create and queue one job 
+ * (and one DB session) per resource. 
+ * 
+ * Failures on individual resources do not fail the whole batch; they are
+ * logged and can be retrieved through {@link #getFailedIds()}. 
+ */
+public class MetricActivatorBatchJob extends Job {
+
+    /** Number of resources to process before committing the DB session */
+    static final int COMMIT_INTERVAL = 50;
+    
+    private Logger logger;
+    private DBService dbs;
+    private long[] daoIDs;
+    private AbstractMetric metric;
+    private long priority;
+    Class<? extends DAObject> daoType;
+    private boolean fastSync = false;
+    private Map<Long, Exception> failed = 
+        Collections.synchronizedMap(new LinkedHashMap<Long, Exception>());
+    
+    MetricActivatorBatchJob(AbstractMetric m, long[] daoIDs, Logger l,
+            Class<? extends DAObject> daoType, long priority, 
+            boolean fastSync) {
+        this.metric = m;
+        this.logger = l;
+        this.daoIDs = daoIDs;
+        this.daoType = daoType;
+        this.dbs = AlitheiaCore.getInstance().getDBService();
+        this.priority = priority;
+        this.fastSync = fastSync;
+    }
+    
+    @Override
+    public long priority() {
+        return priority;
+    }
+
+    @Override
+    protected void run() throws Exception {
+        failed.clear();
+        dbs.startDBSession();
+        metric.setJob(this);
+        
+        /* 
+         * Index of the first resource whose results have not been 
+         * committed yet. If the session has to be rolled back, processing
+         * resumes from there, skipping the resource that caused the 
+         * rollback.
+         */
+        int uncommitted = 0;
+        int i = 0;
+        
+        while (i < daoIDs.length) {
+            long daoID = daoIDs[i];
+            
+            if (failed.containsKey(daoID)) {
+                i++;
+                continue;
+            }
+            
+            try {
+                DAObject obj = dbs.findObjectById(daoType, daoID);
+                if (obj == null) {
+                    failed.put(daoID, new Exception("No " + daoType.getSimpleName()
+                            + " with id " + daoID));
+                } else {
+                    calculate(obj);
+                }
+            } catch (MetricMismatchException e) {
+                logger.warn("Metric " + metric.getName() + " failed on DAO id " 
+                        + daoID);
+                failed.put(daoID, e);
+            } catch (AlreadyProcessingException ape) {
+                /*
+                 * The metric has already rescheduled the calculation, but
+                 * may have left partial results in the session. Like
+                 * below, roll back and replay the uncommitted resources.
+                 */
+                logger.warn("DAO id " + daoID + " is locked, job has been " +
+                        "rescheduled");
+                failed.put(daoID, ape);
+                dbs.rollbackDBSession();
+                dbs.startDBSession();
+                i = uncommitted;
+                continue;
+            } catch (Exception e) {
+                /*
+                 * Lock acquisition or metric failure, the session cannot be
+                 * trusted any more. Roll back and replay the uncommitted 
+                 * resources, without the failing one.
+                 */
+                logger.warn("Metric " + metric.getName() + " failed on DAO id "
+                        + daoID + ": " + e.getMessage());
+                failed.put(daoID, e);
+                dbs.rollbackDBSession();
+                dbs.startDBSession();
+                i = uncommitted;
+                continue;
+            }
+            i++;
+            
+            if (i - uncommitted >= COMMIT_INTERVAL) {
+                commit(uncommitted, i);
+                dbs.startDBSession();
+                uncommitted = i;
+            }
+        }
+        
+        commit(uncommitted, daoIDs.length);
+        
+        if (!failed.isEmpty()) {
+            logger.warn(toString() + ": " + failed.size() + " out of " 
+                    + daoIDs.length + " resources failed, ids: " 
+                    + failed.keySet());
+        }
+    }
+
+    private void calculate(DAObject obj) throws Exception {
+        if (fastSync) {
+            /* See MetricActivatorJob for the rationale */
+            List<Metric> supported = metric.getSupportedMetrics(obj.getClass());
+            metric.getResult(obj, supported.subList(0, 1));
+        } else {
+            metric.getResult(obj, metric.getSupportedMetrics(obj.getClass()));
+        }
+    }
+    
+    private void commit(int from, int to) {
+        if (!dbs.commitDBSession()) {
+            logger.warn("commit failed - marking " + (to - from) 
+                    + " resources as failed");
+            Exception e = new Exception("DB commit failed");
+            for (int j = from; j < to; j++) {
+                if (!failed.containsKey(daoIDs[j]))
+                    failed.put(daoIDs[j], e);
+            }
+        }
+    }
+    
+    /**
+     * Get the resources on which the metric could not be calculated
+     * during the last execution of this job, along with the reason.
+     * 
+     * @return A map of DAO ids to failure causes, in processing order 
+     */
+    public Map<Long, Exception> getFailedIds() {
+        return Collections.unmodifiableMap(failed);
+    }
+    
+    /**
+     * @return The number of resources in this batch
+     */
+    public int size() {
+        return daoIDs.length;
+    }
+    
+    @Override
+    public String toString() {
+        return "MetricActivatorBatchJob: Metric:{" + metric.getName() 
+            + "} Activator:{" + daoType.getSimpleName() + "} DAOs:{" 
+            + daoIDs.length + (daoIDs.length > 0 ? 
+                    (", " + daoIDs[0] + ".." + daoIDs[daoIDs.length - 1]) : "") 
+            + "}";
+    }
+}
+
+//vi: ai nosi sw=4 ts=4 expandtab
@@ -69,9 +69,12 @@ import eu.sqooss.service.scheduler.Job;
 import eu.sqooss.service.scheduler.Scheduler;
 import eu.sqooss.service.scheduler.SchedulerException;
 import eu.sqooss.service.util.GraphTS;
+import eu.sqooss.service.util.SortedLongSet;
 
 public class MetricActivatorImpl  implements MetricActivator {
 
+    private static final String BATCH_SIZE_PROPERTY = "eu.sqooss.metricactivator.batch";
+
     /** The parent bundle's context object. */
     private BundleContext bc;
 
@@ -81,6 +84,7 @@ public class MetricActivatorImpl  implements MetricActivator {
     private DBService db;
     private Scheduler sched;
     private boolean fastSync = false;
+    private int batchSize = 1;
 
     private AtomicLong priority;
     
@@ -299,18 +303,16 @@ public class MetricActivatorImpl  implements MetricActivator {
 
             List<Metric> metrics = pa.getPlugin(mi).getAllSupportedMetrics();
             
-            Map<MetricType.Type, TreeSet<Long>> objectIds = new HashMap<MetricType.Type, TreeSet<Long>>();
+            Map<MetricType.Type, SortedLongSet> objectIds = new HashMap<MetricType.Type, SortedLongSet>();
 
             for (Metric m : metrics) {
             	Map<MetricType.Type, SortedSet<Long>> IDs = 
             		pa.getImplementingPlugin(m.getMnemonic()).getObjectIdsToSync(sp, m);
             	for (MetricType.Type t : IDs.keySet()) {
-            		
-            		if (objectIds.get(t) == null) {
-                    	objectIds.put(t, new TreeSet<Long>());	
-                    }
-                    
-                    objectIds.get(t).addAll(IDs.get(t));
+            		SortedLongSet ids = SortedLongSet.of(IDs.get(t));
+            		if (objectIds.get(t) != null)
+            		    ids = objectIds.get(t).union(ids);
+            		objectIds.put(t, ids);
             	}
             }
             
@@ -343,20 +345,30 @@ public class MetricActivatorImpl  implements MetricActivator {
             		continue;
 
                 //We assume that resource IDs increase monotonically
-                TreeSet<Long> ids = objectIds.get(actType);
-                TreeSet<Long> tmp = null;
+                long[] ids = objectIds.get(actType).toLongArray();
                 if (invOrder.equals(InvocationOrder.NEWFIRST)) {
-                    tmp = new TreeSet<Long>(new DecreasingLongComparator());
+                    for (int i = 0, j = ids.length - 1; i < j; i++, j--) {
+                        long tmp = ids[i];
+                        ids[i] = ids[j];
+                        ids[j] = tmp;
+                    }
                 } else if (invOrder.equals(InvocationOrder.RANDOM)) {
-                    tmp = new TreeSet<Long>(new RandomizedComparator());
+                    Random r = new Random();
+                    for (int i = ids.length - 1; i > 0; i--) {
+                        int j = r.nextInt(i + 1);
+                        long tmp = ids[i];
+                        ids[i] = ids[j];
+                        ids[j] = tmp;
+                    }
                 }
 
-                if (tmp != null) {
-                    tmp.addAll(ids);
-                    ids = tmp;
+                if (batchSize > 1) {
+                    jobs.addAll(createBatchJobs(metric, ids, 
+                            metricTypesToActivators.get(actType)));
+                    continue;
                 }
 
-                for (Long l : ids) {
+                for (long l : ids) {
             		jobs.add(new MetricActivatorJob(metric, l, logger, 
             			metricTypesToActivators.get(actType),
             			priority.incrementAndGet(),
@@ -367,34 +379,30 @@ public class MetricActivatorImpl  implements MetricActivator {
             dbs.commitDBSession();
         }
         
+        /**
+         * Split the provided resource ids into batch jobs of at most 
+         * batchSize resources each, keeping the invocation order.
+         */
+        private List<Job> createBatchJobs(AbstractMetric metric, 
+                long[] ids, Class<? extends DAObject> daoType) {
+            List<Job> batches = new ArrayList<Job>();
+            
+            for (int i = 0; i < ids.length; i += batchSize) {
+                long[] batch = Arrays.copyOfRange(ids, i, 
+                        Math.min(i + batchSize, ids.length));
+                batches.add(new MetricActivatorBatchJob(metric, batch, 
+                        logger, daoType, priority.incrementAndGet(), 
+                        fastSync));
+            }
+            return batches;
+        }
+        
         @Override
         public String toString() {
             return "MetricSchedulerJob - Project:{" + sp + "} Metric:{" + m + "}";
         }
     }
 
-    class DecreasingLongComparator implements Comparator<Long> {
-        @Override
-        public int compare(Long a, Long b) {
-            if (a > b)
-                return -1;
-            else if (a < b)
-                return 1;
-            return 0;
-        }
-    }
-
-    class RandomizedComparator implements Comparator<Long> {
-        Random r = new Random();
-        @Override
-        public int compare(Long a, Long b) {
-            if(r.nextBoolean())
-                return -1;
-            else
-                return 1;
-        }
-    }
-
 	@Override
 	public void setInitParams(BundleContext bc, Logger l) {
 		this.bc = bc;
@@ -433,6 +441,17 @@ public class MetricActivatorImpl  implements MetricActivator {
         
         if (sync != null && sync.equalsIgnoreCase("fast"))
             this.fastSync = true;
+        
+        String batch = bc.getProperty(BATCH_SIZE_PROPERTY);
+        if (batch != null) {
+            try {
+                batchSize = Integer.parseInt(batch);
+            } catch (NumberFormatException nfe) {
+                logger.warn("Invalid metric activation batch size:" + batch);
+            }
+        }
+        if (batchSize > 1)
+            logger.info("Metric activation batch size: " + batchSize);
 	
         return true;
 	}
@@ -35,6 +35,7 @@ package eu.sqooss.impl.service.pa;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -99,6 +100,33 @@ public class PAServiceImpl implements PluginAdmin, ServiceListener {
     private ConcurrentHashMap<String, PluginInfo> registeredPlugins =
         new ConcurrentHashMap<String, PluginInfo>();
 
+    /**
+     * Installed plug-ins, indexed by the mnemonics of the metrics they
+     * implement. Kept in sync with registeredPlugins.
+     */
+    private ConcurrentHashMap<String, AlitheiaPlugin> metricIndex =
+        new ConcurrentHashMap<String, AlitheiaPlugin>();
+
+    /**
+     * The info objects of registered plug-ins, indexed by plug-in object.
+     * Kept in sync with registeredPlugins.
+     */
+    private ConcurrentHashMap<AlitheiaPlugin, PluginInfo> pluginIndex =
+        new ConcurrentHashMap<AlitheiaPlugin, PluginInfo>();
+
+    /**
+     * Mnemonics no installed plug-in implements, so that looking them up
+     * again does not scan all plug-ins. Cleared whenever a plug-in's info
+     * object is stored, as its metrics might have changed.
+     */
+    private Set<String> unknownMetrics = Collections.newSetFromMap(
+        new ConcurrentHashMap<String, Boolean>());
+
+    /** Incremented whenever a plug-in's info object is stored */
+    private int indexVersion = 0;
+
+    private Object indexLock = new Object();
+
     public PAServiceImpl () { }
 
     /**
@@ -313,6 +341,53 @@ public class PAServiceImpl implements PluginAdmin, ServiceListener {
         return null;
     }
 
+    /**
+     * Stores a plug-in's info object, replacing any previous info object 
+     * for the same plug-in, and updates the lookup indexes.
+     *
+     * @param pluginInfo - the plug-in's info object
+     * @param p - the DAO object of the plug-in, <code>null</code> if the
+     *   plug-in is not installed
+     */
+    private void storePluginInfo(PluginInfo pluginInfo, Plugin p) {
+        AlitheiaPlugin sobjPlugin = getPluginObject(pluginInfo.getServiceRef());
+        synchronized (indexLock) {
+            registeredPlugins.put(pluginInfo.getHashcode(), pluginInfo);
+            unknownMetrics.clear();
+            indexVersion++;
+            if (sobjPlugin == null)
+                return;
+            pluginIndex.put(sobjPlugin, pluginInfo);
+            metricIndex.values().removeAll(Collections.singleton(sobjPlugin));
+            if (pluginInfo.installed && p != null) {
+                for (Metric m : p.getSupportedMetrics())
+                    metricIndex.put(m.getMnemonic(), sobjPlugin);
+            }
+        }
+    }
+
+    /**
+     * Removes a plug-in's info object and its entries in the lookup indexes.
+     *
+     * @param hash - the plug-in's hash code
+     */
+    private void removePluginInfo(String hash) {
+        synchronized (indexLock) {
+            PluginInfo pluginInfo = registeredPlugins.remove(hash);
+            if (pluginInfo == null)
+                return;
+            Iterator<PluginInfo> i = pluginIndex.values().iterator();
+            while (i.hasNext()) {
+                if (i.next() == pluginInfo) {
+                    i.remove();
+                }
+            }
+            AlitheiaPlugin sobjPlugin = getPluginObject(pluginInfo.getServiceRef());
+            if (sobjPlugin != null)
+                metricIndex.values().removeAll(Collections.singleton(sobjPlugin));
+        }
+    }
+
     /**
      * Performs various maintenance operations upon registration of a new
      * metric plug-in's service.
@@ -344,7 +419,7 @@ public class PAServiceImpl implements PluginAdmin, ServiceListener {
         }
         else {
             // Store the info object into the info object's list
-            registeredPlugins.put(pluginInfo.getHashcode(), pluginInfo);
+            storePluginInfo(pluginInfo, daoPlugin);
             logger.info(
                     "Plug-in service (" + pluginInfo.getPluginName() + ")"
                     + " was registered.");
@@ -368,7 +443,7 @@ public class PAServiceImpl implements PluginAdmin, ServiceListener {
         }
         else {
             // Remove the info object from the info object's list
-            registeredPlugins.remove(pluginInfo.getHashcode());
+            removePluginInfo(pluginInfo.getHashcode());
             logger.info(
                     "Plug-in service (" + pluginInfo.getPluginName() + ")"
                     + " is unregistering.");
@@ -469,11 +544,9 @@ public class PAServiceImpl implements PluginAdmin, ServiceListener {
                                 daoPlugin);
                         if (pluginInfo != null) {
                             // Remove the old "registered" info object
-                            registeredPlugins.remove(
-                                    sobjPlugin.getUniqueKey());
+                            removePluginInfo(sobjPlugin.getUniqueKey());
                             // Store the info object
-                            registeredPlugins.put(
-                                    pluginInfo.getHashcode(), pluginInfo);
+                            storePluginInfo(pluginInfo, daoPlugin);
                             return true;
                         }
                     }
@@ -536,7 +609,10 @@ public class PAServiceImpl implements PluginAdmin, ServiceListener {
     }
 
     public PluginInfo getPluginInfo(AlitheiaPlugin m) {
-        PluginInfo mi = null;
+        PluginInfo mi = pluginIndex.get(m);
+        if (mi != null)
+            return mi;
+        
         Collection<PluginInfo> c = listPlugins();
         Iterator<PluginInfo> i = c.iterator();
 
@@ -581,7 +657,7 @@ public class PAServiceImpl implements PluginAdmin, ServiceListener {
             Plugin pDao = pluginRefToPluginDAO(srefPlugin);
             pi = createInstalledPI(srefPlugin, pDao);
             if (pi != null) {
-                registeredPlugins.put(pi.getHashcode(), pi);
+                storePluginInfo(pi, pDao);
                 logger.info("Plug-in (" + pi.getPluginName()
                         + ") successfuly updated");
                 // TODO: Not sure, if this is the correct plug-in method
@@ -598,6 +674,20 @@ public class PAServiceImpl implements PluginAdmin, ServiceListener {
     }
 
     public AlitheiaPlugin getImplementingPlugin(String mnemonic) {
+        AlitheiaPlugin plugin = metricIndex.get(mnemonic);
+        if (plugin != null)
+            return plugin;
+
+        if (unknownMetrics.contains(mnemonic))
+            return null;
+
+        int version;
+        synchronized (indexLock) {
+            version = indexVersion;
+        }
+
+        // Not indexed, the plug-in might have added metrics after it was
+        // installed
         Iterator<String> i = registeredPlugins.keySet().iterator();
 
         while (i.hasNext()) {
@@ -614,7 +704,12 @@ public class PAServiceImpl implements PluginAdmin, ServiceListener {
                 }
             }
         }
-        // No plug-ins found
+        // No plug-ins found, remember it unless a plug-in was stored
+        // while scanning
+        synchronized (indexLock) {
+            if (version == indexVersion)
+                unknownMetrics.add(mnemonic);
+        }
         return null;
     }
     
@@ -667,11 +762,9 @@ public class PAServiceImpl implements PluginAdmin, ServiceListener {
                         createRegisteredPI(srefPlugin);
                     if (pluginInfo != null) {
                         // Remove the old "installed" info object
-                        registeredPlugins.remove(
-                                sobjPlugin.getUniqueKey());
+                        removePluginInfo(sobjPlugin.getUniqueKey());
                         // Store the info object
-                        registeredPlugins.put(
-                                pluginInfo.getHashcode(), pluginInfo);
+                        storePluginInfo(pluginInfo, null);
                     }
                 }
                 dbs.commitDBSession();
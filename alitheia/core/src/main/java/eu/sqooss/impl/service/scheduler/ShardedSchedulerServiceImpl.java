@@ -0,0 +1,461 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.impl.service.scheduler;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.framework.BundleContext;
+
+import eu.sqooss.service.logging.Logger;
+import eu.sqooss.service.scheduler.Job;
+import eu.sqooss.service.scheduler.ResumePoint;
+import eu.sqooss.service.scheduler.Scheduler;
+import eu.sqooss.service.scheduler.SchedulerException;
+import eu.sqooss.service.scheduler.SchedulerStats;
+import eu.sqooss.service.scheduler.WorkerThread;
+
+/**
+ * Scheduler implementation for large job volumes. Instead of a single,
+ * globally locked work queue, jobs ready for execution are spread across
+ * a number of independently locked priority queues (shards). Each worker
+ * thread takes jobs from its own shard first and steals from the other
+ * shards when its own is empty. Job priorities are therefore honoured
+ * per shard only. The queue state of each job is kept in a hash map and
+ * changed atomically, so that dequeuing a job or moving it between the
+ * blocked and the ready state does not require scanning or locking the
+ * queues.
+ * 
+ * To use it, set the <code>eu.sqooss.scheduler.impl</code> property to
+ * the name of this class.
+ */
+public class ShardedSchedulerServiceImpl implements Scheduler {
+
+    private static final String START_THREADS_PROPERTY = "eu.sqooss.scheduler.numthreads";
+    private static final String SHARDS_PROPERTY = "eu.sqooss.scheduler.shards";
+    
+    private Logger logger = null;
+
+    private SchedulerStats stats = new SchedulerStats();
+
+    /** Queues of jobs ready for execution */
+    private List<PriorityBlockingQueue<Slot>> shards;
+    
+    /** Queue state of all jobs known to the scheduler */
+    private ConcurrentHashMap<Job, Slot> jobs = 
+        new ConcurrentHashMap<Job, Slot>();
+    
+    /** One permit per job in the ready queues */
+    private Semaphore available = new Semaphore(0);
+    
+    /** Round robin counter for distributing new jobs to shards */
+    private AtomicInteger nextShard = new AtomicInteger();
+    
+    /** The shard each thread takes jobs from first */
+    private ThreadLocal<Integer> homeShard = new ThreadLocal<Integer>() {
+        private AtomicInteger next = new AtomicInteger();
+        
+        @Override
+        protected Integer initialValue() {
+            return next.getAndIncrement() % shards.size();
+        }
+    };
+
+    private BlockingQueue<Job> failedQueue = new ArrayBlockingQueue<Job>(1000);
+
+    private List<WorkerThread> myWorkerThreads = null;
+    
+    /**
+     * The queue state of a job. All state changes are compare-and-set
+     * operations, so that exactly one of several threads racing to move
+     * a job succeeds. Jobs are not removed from the shards when they
+     * are blocked, taken out of turn or dequeued; workers discard slots
+     * that are no longer queued when they reach them instead. A slot that
+     * has been blocked and queued again can therefore be in a shard more
+     * than once, but it can only be taken once.
+     */
+    private static final class Slot extends AtomicInteger {
+        private static final long serialVersionUID = 1L;
+
+        static final int BLOCKED = 0;
+        static final int QUEUED = 1;
+        static final int GONE = 2;
+        
+        final Job job;
+        
+        Slot(Job job) {
+            super(BLOCKED);
+            this.job = job;
+        }
+    }
+    
+    private static final class SlotPriorityComparator implements Comparator<Slot> {
+        private final JobPriorityComparator jobs = new JobPriorityComparator();
+
+        public int compare(Slot a, Slot b) {
+            return jobs.compare(a.job, b.job);
+        }
+    }
+    
+    public ShardedSchedulerServiceImpl() {
+        initShards(Runtime.getRuntime().availableProcessors());
+    }
+    
+    public ShardedSchedulerServiceImpl(int numShards) {
+        initShards(numShards);
+    }
+    
+    private void initShards(int n) {
+        if (n < 1)
+            n = 1;
+        shards = new ArrayList<PriorityBlockingQueue<Slot>>(n);
+        for (int i = 0; i < n; i++) {
+            shards.add(new PriorityBlockingQueue<Slot>(11, 
+                    new SlotPriorityComparator()));
+        }
+    }
+
+    public void enqueue(Job job) throws SchedulerException {
+        if (logger != null)
+            logger.debug("ShardedSchedulerServiceImpl: queuing job " + job.toString());
+        job.callAboutToBeEnqueued(this);
+        addBlocked(job);
+        stats.addWaitingJob(job.getClass().toString());
+        stats.incTotalJobs();
+        jobDependenciesChanged(job);
+    }
+    
+    public void enqueueNoDependencies(Set<Job> jobs) throws SchedulerException {
+        for (Job job : jobs) {
+            if (logger != null)
+                logger.debug("ShardedSchedulerServiceImpl: queuing job " 
+                        + job.toString());
+            job.callAboutToBeEnqueued(this);
+            Slot s = addBlocked(job);
+            if (s.compareAndSet(Slot.BLOCKED, Slot.QUEUED))
+                push(s);
+            stats.addWaitingJob(job.getClass().toString());
+            stats.incTotalJobs();
+        }
+    }
+    
+    public void enqueueBlock(List<Job> jobs) throws SchedulerException {
+        for (Job job : jobs) {
+            if (logger != null)
+                logger.debug("ShardedSchedulerServiceImpl: queuing job " 
+                        + job.toString());
+            job.callAboutToBeEnqueued(this);
+            addBlocked(job);
+            stats.addWaitingJob(job.getClass().toString());
+            stats.incTotalJobs();
+        }
+        for (Job job : jobs)
+            jobDependenciesChanged(job);
+    }
+
+    public void dequeue(Job job) {
+        Slot s = jobs.get(job);
+        if (s == null || !(s.compareAndSet(Slot.BLOCKED, Slot.GONE) || take(s))) {
+            if (logger != null) {
+                logger.info("ShardedSchedulerServiceImpl: job " + job.toString()
+                        + " not found in the queue.");
+            }
+            return;
+        }
+        jobs.remove(job, s);
+        job.callAboutToBeDequeued(this);
+    }
+
+    public Job takeJob() throws java.lang.InterruptedException {
+        available.acquire();
+        /*
+         * Holding a permit guarantees that a queued slot is waiting in one
+         * of the shards, possibly behind slots that are no longer queued
+         */
+        int home = homeShard.get();
+        while (true) {
+            for (int i = 0; i < shards.size(); i++) {
+                Slot s = shards.get((home + i) % shards.size()).poll();
+                if (s != null && s.compareAndSet(Slot.QUEUED, Slot.GONE)) {
+                    jobs.remove(s.job, s);
+                    return s.job;
+                }
+            }
+        }
+    }
+
+    public Job takeJob(Job job) throws SchedulerException {
+        Slot s = jobs.get(job);
+        if (s == null || !take(s)) {
+            throw new SchedulerException("Can't take job " + job
+                    + ": It is not in the scheduler's queue right now.");
+        }
+        jobs.remove(job, s);
+        return job;
+    }
+    
+    /**
+     * Register a job in the blocked state, unless it is already known.
+     */
+    private Slot addBlocked(Job job) {
+        Slot s = new Slot(job);
+        Slot old = jobs.putIfAbsent(job, s);
+        if (old == null)
+            return s;
+        if (old.get() == Slot.GONE && jobs.replace(job, old, s))
+            return s;
+        return old;
+    }
+    
+    /**
+     * Add a queued slot to the next shard and make it available to workers. 
+     */
+    private void push(Slot s) {
+        shards.get((nextShard.getAndIncrement() & Integer.MAX_VALUE) 
+                % shards.size()).add(s);
+        available.release();
+    }
+    
+    /**
+     * Move a queued slot to state to, if it has not been taken by a worker
+     * yet. The slot stays in its shard until a worker discards it.
+     * 
+     * @return True if the slot was moved
+     */
+    private boolean unqueue(Slot s, int to) {
+        /* All permits might be held by workers about to take jobs */
+        if (!available.tryAcquire())
+            return false;
+        
+        if (s.compareAndSet(Slot.QUEUED, to))
+            return true;
+        available.release();
+        return false;
+    }
+    
+    private boolean take(Slot s) {
+        return unqueue(s, Slot.GONE);
+    }
+    
+    public void jobStateChanged(Job job, Job.State state) {
+        if (logger != null) {
+            logger.debug("Job " + job + " changed to state " + state);
+        }
+
+        if (state == Job.State.Finished) {
+            stats.removeRunJob(job);
+            stats.incFinishedJobs();
+        } else if (state == Job.State.Running) {
+            stats.removeWaitingJob(job.getClass().toString());
+            stats.addRunJob(job);
+        } else if (state == Job.State.Yielded) {
+            stats.removeRunJob(job);
+            stats.addWaitingJob(job.getClass().toString());
+        } else if (state == Job.State.Error) {
+            synchronized (failedQueue) {
+                if (failedQueue.remainingCapacity() == 1)
+                    failedQueue.remove();
+                failedQueue.add(job);
+            }
+            stats.removeRunJob(job);
+            stats.addFailedJob(job.getClass().toString());
+        }
+    }
+
+    public void jobDependenciesChanged(Job job) {
+        Slot s = jobs.get(job);
+        if (s == null)
+            return;
+        
+        if (!job.canExecute()) {
+            /* 
+             * A dependency may finish between the check above and the 
+             * job being blocked, and its notification would then find
+             * the job still queued. Check again once it is blocked.
+             */
+            if (!unqueue(s, Slot.BLOCKED) || !job.canExecute())
+                return;
+        }
+        
+        /* Only one of concurrent notifications can unblock the job */
+        if (s.compareAndSet(Slot.BLOCKED, Slot.QUEUED))
+            push(s);
+    }
+
+    public void startExecute(int n) {
+        if (logger != null)
+            logger.info("Starting " + n + " worker threads");
+        synchronized (this) {
+            if (myWorkerThreads == null) {
+                myWorkerThreads = new LinkedList<WorkerThread>();
+            }
+
+            for (int i = 0; i < n; ++i) {
+                WorkerThread t = new WorkerThreadImpl(this, i);
+                t.start();
+                myWorkerThreads.add(t);
+                stats.incWorkerThreads();
+            }
+        }
+    }
+
+    public void stopExecute() {
+        synchronized (this) {
+            if (myWorkerThreads == null) {
+                return;
+            }
+
+            for (WorkerThread t : myWorkerThreads) {
+                t.stopProcessing();
+                stats.decWorkerThreads();
+            }
+
+            myWorkerThreads.clear();
+        }
+    }
+
+    public synchronized boolean isExecuting() {
+        if (myWorkerThreads == null) {
+            return false;
+        } else {
+            return !myWorkerThreads.isEmpty();
+        }
+    }
+
+    public SchedulerStats getSchedulerStats() {
+        return stats;
+    }
+
+    public Job[] getFailedQueue() {
+        Job[] failedJobs = new Job[failedQueue.size()];
+        return failedQueue.toArray(failedJobs);
+    }
+
+    public synchronized WorkerThread[] getWorkerThreads() {
+        if (myWorkerThreads == null)
+            return new WorkerThread[0];
+        return myWorkerThreads.toArray(new WorkerThread[myWorkerThreads.size()]);
+    }
+
+    public void startOneShotWorkerThread() {
+        WorkerThread t = new WorkerThreadImpl(this, true);
+        t.start();
+    }
+    
+    /**
+     * @return The number of entries in each of the ready queues, 
+     * including jobs that have been blocked or dequeued but not yet
+     * discarded by a worker
+     */
+    public int[] getShardSizes() {
+        int[] sizes = new int[shards.size()];
+        for (int i = 0; i < shards.size(); i++)
+            sizes[i] = shards.get(i).size();
+        return sizes;
+    }
+
+    @Override
+    public void setInitParams(BundleContext bc, Logger l) {
+        this.logger = l;
+    }
+
+    @Override
+    public void shutDown() {
+    }
+
+    @Override
+    public boolean startUp() {
+        int numThreads = 2 * Runtime.getRuntime().availableProcessors(); 
+        String threadsProperty = System.getProperty(START_THREADS_PROPERTY);
+        
+        if (threadsProperty != null && !threadsProperty.equals("-1")) {
+            try {
+                numThreads = Integer.parseInt(threadsProperty);
+            } catch (NumberFormatException nfe) {
+                logger.warn("Invalid number of threads to start:" + threadsProperty);
+            }
+        }
+        
+        /* No jobs can have been queued before the service is started */
+        String shardsProperty = System.getProperty(SHARDS_PROPERTY);
+        if (shardsProperty != null) {
+            try {
+                initShards(Integer.parseInt(shardsProperty));
+            } catch (NumberFormatException nfe) {
+                logger.warn("Invalid number of scheduler shards:" + shardsProperty);
+            }
+        }
+        logger.info("Using " + shards.size() + " scheduler queue shards");
+        startExecute(numThreads);
+
+        return true;
+    }
+
+    @Override
+    public boolean createAuxQueue(Job j, Deque<Job> jobs, ResumePoint p)
+            throws SchedulerException {
+        
+        if (jobs.isEmpty()) {
+            logger.warn("Empty job queue passed to createAuxQueue(). Ignoring request");
+            return false;
+        }
+        
+        j.yield(p);
+        for (Job job : jobs) {
+            j.addDependency(job);
+            enqueue(job);
+        }
+        return true;
+    }
+
+    @Override
+    public void yield(Job j, ResumePoint p) throws SchedulerException {
+        if (j.state() != Job.State.Yielded)
+            j.yield(p);
+        Slot s = addBlocked(j);
+        unqueue(s, Slot.BLOCKED);
+    }
+}
+
+//vi: ai nosi sw=4 ts=4 expandtab
@@ -41,6 +41,7 @@ import eu.sqooss.service.abstractmetric.AlitheiaPlugin;
 import eu.sqooss.service.db.DBService;
 import eu.sqooss.service.db.Plugin;
 import eu.sqooss.service.db.ProjectVersion;
+import eu.sqooss.service.db.ProjectVersionIndex;
 import eu.sqooss.service.db.StoredProject;
 import eu.sqooss.service.db.StoredProjectConfig;
 import eu.sqooss.service.scheduler.Job;
@@ -112,6 +113,7 @@ public class ProjectDeleteJob extends Job {
 
         if (success) {
             dbs.commitDBSession();
+            ProjectVersionIndex.invalidate(sp);
         } else {
             dbs.rollbackDBSession();
         }
@@ -127,19 +127,33 @@ public class MetricsResource {
         if (clazz == null)
             return Collections.EMPTY_LIST;
         
+        long[] daoIds = new long[ids.size()];
+        int i = 0;
+        for (Long daoId : ids)
+            daoIds[i++] = daoId;
+        
         List<Result> result = new ArrayList<Result>();
         
-        for (Long daoId : ids) {
-            try {
-                DAObject dao = DAObject.loadDAObyId(daoId, clazz);
-                
-                if (dao == null)
-                    continue;
-                
-                List<Result> r = ap.getResultIfAlreadyCalculated(dao, metricList);
+        try {
+            for (List<Result> r : ap.getResults(clazz, daoIds, metricList).values())
                 result.addAll(r);
-            } catch (Exception e) {
-                e.printStackTrace();
+        } catch (Exception e) {
+            e.printStackTrace();
+            /* Retry one resource at a time, so that a failure only
+             * affects the resource that caused it */
+            result.clear();
+            for (Long daoId : ids) {
+                try {
+                    DAObject dao = DAObject.loadDAObyId(daoId, clazz);
+
+                    if (dao == null)
+                        continue;
+
+                    List<Result> r = ap.getResultIfAlreadyCalculated(dao, metricList);
+                    result.addAll(r);
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
             }
         }
         
@@ -39,16 +39,18 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.osgi.framework.Bundle;
@@ -56,23 +58,32 @@ import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
 
 import eu.sqooss.core.AlitheiaCore;
+import eu.sqooss.service.abstractmetric.MeasurementQuery.Aggregate;
 import eu.sqooss.service.db.DAObject;
 import eu.sqooss.service.db.DBService;
+import eu.sqooss.service.db.EncapsulationUnit;
 import eu.sqooss.service.db.EncapsulationUnitMeasurement;
+import eu.sqooss.service.db.ExecutionUnit;
 import eu.sqooss.service.db.ExecutionUnitMeasurement;
+import eu.sqooss.service.db.MailMessage;
 import eu.sqooss.service.db.MailMessageMeasurement;
+import eu.sqooss.service.db.MailingListThread;
 import eu.sqooss.service.db.MailingListThreadMeasurement;
 import eu.sqooss.service.db.Metric;
 import eu.sqooss.service.db.MetricMeasurement;
 import eu.sqooss.service.db.MetricType;
+import eu.sqooss.service.db.NameSpace;
 import eu.sqooss.service.db.NameSpaceMeasurement;
 import eu.sqooss.service.db.Plugin;
 import eu.sqooss.service.db.PluginConfiguration;
+import eu.sqooss.service.db.ProjectFile;
 import eu.sqooss.service.db.ProjectFileMeasurement;
+import eu.sqooss.service.db.ProjectVersion;
 import eu.sqooss.service.db.ProjectVersionMeasurement;
 import eu.sqooss.service.db.StoredProject;
 import eu.sqooss.service.db.StoredProjectMeasurement;
 import eu.sqooss.service.db.MetricType.Type;
+import eu.sqooss.service.fds.FileTypeMatcher.FileType;
 import eu.sqooss.service.logging.Logger;
 import eu.sqooss.service.metricactivator.MetricActivationException;
 import eu.sqooss.service.metricactivator.MetricActivator;
@@ -80,6 +91,7 @@ import eu.sqooss.service.pa.PluginAdmin;
 import eu.sqooss.service.pa.PluginInfo;
 import eu.sqooss.service.scheduler.Job;
 import eu.sqooss.service.util.Pair;
+import eu.sqooss.service.util.SortedLongSet;
 
 /**
  * A base class for all metrics. Implements basic functionality such as
@@ -110,6 +122,31 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
      */
     protected ThreadLocal<Job> job = new ThreadLocal<Job>();
 
+    /**
+     * Measurements stored by the current thread through 
+     * {@link #addMeasurement(MetricMeasurement)} and not yet written.
+     */
+    private ThreadLocal<List<MetricMeasurement>> measurements = 
+        new ThreadLocal<List<MetricMeasurement>>() {
+            protected List<MetricMeasurement> initialValue() {
+                return new ArrayList<MetricMeasurement>();
+            }
+        };
+
+    /** Number of version aggregates kept for incremental roll-ups */
+    private static final int ROLLUP_CACHE_SIZE = 256;
+
+    /**
+     * Aggregates computed by {@link #rollUp(MeasurementQuery, List)} for 
+     * recently processed project versions, indexed by version id and query.
+     */
+    private Map<String, Map<Object, Aggregate>> rollUps = 
+        Collections.synchronizedMap(new LinkedHashMap<String, Map<Object, Aggregate>>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Map<Object, Aggregate>> e) {
+                return size() > ROLLUP_CACHE_SIZE;
+            }
+        });
+
     /** 
      * Metric mnemonics for the metrics required to be present for this 
      * metric to operate.
@@ -126,91 +163,84 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
     private Map<Metric, List<Class<? extends DAObject>>> metricActType =
     	new HashMap<Metric, List<Class<? extends DAObject>>>();
     
-    protected static final String QRY_SYNC_PV = "select pv.id from ProjectVersion pv " +
-    		"where pv.project = :project and not exists(" +
-    		"	select pvm.projectVersion from ProjectVersionMeasurement pvm " +
-    		"	where pvm.projectVersion.id = pv.id and pvm.metric.id = :metric) " +
-    		"order by pv.sequence asc";
-    
+    /*
+     * Objects to synchronise are found by fetching all candidate objects
+     * of a project (QRY_SYNC_*) and the ids of the objects a metric has
+     * already measured (QRY_DONE_*), then removing the second from the first.
+     */
+    protected static final String QRY_SYNC_PV = "select pv.id " +
+            "from ProjectVersion pv " +
+            "where pv.project = :project";
+
+    protected static final String QRY_DONE_PV = "select pvm.projectVersion.id " +
+            "from ProjectVersionMeasurement pvm " +
+            "where pvm.metric.id = :metric " +
+            "and pvm.projectVersion.project = :project";
+
     protected static final String QRY_SYNC_PF = "select pf.id " +
-    		"from ProjectVersion pv, ProjectFile pf " +
-    		"where pf.projectVersion=pv and pv.project = :project " +
-    		"and not exists (" +
-    		"	select pfm.projectFile " +
-    		"	from ProjectFileMeasurement pfm " +
-    		"	where pfm.projectFile.id = pf.id " +
-    		"	and pfm.metric.id = :metric) " +
-    		"	and pf.isDirectory = false)  " +
-    		"order by pv.sequence asc";
-    
+            "from ProjectFile pf " +
+            "where pf.project = :project " +
+            "and pf.isDirectory = false";
+
     protected static final String QRY_SYNC_PD = "select pf.id " +
-		"from ProjectVersion pv, ProjectFile pf " +
-		"where pf.projectVersion=pv and pv.project = :project " +
-		"and not exists (" +
-		"	select pfm.projectFile " +
-		"	from ProjectFileMeasurement pfm " +
-		"	where pfm.projectFile.id = pf.id " +
-		"	and pfm.metric.id = :metric) " +
-		"	and pf.isDirectory = true)  " +
-		"order by pv.sequence asc";
-    
+            "from ProjectFile pf " +
+            "where pf.project = :project " +
+            "and pf.isDirectory = true";
+
+    protected static final String QRY_DONE_PF = "select pfm.projectFile.id " +
+            "from ProjectFileMeasurement pfm " +
+            "where pfm.metric.id = :metric " +
+            "and pfm.projectFile.project = :project";
+
     protected static final String QRY_SYNC_MM = "select mm.id " +
-    		"from MailMessage mm " +
-    		"where mm.list.storedProject = :project " +
-    		"and mm.id not in (" +
-    		"	select mmm.mail.id " +
-    		"	from MailMessageMeasurement mmm " +
-    		"	where mmm.metric.id =:metric and mmm.mail.id = mm.id))";
-    
+            "from MailMessage mm " +
+            "where mm.list.storedProject = :project";
+
+    protected static final String QRY_DONE_MM = "select mmm.mail.id " +
+            "from MailMessageMeasurement mmm " +
+            "where mmm.metric.id = :metric " +
+            "and mmm.mail.list.storedProject = :project";
+
     protected static final String QRY_SYNC_MT = "select mlt.id " +
-    		"from MailingListThread mlt " +
-    		"where mlt.list.storedProject = :project " +
-    		"and mlt.id not in (" +
-    		"	select mltm.thread.id " +
-    		"	from MailingListThreadMeasurement mltm " +
-    		"	where mltm.metric.id =:metric and mltm.thread.id = mlt.id)";
-    
+            "from MailingListThread mlt " +
+            "where mlt.list.storedProject = :project";
+
+    protected static final String QRY_DONE_MT = "select mltm.thread.id " +
+            "from MailingListThreadMeasurement mltm " +
+            "where mltm.metric.id = :metric " +
+            "and mltm.thread.list.storedProject = :project";
+
     protected static final String QRY_SYNC_DEV = "select d.id " +
-    		"from Developer d " +
-    		"where d.storedProject = :project";
-    
+            "from Developer d " +
+            "where d.storedProject = :project";
+
     protected static final String QRY_SYNC_NS = "select ns.id " +
-            "from NameSpace ns, ProjectVersion pv " +
-            "where pv = ns.changeVersion " +
-            "and pv.project = :project " +
-            "and not exists ( " +
-            "   select nsm " + 
-            "   from NameSpaceMeasurement nsm " + 
-            "   where nsm.metric.id = :metric " +
-            "   and nsm.namespace = ns) " +
-            "order by pv.sequence asc";
-    
+            "from NameSpace ns " +
+            "where ns.changeVersion.project = :project";
+
+    protected static final String QRY_DONE_NS = "select nsm.namespace.id " +
+            "from NameSpaceMeasurement nsm " +
+            "where nsm.metric.id = :metric " +
+            "and nsm.namespace.changeVersion.project = :project";
+
     protected static final String QRY_SYNC_ENCUNT = "select encu.id " +
-            "from EncapsulationUnit encu, ProjectVersion pv, ProjectFile pf " +
-            " where pf.projectVersion = pv " +
-            " and encu.file = pf " +
-            "and pv.project = :project " +
-            "and not exists ( " +
-            "    select eum " +
-            "    from EncapsulationUnitMeasurement eum " +
-            "    where eum.encapsulationUnit = encu " +
-            "    and eum.metric.id = :metric " +
-            " ) order by pv.sequence asc ";
-    
+            "from EncapsulationUnit encu " +
+            "where encu.file.project = :project";
+
+    protected static final String QRY_DONE_ENCUNT = "select eum.encapsulationUnit.id " +
+            "from EncapsulationUnitMeasurement eum " +
+            "where eum.metric.id = :metric " +
+            "and eum.encapsulationUnit.file.project = :project";
+
     protected static final String QRY_SYNC_EXECUNT = "select exu.id " +
-    		"from ExecutionUnit exu, EncapsulationUnit encu, " +
-    		"     ProjectVersion pv, ProjectFile pf " +
-            "where pf.projectVersion = pv " +
-            "and encu.file = pf " +
-            "and pv.project = :project " +
-            "and exu.changed = true " +
-            "and exu.encapsulationUnit = encu " +
-            "and not exists ( " +
-            "    select eum  " +
-            "    from ExecutionUnitMeasurement eum " +
-            "    where eum.executionUnit = exu " +
-            "    and eum.metric.id = :metric) " +
-            "order by pv.sequence asc";
+            "from ExecutionUnit exu " +
+            "where exu.changed = true " +
+            "and exu.encapsulationUnit.file.project = :project";
+
+    protected static final String QRY_DONE_EXECUNT = "select eum.executionUnit.id " +
+            "from ExecutionUnitMeasurement eum " +
+            "where eum.metric.id = :metric " +
+            "and eum.executionUnit.encapsulationUnit.file.project = :project";
     
     /**
      * Init basic services common to all implementing classes
@@ -385,7 +415,153 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
 
      return m;
      }
-     
+
+    /**
+     * Get the results for a number of DAOs with one query per (up to)
+     * {@link #RESULTS_QUERY_SIZE} DAOs, instead of one query per DAO and
+     * metric. The result type for each metric is determined once, through
+     * the plug-in's getResult() method for the first DAO that has a result.
+     * DAO types that do not have a measurement table are served one DAO
+     * at a time through getResultIfAlreadyCalculated().
+     */
+    @SuppressWarnings("unchecked")
+    public Map<Long, List<Result>> getResults(Class<? extends DAObject> clazz,
+            long[] ids, List<Metric> l) throws MetricMismatchException {
+        Map<Long, List<Result>> result = new LinkedHashMap<Long, List<Result>>();
+        List<Long> metricIds = new ArrayList<Long>();
+        Map<Long, Metric> metricsById = new HashMap<Long, Metric>();
+
+        checkMetrics(l);
+        for (Metric m : l) {
+            metricIds.add(m.getId());
+            metricsById.put(m.getId(), m);
+        }
+
+        for (long id : ids)
+            result.put(id, new ArrayList<Result>());
+
+        if (ids.length == 0 || l.isEmpty())
+            return result;
+
+        Class<? extends MetricMeasurement> table = measurementTable(clazz);
+        if (table == null) {
+            for (long id : ids) {
+                DAObject o = DAObject.loadDAObyId(id, clazz);
+                if (o != null)
+                    result.get(id).addAll(getResultIfAlreadyCalculated(o, l));
+            }
+            return result;
+        }
+
+        String field = resultFieldNames.get(table);
+        String q = "select x." + field + ".id, x.metric.id, x.result" +
+                " from " + table.getSimpleName() + " x" +
+                " where x." + field + ".id in (:ids)" +
+                " and x.metric.id in (:metrics)" +
+                " order by x.id";
+
+        DBService db = AlitheiaCore.getInstance().getDBService();
+        Map<Long, Result.ResultType> types = new HashMap<Long, Result.ResultType>();
+
+        for (int from = 0; from < ids.length; from += RESULTS_QUERY_SIZE) {
+            int to = Math.min(ids.length, from + RESULTS_QUERY_SIZE);
+            List<Long> chunk = new ArrayList<Long>(to - from);
+            for (int i = from; i < to; i++)
+                chunk.add(ids[i]);
+
+            Map<String, Collection> listParams = new HashMap<String, Collection>();
+            listParams.put("ids", chunk);
+            listParams.put("metrics", metricIds);
+            List<Object[]> rows = (List<Object[]>) db.doHQL(q,
+                    new HashMap<String, Object>(), listParams);
+
+            for (Object[] row : rows) {
+                Long id = (Long) row[0];
+                Long metricId = (Long) row[1];
+                List<Result> r = result.get(id);
+
+                /* Like getResult(), only return the first measurement */
+                if (hasResult(r, metricId))
+                    continue;
+
+                Result.ResultType type = types.get(metricId);
+                if (type == null) {
+                    type = resultType(clazz, id, metricsById.get(metricId),
+                            (String) row[2]);
+                    types.put(metricId, type);
+                }
+                r.add(new Result(id, metricId, row[2], type));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Check that all metrics in l are defined by this plug-in.
+     *
+     * @throws MetricMismatchException for the first metric that is not
+     */
+    protected void checkMetrics(List<Metric> l) throws MetricMismatchException {
+        for (Metric m : l) {
+            if (!metrics.containsKey(m.getMnemonic())) {
+                throw new MetricMismatchException("Metric " + m.getMnemonic()
+                        + " not defined by plugin "
+                        + Plugin.getPluginByHashcode(getUniqueKey()).getName());
+            }
+        }
+    }
+
+    private static boolean hasResult(List<Result> results, Long metricId) {
+        for (Result r : results)
+            if (metricId.equals(r.getMetricId()))
+                return true;
+        return false;
+    }
+
+    /**
+     * Find the result type the plug-in reports for metric m by asking
+     * for the result of a DAO that is known to have one. If the plug-in
+     * does not report one, guess the type from the value.
+     */
+    private Result.ResultType resultType(Class<? extends DAObject> clazz,
+            long id, Metric m, String value) {
+        DAObject o = DAObject.loadDAObyId(id, clazz);
+        if (o != null) {
+            try {
+                List<Result> r = getResultIfAlreadyCalculated(o,
+                        Collections.singletonList(m));
+                if (!r.isEmpty() && r.get(0).getType() != null)
+                    return r.get(0).getType();
+            } catch (MetricMismatchException e) {
+                //Checked by the caller
+            }
+        }
+
+        if (MetricMeasurement.toNumber(value) == null)
+            return Result.ResultType.STRING;
+        try {
+            Long.parseLong(value);
+            return Result.ResultType.INTEGER;
+        } catch (NumberFormatException e) {
+            return Result.ResultType.DOUBLE;
+        }
+    }
+
+    /**
+     * Find the measurement table for DAOs of type clazz or one
+     * of its supertypes.
+     */
+    private static Class<? extends MetricMeasurement> measurementTable(
+            Class<?> clazz) {
+        for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+            Class<? extends MetricMeasurement> table = measurementTables.get(c);
+            if (table != null)
+                return table;
+        }
+        return null;
+    }
+
     /**
      * Call the appropriate getResult() method according to
      * the type of the entity that is measured.
@@ -500,9 +676,13 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
             return;
         }
 
+        /* Measurements buffered by an enclosing run() on this thread */
+        int buffered = measurements.get().size();
+        boolean done = false;
         try {
             Method m = findRunMethod("run", o.getClass());
             m.invoke(this, o);
+            done = true;
         } catch (SecurityException e) {
             logErr("run", o, e);
         } catch (NoSuchMethodException e) {
@@ -524,8 +704,165 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
                         throw new Exception(e);
                 }
             }
+        } finally {
+            if (done) {
+                flushMeasurements();
+            } else {
+                /* Drop what the failed invocation left behind */
+                List<MetricMeasurement> buf = measurements.get();
+                buf.subList(Math.min(buffered, buf.size()), buf.size()).clear();
+            }
         }
     }
+
+    /**
+     * Store a measurement. Measurements are buffered and written to the 
+     * database in batches, at the latest when the run() method that 
+     * calculated them returns. Buffered measurements are not visible to 
+     * database queries until they are written, use 
+     * {@link #flushMeasurements()} to write them earlier.
+     * 
+     * @param m The measurement to store
+     */
+    protected void addMeasurement(MetricMeasurement m) {
+        List<MetricMeasurement> buf = measurements.get();
+        buf.add(m);
+        if (buf.size() >= db.getBatchSize())
+            flushMeasurements();
+    }
+
+    /**
+     * Write all measurements buffered by the current thread to the 
+     * database.
+     * 
+     * @return true if the measurements were written, false otherwise
+     */
+    protected boolean flushMeasurements() {
+        List<MetricMeasurement> buf = measurements.get();
+        if (buf.isEmpty())
+            return true;
+        boolean result = db.addRecordsBatched(buf);
+        if (!result)
+            log.warn("Failed to store " + buf.size() + " measurements");
+        buf.clear();
+        return result;
+    }
+    
+    /**
+     * Aggregate file measurements over a project version, like 
+     * {@link MeasurementQuery#aggregate(List)}. If this plug-in has rolled
+     * up the same query for the previous version, the result is computed
+     * from the previous version's aggregates and the measurements of the
+     * files changed in the version; otherwise the measurements of all 
+     * live files are aggregated. Aggregates are only reused if every file
+     * the query selected had been measured when they were computed, as 
+     * measurements stored later would be missing from them. Incrementally
+     * computed aggregates do not have minimum and maximum values.
+     */
+    protected Map<Metric, Aggregate> rollUp(MeasurementQuery q, List<Metric> metrics) {
+        Map<Object, Aggregate> byId = rollUp(q, metrics, false);
+        Map<Metric, Aggregate> result = new HashMap<Metric, Aggregate>();
+        for (Metric m : metrics)
+            result.put(m, byId.get(m.getId()));
+        return result;
+    }
+
+    /**
+     * Aggregate the measurements of a single metric over a project version.
+     * 
+     * @see #rollUp(MeasurementQuery, List)
+     */
+    protected Aggregate rollUp(MeasurementQuery q, Metric m) {
+        return rollUp(q, Collections.singletonList(m)).get(m);
+    }
+
+    /**
+     * Aggregate the measurements of a metric over a project version, 
+     * separately for each file type, like 
+     * {@link MeasurementQuery#aggregateByFileType(Metric)}.
+     * 
+     * @see #rollUp(MeasurementQuery, List)
+     */
+    protected Map<FileType, Aggregate> rollUpByFileType(MeasurementQuery q, Metric m) {
+        Map<FileType, Aggregate> result = new HashMap<FileType, Aggregate>();
+        for (Map.Entry<Object, Aggregate> e : 
+                rollUp(q, Collections.singletonList(m), true).entrySet())
+            result.put((FileType) e.getKey(), e.getValue());
+        return result;
+    }
+
+    private Map<Object, Aggregate> rollUp(MeasurementQuery q, 
+            List<Metric> metrics, boolean byFileType) {
+        StringBuffer key = new StringBuffer(q.getFilterDescription());
+        for (Metric m : metrics)
+            key.append(" metric:").append(m.getId());
+        if (byFileType)
+            key.append(" by type");
+
+        ProjectVersion pv = q.getVersion();
+        ProjectVersion previous = pv.getPreviousVersion();
+        Map<Object, Aggregate> state = null;
+        if (previous != null)
+            state = rollUps.get(previous.getId() + " " + key);
+
+        Map<Object, Aggregate> result;
+        if (state == null) {
+            result = aggregate(q, metrics, byFileType);
+        } else {
+            Map<Object, Aggregate> added = aggregate(q.added(), metrics, byFileType);
+            Map<Object, Aggregate> removed = aggregate(q.removed(), metrics, byFileType);
+            Set<Object> groups = new HashSet<Object>(state.keySet());
+            groups.addAll(added.keySet());
+            groups.addAll(removed.keySet());
+
+            result = new HashMap<Object, Aggregate>();
+            for (Object group : groups) {
+                Aggregate a = state.get(group);
+                if (a == null)
+                    a = new Aggregate();
+                result.put(group, a.update(added.get(group), removed.get(group)));
+            }
+        }
+        if (complete(q, metrics, result, byFileType))
+            rollUps.put(pv.getId() + " " + key, result);
+        return result;
+    }
+
+    /*
+     * Whether the aggregates include a measurement of every file the query
+     * selects. Otherwise, files measured after the aggregates were computed
+     * would be missing from them, but subtracted from the next version's 
+     * aggregates once the files are superseded.
+     */
+    private boolean complete(MeasurementQuery q, List<Metric> metrics,
+            Map<Object, Aggregate> result, boolean byFileType) {
+        long files = q.countFiles();
+        if (byFileType) {
+            long count = 0;
+            for (Aggregate a : result.values())
+                count += a.count();
+            return count == files;
+        }
+        for (Metric m : metrics) {
+            Aggregate a = result.get(m.getId());
+            if ((a == null ? 0 : a.count()) != files)
+                return false;
+        }
+        return true;
+    }
+
+    /* Aggregates indexed by metric id or, if byFileType, by file type */
+    private Map<Object, Aggregate> aggregate(MeasurementQuery q, 
+            List<Metric> metrics, boolean byFileType) {
+        Map<Object, Aggregate> result = new HashMap<Object, Aggregate>();
+        if (byFileType) {
+            result.putAll(q.aggregateByFileType(metrics.get(0)));
+        } else {
+            for (Map.Entry<Metric, Aggregate> e : q.aggregate(metrics).entrySet())
+                result.put(e.getKey().getId(), e.getValue());
+        }
+        return result;
+    }
     
     private Method findRunMethod(String name, Class<?> clazz) 
         throws NoSuchMethodException {
@@ -839,6 +1176,23 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
         resultFieldNames.put(NameSpaceMeasurement.class, "namespace");
     }
 
+    private static Map<Class<? extends DAObject>, Class<? extends MetricMeasurement>> measurementTables =
+        new HashMap<Class<? extends DAObject>, Class<? extends MetricMeasurement>>();
+
+    static {
+        measurementTables.put(StoredProject.class, StoredProjectMeasurement.class);
+        measurementTables.put(ProjectVersion.class, ProjectVersionMeasurement.class);
+        measurementTables.put(ProjectFile.class, ProjectFileMeasurement.class);
+        measurementTables.put(MailMessage.class, MailMessageMeasurement.class);
+        measurementTables.put(MailingListThread.class, MailingListThreadMeasurement.class);
+        measurementTables.put(ExecutionUnit.class, ExecutionUnitMeasurement.class);
+        measurementTables.put(EncapsulationUnit.class, EncapsulationUnitMeasurement.class);
+        measurementTables.put(NameSpace.class, NameSpaceMeasurement.class);
+    }
+
+    /** Maximum number of DAO ids in a single getResults() query */
+    protected static final int RESULTS_QUERY_SIZE = 500;
+
     /**
      * Convenience method to get the measurement for a single metric.
      */
@@ -897,45 +1251,102 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
     	
         Map<String, Object> params = new HashMap<String, Object>();
         params.put("project", sp);
-        params.put("metric", m.getId());
 
-    	String q = null;
+    	String q = null, done = null;
     	
     	for (Class<? extends DAObject> at : getMetricActivationTypes(m)) {
     	
 	    	if (MetricType.fromActivator(at) == Type.PROJECT_VERSION) {
 	    		q = QRY_SYNC_PV;
+	    		done = QRY_DONE_PV;
 	    	} else if (MetricType.fromActivator(at) == Type.SOURCE_FILE) {
 	    		q = QRY_SYNC_PF;
+	    		done = QRY_DONE_PF;
 	    	} else if (MetricType.fromActivator(at) == Type.SOURCE_DIRECTORY) {
 	    		q = QRY_SYNC_PD;
+	    		done = QRY_DONE_PF;
 	     	} else if (MetricType.fromActivator(at) == Type.MAILING_LIST) {
 	    		throw new MetricActivationException("Metric synchronisation with MAILING_LIST objects not implemented");
 	    	} else if (MetricType.fromActivator(at) == Type.MAILMESSAGE) {
 	    		q = QRY_SYNC_MM;
+	    		done = QRY_DONE_MM;
 	    	} else if (MetricType.fromActivator(at) == Type.MAILTHREAD) {
 	    		q = QRY_SYNC_MT;
+	    		done = QRY_DONE_MT;
 	    	} else if (MetricType.fromActivator(at) == Type.BUG) {
 	    		throw new MetricActivationException("Metric synchronisation with BUG objects not implemented");
 	    	} else if (MetricType.fromActivator(at) == Type.DEVELOPER) {
 	    		q = QRY_SYNC_DEV;
+	    		done = null;
 	    	} else if (MetricType.fromActivator(at) == Type.NAMESPACE) {
                 q = QRY_SYNC_NS;
+                done = QRY_DONE_NS;
             } else if (MetricType.fromActivator(at) == Type.ENCAPSUNIT) {
                 q = QRY_SYNC_ENCUNT;
+                done = QRY_DONE_ENCUNT;
             } else if (MetricType.fromActivator(at) == Type.EXECUNIT) {
                 q = QRY_SYNC_EXECUNT;
+                done = QRY_DONE_EXECUNT;
             } else {
 	    		throw new MetricActivationException("Metric synchronisation with GENERIC objects not implemented");
 	    	}
 	    	
-	    	List<Long> objectIds = (List<Long>) db.doHQL(q, params);
-	    	TreeSet<Long> ids = new TreeSet<Long>();
-	    	ids.addAll(objectIds);
-	    	IDs.put(MetricType.fromActivator(at), ids);
+	    	long[] objectIds = db.doHQLIds(q, params);
+	    	IDs.put(MetricType.fromActivator(at), notMeasured(objectIds, done, sp, m));
     	}
     	return IDs;
     }
+
+    /**
+     * Remove from a list of candidate object ids those that appear in the
+     * results of the provided query. If the query results are dense enough
+     * for a bitmap indexed by object id to be smaller than the results
+     * themselves, each candidate is checked against the bitmap. Otherwise,
+     * both id lists are sorted and merged.
+     */
+    private SortedLongSet notMeasured(long[] candidates, String measuredQuery,
+            StoredProject sp, Metric m) {
+        if (measuredQuery == null || candidates.length == 0)
+            return SortedLongSet.wrap(candidates, candidates.length);
+
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("project", sp);
+        params.put("metric", m.getId());
+        long[] measured = db.doHQLIds(measuredQuery, params);
+
+        if (measured.length == 0)
+            return SortedLongSet.wrap(candidates, candidates.length);
+
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        for (long id : measured) {
+            min = Math.min(min, id);
+            max = Math.max(max, id);
+        }
+
+        long[] result = new long[candidates.length];
+        int n = 0;
+        if (max - min < (long) measured.length * Long.SIZE 
+                && max - min < Integer.MAX_VALUE) {
+            BitSet done = new BitSet((int) (max - min + 1));
+            for (long id : measured)
+                done.set((int) (id - min));
+            for (long id : candidates)
+                if (id < min || id > max || !done.get((int) (id - min)))
+                    result[n++] = id;
+        } else {
+            Arrays.sort(candidates);
+            Arrays.sort(measured);
+            int j = 0;
+            for (long id : candidates) {
+                while (j < measured.length && measured[j] < id)
+                    j++;
+                if (j == measured.length || measured[j] != id)
+                    result[n++] = id;
+            }
+        }
+        return SortedLongSet.wrap(result, n);
+    }
+    
     
     /** {@inheritDoc} */
     @Override
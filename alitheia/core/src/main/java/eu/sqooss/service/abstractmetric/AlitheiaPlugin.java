@@ -149,6 +149,22 @@ public interface AlitheiaPlugin {
     List<Result> getResultIfAlreadyCalculated(DAObject o, List<Metric> l)
     	throws MetricMismatchException;
 
+    /**
+     * Get the already calculated results for a number of DAOs of the same
+     * type at once. Like getResultIfAlreadyCalculated(), this does not
+     * trigger a metric recalculation for DAOs without results.
+     *
+     * @param clazz The type of the DAOs whose results to get
+     * @param ids The ids of the DAOs whose results to get
+     * @param l A list of metrics
+     * @return A map from DAO ids to the results for the DAO. DAOs without
+     *          results map to an empty list.
+     * @throws MetricMismatchException if the DAO type is one not supported by
+     *          this metric.
+     */
+    Map<Long, List<Result>> getResults(Class<? extends DAObject> clazz,
+            long[] ids, List<Metric> l) throws MetricMismatchException;
+
     /**
      * Get a metric result. 
      * If the result was not calculated yet, the plugin's run method is called,
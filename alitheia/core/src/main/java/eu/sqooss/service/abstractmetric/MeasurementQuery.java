@@ -0,0 +1,439 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2008 - 2010 - Organization for Free and Open Source Software,  
+ *                 Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package eu.sqooss.service.abstractmetric;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.sqooss.core.AlitheiaCore;
+import eu.sqooss.service.db.DBService;
+import eu.sqooss.service.db.Directory;
+import eu.sqooss.service.db.Metric;
+import eu.sqooss.service.db.ProjectFileState;
+import eu.sqooss.service.db.ProjectVersion;
+import eu.sqooss.service.fds.FileTypeMatcher;
+import eu.sqooss.service.fds.FileTypeMatcher.FileType;
+
+/**
+ * Aggregates the measurements of files that are live in a project version
+ * in the database, so that metrics that roll up file measurements do not
+ * need to load every measurement as an object. Example:
+ * 
+ * <pre>
+ * Aggregate loc = MeasurementQuery.liveFiles(pv)
+ *     .ofType(FileType.SRC).aggregate(locMetric);
+ * double averageLoC = loc.avg();
+ * </pre>
+ * 
+ * Only the numeric value of each measurement (see 
+ * {@link eu.sqooss.service.db.MetricMeasurement#getNumericResult()}) is 
+ * considered; measurements whose result is not a number are ignored.
+ * 
+ * File types that are determined by the file extension only are filtered in
+ * the database. For the rest, the database returns one row per file name and
+ * the names are classified with {@link FileTypeMatcher}.
+ * 
+ * The {@link #added()} and {@link #removed()} variants of a query select
+ * the entries that the version's changes added to or removed from the set
+ * of live entries, so that an aggregate of the previous version can be 
+ * updated instead of recomputed (see {@link Aggregate#update}).
+ */
+public class MeasurementQuery {
+
+    /* Which entries of the version to consider */
+    private static final int LIVE = 0;
+    private static final int ADDED = 1;
+    private static final int REMOVED = 2;
+
+    private ProjectVersion version;
+    private int scope = LIVE;
+    private int mask;
+    private Directory dir;
+    private FileType type;
+    private List<Metric> required = new ArrayList<Metric>();
+
+    private Map<String, Object> params = new HashMap<String, Object>();
+    private Map<String, Collection> listParams = new HashMap<String, Collection>();
+
+    private MeasurementQuery(ProjectVersion pv, int mask) {
+        this.version = pv;
+        this.mask = mask;
+    }
+
+    /** Query the files (not directories) live in a project version. */
+    public static MeasurementQuery liveFiles(ProjectVersion pv) {
+        return new MeasurementQuery(pv, ProjectVersion.MASK_FILES);
+    }
+
+    /** Query the directories live in a project version. */
+    public static MeasurementQuery liveDirectories(ProjectVersion pv) {
+        return new MeasurementQuery(pv, ProjectVersion.MASK_DIRECTORIES);
+    }
+
+    /**
+     * Get a copy of this query that selects only the entries that became 
+     * live in this query's version.
+     */
+    public MeasurementQuery added() {
+        return copy(ADDED);
+    }
+
+    /**
+     * Get a copy of this query that selects only the entries that were 
+     * live in the previous version but are not live in this query's 
+     * version, because they were changed or deleted.
+     */
+    public MeasurementQuery removed() {
+        return copy(REMOVED);
+    }
+
+    public ProjectVersion getVersion() {
+        return version;
+    }
+
+    /**
+     * A description of the query's filters, without the version.
+     * Queries with the same description select the same kind of entries
+     * in different versions.
+     */
+    public String getFilterDescription() {
+        StringBuffer b = new StringBuffer();
+        b.append(mask == ProjectVersion.MASK_DIRECTORIES ? "dirs" : "files");
+        if (dir != null)
+            b.append(" in:").append(dir.getId());
+        if (type != null)
+            b.append(" type:").append(type);
+        for (Metric m : required)
+            b.append(" measured:").append(m.getId());
+        return b.toString();
+    }
+
+    private MeasurementQuery copy(int scope) {
+        MeasurementQuery q = new MeasurementQuery(version, mask);
+        q.scope = scope;
+        q.dir = dir;
+        q.type = type;
+        q.required.addAll(required);
+        return q;
+    }
+
+    /** Only consider entries directly under the provided directory. */
+    public MeasurementQuery inDirectory(Directory d) {
+        this.dir = d;
+        return this;
+    }
+
+    /** Only consider files of the provided type. */
+    public MeasurementQuery ofType(FileType t) {
+        this.type = t;
+        return this;
+    }
+
+    /** Only consider files that have a measurement for the provided metric. */
+    public MeasurementQuery measuredBy(Metric m) {
+        required.add(m);
+        return this;
+    }
+
+    /**
+     * Count the matching files, whether they have been measured or not.
+     */
+    public long countFiles() {
+        StringBuffer q = new StringBuffer("select ");
+        if (filterTypeByName())
+            q.append("pf.name, ");
+        q.append("count(pf.id) from ProjectFile pf where ");
+        appendFileFilter(q);
+        if (filterTypeByName())
+            q.append(" group by pf.name");
+
+        long count = 0;
+        for (Object o : query(q)) {
+            if (!filterTypeByName()) {
+                count += ((Number) o).longValue();
+                continue;
+            }
+            Object[] row = (Object[]) o;
+            if (typeOf((String) row[0]) == type)
+                count += ((Number) row[1]).longValue();
+        }
+        return count;
+    }
+
+    /**
+     * Aggregate the measurements of a single metric over the matching files.
+     */
+    public Aggregate aggregate(Metric m) {
+        return aggregate(Collections.singletonList(m)).get(m);
+    }
+
+    /**
+     * Aggregate the measurements of a number of metrics over the 
+     * matching files, in a single query.
+     * 
+     * @return The aggregates, indexed by metric. All requested metrics
+     * are included, even if there are no measurements for them.
+     */
+    public Map<Metric, Aggregate> aggregate(List<Metric> metrics) {
+        Map<Long, Aggregate> byId = new HashMap<Long, Aggregate>();
+        Map<Metric, Aggregate> result = new HashMap<Metric, Aggregate>();
+        for (Metric m : metrics) {
+            Aggregate a = new Aggregate();
+            byId.put(m.getId(), a);
+            result.put(m, a);
+        }
+
+        for (Object[] row : aggregateRows(metrics)) {
+            if (filterTypeByName() && typeOf((String) row[6]) != type)
+                continue;
+            byId.get(((Number) row[0]).longValue()).add(row);
+        }
+        return result;
+    }
+
+    /**
+     * Aggregate the measurements of a metric over the matching files,
+     * separately for each file type. Types for which there are no
+     * measurements are not included in the result.
+     */
+    public Map<FileType, Aggregate> aggregateByFileType(Metric m) {
+        Map<FileType, Aggregate> result = new HashMap<FileType, Aggregate>();
+        FileType filter = type;
+        type = null;
+        try {
+            for (Object[] row : aggregateRows(Collections.singletonList(m), true)) {
+                FileType t = typeOf((String) row[6]);
+                if (filter != null && t != filter)
+                    continue;
+                Aggregate a = result.get(t);
+                if (a == null) {
+                    a = new Aggregate();
+                    result.put(t, a);
+                }
+                a.add(row);
+            }
+        } finally {
+            type = filter;
+        }
+        return result;
+    }
+
+    private List<Object[]> aggregateRows(List<Metric> metrics) {
+        return aggregateRows(metrics, filterTypeByName());
+    }
+
+    /*
+     * Rows are: metric id, count, sum, min, max, sum of positive values
+     * and, if grouped by name, the file name
+     */
+    @SuppressWarnings("unchecked")
+    private List<Object[]> aggregateRows(List<Metric> metrics, boolean byName) {
+        StringBuffer q = new StringBuffer("select pfm.metric.id, ");
+        q.append("count(pfm.numericResult), sum(pfm.numericResult), ");
+        q.append("min(pfm.numericResult), max(pfm.numericResult), ");
+        q.append("sum(case when pfm.numericResult > 0 then pfm.numericResult else 0 end)");
+        if (byName)
+            q.append(", pf.name");
+        q.append(" from ProjectFile pf, ProjectFileMeasurement pfm");
+        q.append(" where pfm.projectFile = pf");
+        q.append(" and pfm.numericResult is not null");
+        q.append(" and pfm.metric.id in (:metrics) and ");
+        appendFileFilter(q);
+        q.append(" group by pfm.metric.id");
+        if (byName)
+            q.append(", pf.name");
+
+        List<Long> ids = new ArrayList<Long>();
+        for (Metric m : metrics)
+            ids.add(m.getId());
+        listParams.put("metrics", ids);
+        return (List<Object[]>) query(q);
+    }
+
+    private void appendFileFilter(StringBuffer q) {
+        q.append("pf.project.id = :project");
+        if (scope == ADDED) {
+            q.append(" and pf.validFrom = :version");
+            params.put("version", version);
+        } else if (scope == REMOVED) {
+            /* Superseded entries are valid until the previous version */
+            ProjectVersion previous = version.getPreviousVersion();
+            q.append(" and pf.validUntilSeq = :sequence");
+            params.put("sequence", previous == null ? -1 : previous.getSequence());
+        } else {
+            q.append(" and pf.validUntilSeq >= :sequence");
+            q.append(" and pf.validFromSeq <= :sequence");
+            params.put("sequence", version.getSequence());
+        }
+        q.append(" and pf.state <> :deleted");
+        q.append(" and pf.isDirectory = :isDirectory");
+        params.put("project", version.getProject().getId());
+        params.put("deleted", ProjectFileState.deleted());
+        params.put("isDirectory", mask == ProjectVersion.MASK_DIRECTORIES);
+
+        if (dir != null) {
+            q.append(" and pf.dir = :dir");
+            params.put("dir", dir);
+        }
+
+        for (int i = 0; i < required.size(); i++) {
+            q.append(" and exists (select r from ProjectFileMeasurement r");
+            q.append(" where r.projectFile = pf and r.metric.id = :required");
+            q.append(i).append(")");
+            params.put("required" + i, required.get(i).getId());
+        }
+
+        if (type != null && !filterTypeByName()) {
+            q.append(" and (");
+            int i = 0;
+            for (String ext : FileTypeMatcher.getExtensions(type)) {
+                if (i > 0)
+                    q.append(" or ");
+                q.append("pf.name like :ext").append(i);
+                params.put("ext" + i, "%" + ext);
+                i++;
+            }
+            if (i == 0)
+                q.append("1 = 0");
+            q.append(")");
+        }
+    }
+
+    private boolean filterTypeByName() {
+        return type != null && FileTypeMatcher.getExtensions(type) == null;
+    }
+
+    private static FileType typeOf(String name) {
+        return FileTypeMatcher.getInstance().getFileType(name);
+    }
+
+    private List<?> query(StringBuffer q) {
+        DBService db = AlitheiaCore.getInstance().getDBService();
+        List<?> result = db.doHQL(q.toString(), params, listParams);
+        params.clear();
+        listParams.clear();
+        return result;
+    }
+
+    /**
+     * Summary statistics of a set of numeric measurements.
+     */
+    public static class Aggregate {
+        private long count = 0;
+        private double sum = 0;
+        private double positiveSum = 0;
+        private double min = Double.NaN;
+        private double max = Double.NaN;
+
+        void add(Object[] row) {
+            long n = ((Number) row[1]).longValue();
+            if (n == 0)
+                return;
+            double rowMin = ((Number) row[3]).doubleValue();
+            double rowMax = ((Number) row[4]).doubleValue();
+            min = (count == 0) ? rowMin : Math.min(min, rowMin);
+            max = (count == 0) ? rowMax : Math.max(max, rowMax);
+            count += n;
+            sum += ((Number) row[2]).doubleValue();
+            positiveSum += ((Number) row[5]).doubleValue();
+        }
+
+        /**
+         * Get the aggregate that results from adding and removing 
+         * measurements to the ones summarised by this aggregate. Minimum and
+         * maximum cannot be updated this way, so they are NaN in the result.
+         * 
+         * @param added Aggregate of the added measurements, may be null
+         * @param removed Aggregate of the removed measurements, may be null
+         */
+        public Aggregate update(Aggregate added, Aggregate removed) {
+            Aggregate a = new Aggregate();
+            a.count = count;
+            a.sum = sum;
+            a.positiveSum = positiveSum;
+            if (added != null) {
+                a.count += added.count;
+                a.sum += added.sum;
+                a.positiveSum += added.positiveSum;
+            }
+            if (removed != null) {
+                a.count -= removed.count;
+                a.sum -= removed.sum;
+                a.positiveSum -= removed.positiveSum;
+            }
+            return a;
+        }
+
+        /** Number of measurements */
+        public long count() {
+            return count;
+        }
+
+        /** Sum of all measurements */
+        public double sum() {
+            return sum;
+        }
+
+        /** Sum of the measurements that are greater than 0 */
+        public double positiveSum() {
+            return positiveSum;
+        }
+
+        /** Smallest measurement, NaN if there are no measurements */
+        public double min() {
+            return min;
+        }
+
+        /** Largest measurement, NaN if there are no measurements */
+        public double max() {
+            return max;
+        }
+
+        /** Average of all measurements, NaN if there are no measurements */
+        public double avg() {
+            return count == 0 ? Double.NaN : sum / count;
+        }
+
+        @Override
+        public String toString() {
+            return "count: " + count + ", sum: " + sum + ", min: " + min
+                    + ", max: " + max;
+        }
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -40,6 +40,13 @@ public class Result {
         this.type = type;
     }
 
+    public Result(Long artifactId, Long metricId, Object result, ResultType type) {
+        this.artifactId = artifactId;
+        this.metricId = metricId;
+        this.result = result;
+        this.type = type;
+    }
+
     public Long getArtifactId() {
         return artifactId;
     }
@@ -239,6 +239,25 @@ public interface DBService extends AlitheiaCoreService {
      */
     public <T extends DAObject> boolean addRecords(List<T> records);
 
+    /**
+     * Add a large number of new records to the database. Records are
+     * sent to the database in JDBC batches of {@link #getBatchSize()}
+     * inserts and are detached from the current session once written, so
+     * that the session does not grow with the number of records. The
+     * records must not be modified after this call returns, as changes
+     * will not be persisted.
+     *
+     * @param records the list of records to persist into the database
+     * @return true if all the record insertions succeeded, false otherwise
+     */
+    public <T extends DAObject> boolean addRecordsBatched(List<T> records);
+
+    /**
+     * Get the number of statements the database service sends to the
+     * database in a single JDBC batch.
+     */
+    public int getBatchSize();
+
     /**
      * Delete an existing record from the database.
      *
@@ -466,6 +485,23 @@ public interface DBService extends AlitheiaCoreService {
                          )
         throws QueryException;
     
+    /**
+     * Execute a parameterized HQL query that returns a single numeric
+     * column, such as object ids. The results are read with a forward only
+     * cursor and copied to a primitive array, instead of being returned 
+     * as a list of boxed numbers.
+     *
+     * @param hql HQL query string
+     * @param params the map of parameters to be substituted in the HQL query
+     * @return The values of the first column of all result rows, in the 
+     *         order returned by the query. If the query is invalid or a 
+     *         database access error occurs, an empty array is returned.
+     * @throws QueryException if the query is invalid or if params contains
+     *         invalid entries
+     */
+    public long[] doHQLIds(String hql, Map<String, Object> params)
+        throws QueryException;
+
     /**
      * Executes a DML-type query. The query forms that HQL supports 
      * are the following:
@@ -38,6 +38,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
@@ -123,6 +124,32 @@ public class Developer extends DAObject {
     @OneToMany(fetch=FetchType.LAZY, mappedBy="reporter", orphanRemoval=true)
     private Set<BugReportMessage> bugReportMessages;
 
+    /* Developer ids by project and email, username or name */
+    private static LookupCache<Developer> emailCache = 
+        new LookupCache<Developer>(Developer.class);
+    private static LookupCache<Developer> usernameCache = 
+        new LookupCache<Developer>(Developer.class);
+    private static LookupCache<Developer> nameCache = 
+        new LookupCache<Developer>(Developer.class);
+
+    /* 
+     * Developers are created by email, username or name, so the three
+     * create paths share one lock per project. 
+     */
+    private static ConcurrentHashMap<Long, Object> projectLocks = 
+        new ConcurrentHashMap<Long, Object>();
+
+    private static Object lockFor(StoredProject sp) {
+        Object lock = projectLocks.get(sp.getId());
+        if (lock == null) {
+            Object l = new Object();
+            lock = projectLocks.putIfAbsent(sp.getId(), l);
+            if (lock == null)
+                lock = l;
+        }
+        return lock;
+    }
+
     public long getId() {
 		return id;
 	}
@@ -233,8 +260,24 @@ public class Developer extends DAObject {
      *         <li>The passed email is invalid syntactically</li>
      *         <ul>
      */
-    public static synchronized Developer getDeveloperByEmail(String email,
+    public static Developer getDeveloperByEmail(String email,
             StoredProject sp, boolean create){
+        String key = sp.getId() + ":" + email;
+        Developer cached = emailCache.get(key);
+        if (cached != null)
+            return cached;
+
+        if (!create)
+            return findDeveloperByEmail(key, email, sp, false);
+
+        /* Avoid concurrent creation of the same developer */
+        synchronized (lockFor(sp)) {
+            return findDeveloperByEmail(key, email, sp, true);
+        }
+    }
+
+    private static Developer findDeveloperByEmail(String key, String email,
+            StoredProject sp, boolean create) {
         DBService dbs = AlitheiaCore.getInstance().getDBService();
         
         String paramProject = "project";
@@ -253,8 +296,10 @@ public class Developer extends DAObject {
         List<Developer> devs = (List<Developer>) dbs.doHQL(q.toString(), parameterMap);
         
         /* Developer in the DB, return it */
-        if ( !devs.isEmpty() )
+        if ( !devs.isEmpty() ) {
+            emailCache.put(key, devs.get(0));
             return devs.get(0);
+        }
         
         parameterMap.clear();
         
@@ -288,6 +333,7 @@ public class Developer extends DAObject {
         
             if (d != null) {
                 d.addAlias(email);
+                emailCache.put(key, d);
                 return d;
             }
         }
@@ -304,6 +350,7 @@ public class Developer extends DAObject {
             return null;
         
         d.addAlias(email);
+        emailCache.put(key, d);
         
         return d;
     }
@@ -339,8 +386,25 @@ public class Developer extends DAObject {
      * 
      */    
     @SuppressWarnings("unchecked")
-    public static synchronized Developer getDeveloperByUsername(String username,
+    public static Developer getDeveloperByUsername(String username,
             StoredProject sp, boolean create) {
+        String key = sp.getId() + ":" + username;
+        Developer cached = usernameCache.get(key);
+        if (cached != null)
+            return cached;
+
+        if (!create)
+            return findDeveloperByUsername(key, username, sp, false);
+
+        /* Avoid concurrent creation of the same developer */
+        synchronized (lockFor(sp)) {
+            return findDeveloperByUsername(key, username, sp, true);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Developer findDeveloperByUsername(String key, 
+            String username, StoredProject sp, boolean create) {
 		
         DBService dbs = AlitheiaCore.getInstance().getDBService();
 
@@ -355,8 +419,10 @@ public class Developer extends DAObject {
          * Developer in the DB, return it Username + storedproject is unique, so
          * only one record can be returned by the query
          */
-        if (!devs.isEmpty())
+        if (!devs.isEmpty()) {
+            usernameCache.put(key, devs.get(0));
             return devs.get(0);
+        }
         
         /*
          * Try to find a Developer whose email starts with username
@@ -392,6 +458,7 @@ public class Developer extends DAObject {
         if (!dbs.addRecord(d))
             return null;
 
+        usernameCache.put(key, d);
         return d;
     }   
     
@@ -405,7 +472,23 @@ public class Developer extends DAObject {
      * @param create
      * @return
      */
-    public static synchronized Developer getDeveloperByName(String name, 
+    public static Developer getDeveloperByName(String name, 
+            StoredProject sp, boolean create) {
+        String key = sp.getId() + ":" + name;
+        Developer cached = nameCache.get(key);
+        if (cached != null)
+            return cached;
+
+        if (!create)
+            return findDeveloperByName(key, name, sp, false);
+
+        /* Avoid concurrent creation of the same developer */
+        synchronized (lockFor(sp)) {
+            return findDeveloperByName(key, name, sp, true);
+        }
+    }
+
+    private static Developer findDeveloperByName(String key, String name, 
             StoredProject sp, boolean create) {
         
         DBService dbs = AlitheiaCore.getInstance().getDBService();
@@ -417,17 +500,21 @@ public class Developer extends DAObject {
         List<Developer> devs = dbs.findObjectsByProperties(Developer.class,params);
         
         /* This code assumes that each name is unique in a project*/
-        if (devs.size() > 0)
+        if (devs.size() > 0) {
+            nameCache.put(key, devs.get(0));
             return devs.get(0);
+        }
         
         if (!create)        
             return null;
         
         Developer d = new Developer();
         d.setName(name);
+        d.setStoredProject(sp);
         if (!dbs.addRecord(d))
             return null;
         
+        nameCache.put(key, d);
         return d;
     }
     
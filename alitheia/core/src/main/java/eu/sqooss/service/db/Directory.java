@@ -82,6 +82,12 @@ public class Directory extends DAObject {
     @Index(name="IDX_DIRECTORY_PATH")
     private String path;
     
+    /**
+     * Directory ids by path, shared by all sessions
+     */
+    private static LookupCache<Directory> lookupCache = 
+        new LookupCache<Directory>(Directory.class);
+
     /**
      * A set representing the files within this path
      */
@@ -127,32 +133,48 @@ public class Directory extends DAObject {
      * not found. If true, it will be created.
      * @return A Directory record for the specified path or null on failure
      */
-    public static synchronized Directory getDirectory(String path, boolean create) {
-        
-        DBService dbs = AlitheiaCore.getInstance().getDBService();
-        Map<String,Object> parameterMap = new HashMap<String,Object>();
-        parameterMap.put("path", path);
+    public static Directory getDirectory(String path, boolean create) {
         
-        List<Directory> dirs = dbs.findObjectsByProperties(Directory.class,
-                parameterMap);
+        Directory d = lookupCache.get(path);
+        if (d != null)
+            return d;
         
-        /* Dir path in table, return it */
-        if ( !dirs.isEmpty() ) {
-            return dirs.get(0);
-        }
+        if (!create)
+            return findDirectory(path);
         
-        if (create) {
+        /* Avoid concurrent creation of the same directory */
+        synchronized (lookupCache.lockFor(path)) {
+            d = findDirectory(path);
+            
+            /* Dir path in table, return it */
+            if (d != null)
+                return d;
+
             /* Dir path not in table, create it */ 
-            Directory d = new Directory();
+            DBService dbs = AlitheiaCore.getInstance().getDBService();
+            d = new Directory();
             d.setPath(path);
             if (!dbs.addRecord(d)) {
                 return null;
             }
-        
+            lookupCache.put(path, d);
             return d;
         }
-        //Dir not found and not created
-        return null;
+    }
+    
+    private static Directory findDirectory(String path) {
+        DBService dbs = AlitheiaCore.getInstance().getDBService();
+        Map<String,Object> parameterMap = new HashMap<String,Object>();
+        parameterMap.put("path", path);
+        
+        List<Directory> dirs = dbs.findObjectsByProperties(Directory.class,
+                parameterMap);
+        
+        if (dirs.isEmpty())
+            return null;
+        
+        lookupCache.put(path, dirs.get(0));
+        return dirs.get(0);
     }
     
     public String toString() {
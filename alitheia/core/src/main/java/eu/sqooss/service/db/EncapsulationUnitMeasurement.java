@@ -50,12 +50,18 @@ public class EncapsulationUnitMeasurement extends MetricMeasurement {
     @Column(name="RESULT")
     private String result;
 
+    /**
+     * The calculation result as a number, null if the result is not numeric
+     */
+    @Column(name="NUMERIC_RESULT")
+    private Double numericResult;
+
     public EncapsulationUnitMeasurement(){}
     
     public EncapsulationUnitMeasurement(EncapsulationUnit eu, Metric m, String result) {
         this.encapsulationUnit = eu;
         this.metric = m;
-        this.result = result;
+        setResult(result);
     }
     
     public long getId() {
@@ -88,5 +94,14 @@ public class EncapsulationUnitMeasurement extends MetricMeasurement {
 
     public void setResult(String result) {
         this.result = result;
+        this.numericResult = toNumber(result);
+    }
+
+    public Double getNumericResult() {
+        return numericResult;
+    }
+
+    public void setNumericResult(Double numericResult) {
+        this.numericResult = numericResult;
     }
 }
@@ -51,12 +51,18 @@ public class ExecutionUnitMeasurement extends MetricMeasurement {
     @Column(name="RESULT")
     private String result;
 
+    /**
+     * The calculation result as a number, null if the result is not numeric
+     */
+    @Column(name="NUMERIC_RESULT")
+    private Double numericResult;
+
     public ExecutionUnitMeasurement() {}
     
     public ExecutionUnitMeasurement(ExecutionUnit eu, Metric m, String result) {
         this.executionUnit = eu;
         this.metric = m;
-        this.result = result;
+        setResult(result);
     }
     
     public long getId() {
@@ -89,5 +95,14 @@ public class ExecutionUnitMeasurement extends MetricMeasurement {
 
     public void setResult(String result) {
         this.result = result;
+        this.numericResult = toNumber(result);
+    }
+
+    public Double getNumericResult() {
+        return numericResult;
+    }
+
+    public void setNumericResult(Double numericResult) {
+        this.numericResult = numericResult;
     }
 }
@@ -0,0 +1,164 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.service.db;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.sqooss.core.AlitheiaCore;
+
+/**
+ * Concurrent cache that maps lookup keys (e.g. a directory path or a metric
+ * mnemonic) to the ids of rarely changing DAOs, so that repeated lookups
+ * are answered with a primary key lookup in the current session instead
+ * of a query. Only ids are cached, never the objects themselves, so cached
+ * entries can be used by any session.
+ * <p>
+ * Entries are added after an object is found or inserted. If the cached
+ * object cannot be loaded (e.g. because the transaction that inserted it
+ * was rolled back, or because it was deleted) the entry is dropped and
+ * the caller falls back to querying the database.
+ * <p>
+ * Lookups that create missing objects should be done while holding the
+ * lock returned by {@link #lockFor(Object)}, so that concurrent
+ * lookups for the same key do not create duplicate objects.
+ *
+ * @param <T> The type of the cached DAOs
+ */
+public class LookupCache<T extends DAObject> {
+
+    private static final int LOCKS = 64;
+    private static final int DEFAULT_MAX_SIZE = 100000;
+
+    private Class<T> type;
+    private int maxSize;
+    private ConcurrentHashMap<Object, Long> ids;
+    private Object[] locks;
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+
+    public LookupCache(Class<T> type) {
+        this(type, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param type The type of the cached DAOs
+     * @param maxSize Number of entries after which the cache is emptied
+     */
+    public LookupCache(Class<T> type, int maxSize) {
+        this.type = type;
+        this.maxSize = maxSize;
+        this.ids = new ConcurrentHashMap<Object, Long>();
+        this.locks = new Object[LOCKS];
+        for (int i = 0; i < LOCKS; i++)
+            locks[i] = new Object();
+    }
+
+    /**
+     * Get the object cached for key, attached to the current session.
+     *
+     * @return The cached object, or null if the key is not cached or the
+     * object is no longer in the database
+     */
+    public T get(Object key) {
+        Long id = ids.get(key);
+        if (id == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        DBService dbs = AlitheiaCore.getInstance().getDBService();
+        T obj = dbs.findObjectById(type, id);
+        if (obj == null) {
+            ids.remove(key, id);
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return obj;
+    }
+
+    /**
+     * Cache the id of obj for key. Objects that have not been stored yet
+     * are ignored.
+     */
+    public void put(Object key, T obj) {
+        if (obj == null || obj.getId() <= 0)
+            return;
+        /* Entries are cheap to recreate, a crude bound is good enough */
+        if (ids.size() >= maxSize)
+            ids.clear();
+        ids.put(key, obj.getId());
+    }
+
+    /**
+     * Remove the entry for key.
+     */
+    public void remove(Object key) {
+        ids.remove(key);
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public void clear() {
+        ids.clear();
+    }
+
+    /**
+     * Get the lock that serializes creation of objects for key. Lookups
+     * for keys that map to different locks proceed in parallel.
+     */
+    public Object lockFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return locks[(h & Integer.MAX_VALUE) % LOCKS];
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public String toString() {
+        return "LookupCache<" + type.getSimpleName() + ">: " + ids.size()
+                + " entries, " + hits + " hits, " + misses + " misses";
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -85,6 +85,12 @@ public class MailMessageMeasurement extends MetricMeasurement {
     @Column(name="RESULT")
     private String result;
 
+    /**
+     * The calculation result as a number, null if the result is not numeric
+     */
+    @Column(name="NUMERIC_RESULT")
+    private Double numericResult;
+
     /**
      * Convenience constructor to avoid having to call three methods
      * to set up sensible values in a measurement.
@@ -130,5 +136,14 @@ public class MailMessageMeasurement extends MetricMeasurement {
 
     public void setResult(String result) {
         this.result = result;
+        this.numericResult = toNumber(result);
+    }
+
+    public Double getNumericResult() {
+        return numericResult;
+    }
+
+    public void setNumericResult(Double numericResult) {
+        this.numericResult = numericResult;
     }
 }
@@ -135,6 +135,10 @@ public class Metric extends DAObject {
     @OneToMany(mappedBy="metric", cascade = CascadeType.ALL, orphanRemoval = true)
     private Set<MailMessageMeasurement> mmMeasurements;
 
+    /** Metric ids by mnemonic, shared by all sessions */
+    private static LookupCache<Metric> lookupCache = 
+        new LookupCache<Metric>(Metric.class);
+
     public Metric() {
 		// Nothing to do here
 	}
@@ -343,6 +347,10 @@ public class Metric extends DAObject {
 	 *         provided mnemonic
 	 */
 	public static Metric getMetricByMnemonic(String mnem) {
+		Metric m = lookupCache.get(mnem);
+		if (m != null)
+			return m;
+
 		DBService dbs = AlitheiaCore.getInstance().getDBService();
 
 		Map<String, Object> properties = new HashMap<String, Object>();
@@ -354,6 +362,7 @@ public class Metric extends DAObject {
 		if (result.size() <= 0)
 			return null;
 
+		lookupCache.put(mnem, result.get(0));
 		return result.get(0);
 	}
 
@@ -42,6 +42,35 @@ package eu.sqooss.service.db;
 public abstract class MetricMeasurement extends DAObject {
 
     public abstract String getResult();
+
+    /**
+     * Get the result as a number. Numeric results are also stored in a 
+     * separate numeric column, so that queries can filter and aggregate 
+     * them in the database.
+     * 
+     * @return The result value or null if the result is not a number
+     */
+    public abstract Double getNumericResult();
+
+    public abstract void setNumericResult(Double numericResult);
+
+    /**
+     * Convert a result string to its numeric representation. 
+     * 
+     * @return The numeric value or null if the result is not a finite number
+     */
+    public static Double toNumber(String result) {
+        if (result == null)
+            return null;
+        try {
+            double d = Double.parseDouble(result.trim());
+            if (Double.isNaN(d) || Double.isInfinite(d))
+                return null;
+            return d;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
 }
 
 // vi: ai nosi sw=4 ts=4 expandtab
@@ -50,6 +50,12 @@ public class NameSpaceMeasurement extends MetricMeasurement {
     @Column(name="RESULT")
     private String result;
 
+    /**
+     * The calculation result as a number, null if the result is not numeric
+     */
+    @Column(name="NUMERIC_RESULT")
+    private Double numericResult;
+
     public NameSpaceMeasurement() {
         super();
     }
@@ -64,6 +70,15 @@ public class NameSpaceMeasurement extends MetricMeasurement {
 
     public void setResult(String result) {
         this.result = result;
+        this.numericResult = toNumber(result);
+    }
+
+    public Double getNumericResult() {
+        return numericResult;
+    }
+
+    public void setNumericResult(Double numericResult) {
+        this.numericResult = numericResult;
     }
 
     public String getResult() {
@@ -68,9 +68,19 @@ import eu.sqooss.service.util.FileUtils;
  */
 @Entity
 @Table(name="PROJECT_FILE")
+@org.hibernate.annotations.Table(appliesTo="PROJECT_FILE", indexes={
+    @Index(name="IDX_PROJECT_FILE_VALIDITY", 
+            columnNames={"STORED_PROJECT_ID", "VALID_UNTIL_SEQ", "VALID_FROM_SEQ"})
+})
 @XmlRootElement(name="file")
 public class ProjectFile extends DAObject{
     
+    /** 
+     * Value of the validUntilSeq field for files that are valid in
+     * the latest version 
+     */
+    public static final long LIVE = Long.MAX_VALUE;
+
     private static final String qPrevVersion = "select pf from ProjectVersion pv, ProjectFile pf where pf.projectVersion = pv.id and pv.project.id = :paramProject and pv.sequence < :paramsequence and  pf.name = :paramFile and pf.dir.id = :paramDir order by pv.sequence desc";
     private static final String qPrevVersionCopy = "select pf from ProjectVersion pv, ProjectFile pf where pf.projectVersion = pv.id and pv.project.id = :paramProject and pv.sequence < :paramsequence and ((pf.name = :paramFile and pf.dir.id = :paramDir) or ( pf.name = :paramCopyFromName and pf.dir.id = :paramCopyFromDir)) order by pv.sequence desc";
     private static final String qChangedMethods = "from ExecutionUnit eu where eu.file = :file and eu.changed = true";
@@ -135,6 +145,27 @@ public class ProjectFile extends DAObject{
     @JoinColumn(name="VALID_TO_ID")
     private ProjectVersion validUntil;
 
+    /**
+     * The project this file belongs to. Copy of the validFrom version's
+     * project, to allow live file lookups without joining versions.
+     */
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name="STORED_PROJECT_ID")
+    private StoredProject project;
+
+    /**
+     * The sequence number of the validFrom version
+     */
+    @Column(name="VALID_FROM_SEQ")
+    private Long validFromSeq;
+
+    /**
+     * The sequence number of the validUntil version, or {@link #LIVE} if
+     * the file is valid in the latest version
+     */
+    @Column(name="VALID_UNTIL_SEQ")
+    private Long validUntilSeq;
+
     /**
      * The ProjectFile this file was copied from. Only gets a value 
      * for file copy operations
@@ -203,8 +234,8 @@ public class ProjectFile extends DAObject{
         this.measurements = null;
         this.name = f.getName();
         this.projectVersion = v;
-        this.validFrom = v;
-        this.validUntil = null;
+        this.setValidFrom(v);
+        this.setValidUntil(null);
         //this.status = f.getStatus();
     }
     
@@ -301,6 +332,12 @@ public class ProjectFile extends DAObject{
 
     public void setValidFrom(ProjectVersion validFrom) {
         this.validFrom = validFrom;
+        if (validFrom != null) {
+            this.project = validFrom.getProject();
+            this.validFromSeq = validFrom.getSequence();
+        } else {
+            this.validFromSeq = null;
+        }
     }
 
     public ProjectVersion getValidUntil() {
@@ -309,6 +346,26 @@ public class ProjectFile extends DAObject{
 
     public void setValidUntil(ProjectVersion validUntil) {
         this.validUntil = validUntil;
+        this.validUntilSeq = (validUntil == null ? LIVE : validUntil.getSequence());
+    }
+
+    public StoredProject getProject() {
+        return project;
+    }
+
+    /**
+     * Get the sequence number of the first version this file is valid in.
+     */
+    public Long getValidFromSeq() {
+        return validFromSeq;
+    }
+
+    /**
+     * Get the sequence number of the last version this file is valid in,
+     * or {@link #LIVE} if the file is valid in the latest version.
+     */
+    public Long getValidUntilSeq() {
+        return validUntilSeq;
     }
     
     public ProjectFile getCopyFrom() {
@@ -73,6 +73,12 @@ public class ProjectFileMeasurement extends MetricMeasurement {
      */
     @Column(name="RESULT")
     private String result;
+
+    /**
+     * The calculation result as a number, null if the result is not numeric
+     */
+    @Column(name="NUMERIC_RESULT")
+    private Double numericResult;
     
     /**
      * The file against which the measurement was made
@@ -132,6 +138,15 @@ public class ProjectFileMeasurement extends MetricMeasurement {
 
     public void setResult(String result) {
         this.result = result;
+        this.numericResult = toNumber(result);
+    }
+
+    public Double getNumericResult() {
+        return numericResult;
+    }
+
+    public void setNumericResult(Double numericResult) {
+        this.numericResult = numericResult;
     }
 }
 
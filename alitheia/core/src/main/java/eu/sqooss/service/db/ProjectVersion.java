@@ -446,6 +446,16 @@ public class ProjectVersion extends DAObject {
      * @return Previous version, or null
      */
     public ProjectVersion getPreviousVersion() {
+        ProjectVersionIndex index = ProjectVersionIndex.getIndex(project);
+        if (index != null) {
+            long id = index.getPrevious(sequence);
+            if (id == ProjectVersionIndex.NONE)
+                return null;
+            ProjectVersion pv = index.load(id);
+            if (pv != null)
+                return pv;
+        }
+
         DBService dbs = AlitheiaCore.getInstance().getDBService();
         
         String paramOrder = "versionOrder"; 
@@ -477,6 +487,16 @@ public class ProjectVersion extends DAObject {
      * @return Next version, or null
      */
     public ProjectVersion getNextVersion() {
+        ProjectVersionIndex index = ProjectVersionIndex.getIndex(project);
+        if (index != null) {
+            long id = index.getNext(sequence);
+            if (id == ProjectVersionIndex.NONE)
+                return null;
+            ProjectVersion pv = index.load(id);
+            if (pv != null)
+                return pv;
+        }
+
         DBService dbs = AlitheiaCore.getInstance().getDBService();
         
         String paramTS = "versionsequence"; 
@@ -502,7 +522,7 @@ public class ProjectVersion extends DAObject {
 
     /**
      * Look up a project version based on the SCM system provided
-     * revision id. This does a database lookup and 
+     * revision id. This uses the project's {@link ProjectVersionIndex} and 
      * returns the ProjectVersion recorded for that SCM revision,
      * or null if there is no such revision (for instance because
      * the updater has not added it yet or the revision number is
@@ -514,6 +534,16 @@ public class ProjectVersion extends DAObject {
      *         or null if there is none.
      */
     public static ProjectVersion getVersionByRevision(StoredProject project, String revisionId) {
+        ProjectVersionIndex index = ProjectVersionIndex.getIndex(project);
+        if (index != null) {
+            long id = index.getByRevision(revisionId);
+            if (id == ProjectVersionIndex.NONE)
+                return null;
+            ProjectVersion pv = index.load(id);
+            if (pv != null)
+                return pv;
+        }
+
         DBService dbs = AlitheiaCore.getInstance().getDBService();
    
         Map<String,Object> parameters = new HashMap<String,Object>();
@@ -571,6 +601,16 @@ public class ProjectVersion extends DAObject {
      * @return The oldest recorded project revision
      */
     public static ProjectVersion getFirstProjectVersion(StoredProject sp) {
+        ProjectVersionIndex index = ProjectVersionIndex.getIndex(sp);
+        if (index != null) {
+            long id = index.getBySequence(1);
+            if (id == ProjectVersionIndex.NONE)
+                return null;
+            ProjectVersion pv = index.load(id);
+            if (pv != null)
+                return pv;
+        }
+
         DBService dbs = AlitheiaCore.getInstance().getDBService();
 
         Map<String,Object> parameterMap = new HashMap<String,Object>();
@@ -590,6 +630,16 @@ public class ProjectVersion extends DAObject {
      *   or <code>null</code> if not found
      */
     public static ProjectVersion getLastProjectVersion(StoredProject sp) {
+        ProjectVersionIndex index = ProjectVersionIndex.getIndex(sp);
+        if (index != null) {
+            long id = index.getLast();
+            if (id == ProjectVersionIndex.NONE)
+                return null;
+            ProjectVersion pv = index.load(id);
+            if (pv != null)
+                return pv;
+        }
+
         DBService dbs = AlitheiaCore.getInstance().getDBService();
 
         Map<String,Object> parameterMap = new HashMap<String,Object>();
@@ -666,37 +716,22 @@ public class ProjectVersion extends DAObject {
     public long getLiveFilesCount() {
     	DBService dbs = AlitheiaCore.getInstance().getDBService();
 
-    	String paramVersionId = "paramVersion";
+        String paramSequence = "paramSequence";
         String paramIsDirectory = "paramIsDirectory";
         String paramProjectId = "paramProject";
         String paramState = "paramState";
         Map<String, Object> params = new HashMap<String, Object>();
 
         StringBuffer q = new StringBuffer("select count(pf) ");
-        
-        if (this.sequence == ProjectVersion.getLastProjectVersion(this.project).sequence) {
-            q.append(" from ProjectFile pf, ProjectVersion pv");
-            q.append(" where pv.id = :").append(paramVersionId);
-            q.append(" and pf.validUntil is null ");
-        } else {
-            q.append(" from ProjectVersion pv, ProjectVersion pv2,");
-            q.append(" ProjectVersion pv3, ProjectFile pf ");
-            q.append(" where pv.project.id = :").append(paramProjectId);
-            q.append(" and pv.id = :").append(paramVersionId);
-            q.append(" and pv2.project.id = :").append(paramProjectId);
-            q.append(" and pv3.project.id = :").append(paramProjectId);
-            q.append(" and ((pf.validFrom.id = pv2.id and pf.validUntil.id = pv3.id)");
-            q.append("     or (pf.validFrom.id = pv2.id and pf.validUntil.id is null))");
-            q.append(" and pv2.sequence <= pv.sequence");
-            q.append(" and pv3.sequence >= pv.sequence");
-            
-            params.put(paramProjectId, this.getProject().getId());
-        }
+        q.append(" from ProjectFile pf");
+        q.append(" where pf.project.id = :").append(paramProjectId);
+        q.append(" and pf.validUntilSeq >= :").append(paramSequence);
+        q.append(" and pf.validFromSeq <= :").append(paramSequence);
         q.append(" and pf.isDirectory = :").append(paramIsDirectory);
         q.append(" and pf.state <> :").append(paramState);
 
-        
-        params.put(paramVersionId, this.getId());
+        params.put(paramProjectId, this.project.getId());
+        params.put(paramSequence, this.sequence);
         params.put(paramIsDirectory, Boolean.FALSE);
         params.put(paramState, ProjectFileState.deleted());
         
@@ -714,32 +749,16 @@ public class ProjectVersion extends DAObject {
 
         String paramDirectory = "paramDirectory";
         String paramIsDirectory = "is_directory";
-        String paramVersionId = "paramVersionId";
+        String paramSequence = "paramSequence";
         String paramProjectId = "paramProjectId";
         String paramState = "paramStatus";
 
         Map<String,Object> params = new HashMap<String,Object>();
-        StringBuffer q = new StringBuffer("select distinct pf ");
-        
-        if (this.sequence == ProjectVersion.getLastProjectVersion(this.project).sequence) {
-            q.append(" from ProjectFile pf, ProjectVersion pv");
-            q.append(" where pv.id = :").append(paramVersionId);
-            q.append(" and pf.validUntil is null ");
-        } else {
-            q.append(" from ProjectVersion pv, ProjectVersion pv2,");
-            q.append(" ProjectVersion pv3, ProjectFile pf ");
-            q.append(" where pv.project.id = :").append(paramProjectId);
-            q.append(" and pv.id = :").append(paramVersionId);
-            q.append(" and pv2.project.id = :").append(paramProjectId);
-            q.append(" and pv3.project.id = :").append(paramProjectId);
-            q.append(" and ((pf.validFrom.id = pv2.id and pf.validUntil.id = pv3.id)");
-            q.append("     or (pf.validFrom.id = pv2.id and pf.validUntil.id is null))");
-            q.append(" and pv2.sequence <= pv.sequence");
-            q.append(" and pv3.sequence >= pv.sequence");
-            
-            params.put(paramProjectId, this.project.getId());
-        }
-        
+        StringBuffer q = new StringBuffer("select pf ");
+        q.append(" from ProjectFile pf");
+        q.append(" where pf.project.id = :").append(paramProjectId);
+        q.append(" and pf.validUntilSeq >= :").append(paramSequence);
+        q.append(" and pf.validFromSeq <= :").append(paramSequence);
         q.append(" and pf.state <> :").append(paramState);
         
         if (d != null) {
@@ -751,7 +770,8 @@ public class ProjectVersion extends DAObject {
  	    }
     
      	params.put(paramState, ProjectFileState.deleted());
-     	params.put(paramVersionId, this.getId());
+     	params.put(paramProjectId, this.project.getId());
+     	params.put(paramSequence, this.sequence);
  	    
      	if (d != null) {
      		params.put(paramDirectory, d);
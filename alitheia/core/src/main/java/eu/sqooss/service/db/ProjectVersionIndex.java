@@ -0,0 +1,255 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.service.db;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.sqooss.core.AlitheiaCore;
+
+/**
+ * In-memory index of the versions of a project, ordered by sequence
+ * number, used to navigate the version history without querying the
+ * database. For each project, the index holds the ids and sequence
+ * numbers of all versions in two primitive arrays, and maps revision ids
+ * to sequence numbers.
+ * <p>
+ * Indexes are built from the database the first time a project's versions
+ * are navigated. Updaters must call {@link #versionStored(ProjectVersion)}
+ * after committing a new version, so that indexes stay current. If an 
+ * indexed version cannot be loaded (e.g. because it has been deleted), 
+ * the project's index is dropped and the caller falls back to querying
+ * the database.
+ */
+public class ProjectVersionIndex {
+
+    /** Returned by lookups when no matching version exists */
+    public static final long NONE = -1;
+
+    private static final String QRY_VERSIONS = "select pv.id, pv.revisionId, " +
+    		"pv.sequence from ProjectVersion pv where pv.project.id = :project " +
+    		"order by pv.sequence";
+
+    private static ConcurrentHashMap<Long, ProjectVersionIndex> indexes = 
+        new ConcurrentHashMap<Long, ProjectVersionIndex>();
+    
+    /* 
+     * Number of versions stored per project. Indexes built while a version
+     * is being stored might miss it, and are not kept.
+     */
+    private static ConcurrentHashMap<Long, AtomicLong> stored = 
+        new ConcurrentHashMap<Long, AtomicLong>();
+    
+    private long projectId;
+    private long[] ids;
+    private long[] sequences;
+    private int size;
+    private Map<String, Long> revisions;
+
+    private ProjectVersionIndex(long projectId, int capacity) {
+        this.projectId = projectId;
+        this.ids = new long[Math.max(16, capacity)];
+        this.sequences = new long[ids.length];
+        this.size = 0;
+        this.revisions = new HashMap<String, Long>(ids.length * 4 / 3 + 1);
+    }
+
+    /**
+     * Get the version index for a project, building it if necessary.
+     * Must be called with an active database session.
+     * 
+     * @return The index, or null if it could not be built
+     */
+    public static ProjectVersionIndex getIndex(StoredProject sp) {
+        ProjectVersionIndex index = indexes.get(sp.getId());
+        if (index != null)
+            return index;
+
+        long mods = storedCount(sp.getId()).get();
+        DBService dbs = AlitheiaCore.getInstance().getDBService();
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("project", sp.getId());
+        List<?> versions = dbs.doHQL(QRY_VERSIONS, params);
+        if (versions == null)
+            return null;
+
+        index = new ProjectVersionIndex(sp.getId(), versions.size());
+        for (Object o : versions) {
+            Object[] v = (Object[]) o;
+            index.add((Long) v[0], (String) v[1], (Long) v[2]);
+        }
+        
+        if (storedCount(sp.getId()).get() == mods) {
+            ProjectVersionIndex old = indexes.putIfAbsent(sp.getId(), index);
+            if (old != null)
+                return old;
+        }
+        return index;
+    }
+
+    /**
+     * Add a new version to the index of its project. Must be called by
+     * updaters after the version has been committed to the database.
+     */
+    public static void versionStored(ProjectVersion pv) {
+        long projectId = pv.getProject().getId();
+        storedCount(projectId).incrementAndGet();
+        ProjectVersionIndex index = indexes.get(projectId);
+        if (index != null)
+            index.add(pv.getId(), pv.getRevisionId(), pv.getSequence());
+    }
+
+    /**
+     * Drop the index of a project. It will be rebuilt from the database
+     * when next used.
+     */
+    public static void invalidate(StoredProject sp) {
+        indexes.remove(sp.getId());
+    }
+
+    private static AtomicLong storedCount(long projectId) {
+        AtomicLong count = stored.get(projectId);
+        if (count == null) {
+            count = new AtomicLong();
+            AtomicLong old = stored.putIfAbsent(projectId, count);
+            if (old != null)
+                count = old;
+        }
+        return count;
+    }
+
+    /**
+     * Get the id of the latest version with a sequence number lower than
+     * the provided one, or {@link #NONE}
+     */
+    public synchronized long getPrevious(long sequence) {
+        int i = search(sequence);
+        if (i < 0)
+            i = -i - 1;
+        return (i > 0) ? ids[i - 1] : NONE;
+    }
+
+    /**
+     * Get the id of the earliest version with a sequence number higher
+     * than the provided one, or {@link #NONE}
+     */
+    public synchronized long getNext(long sequence) {
+        int i = search(sequence);
+        i = (i < 0) ? -i - 1 : i + 1;
+        return (i < size) ? ids[i] : NONE;
+    }
+
+    /**
+     * Get the id of the version with the provided sequence number, 
+     * or {@link #NONE}
+     */
+    public synchronized long getBySequence(long sequence) {
+        int i = search(sequence);
+        return (i >= 0) ? ids[i] : NONE;
+    }
+
+    /**
+     * Get the id of the version with the provided revision id, 
+     * or {@link #NONE}
+     */
+    public synchronized long getByRevision(String revisionId) {
+        Long sequence = revisions.get(revisionId);
+        if (sequence == null)
+            return NONE;
+        return getBySequence(sequence);
+    }
+
+    /**
+     * Get the id of the latest version, or {@link #NONE}
+     */
+    public synchronized long getLast() {
+        return (size > 0) ? ids[size - 1] : NONE;
+    }
+
+    /** Number of versions in the index */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Load an indexed version. If the version cannot be found, the index 
+     * is out of date and is dropped.
+     * 
+     * @return The version, or null if it could not be loaded
+     */
+    public ProjectVersion load(long id) {
+        DBService dbs = AlitheiaCore.getInstance().getDBService();
+        ProjectVersion pv = dbs.findObjectById(ProjectVersion.class, id);
+        if (pv == null)
+            indexes.remove(projectId, this);
+        return pv;
+    }
+
+    private int search(long sequence) {
+        return Arrays.binarySearch(sequences, 0, size, sequence);
+    }
+
+    private synchronized void add(long id, String revisionId, long sequence) {
+        if (revisions.containsKey(revisionId))
+            return;
+
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            sequences = Arrays.copyOf(sequences, size * 2);
+        }
+
+        int i = search(sequence);
+        if (i >= 0) 
+            return; //Sequence numbers are unique
+        i = -i - 1;
+        if (i < size) {
+            System.arraycopy(ids, i, ids, i + 1, size - i);
+            System.arraycopy(sequences, i, sequences, i + 1, size - i);
+        }
+        ids[i] = id;
+        sequences[i] = sequence;
+        size++;
+        revisions.put(revisionId, sequence);
+    }
+
+    public String toString() {
+        return "ProjectVersionIndex(" + projectId + "): " + size() + " versions";
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -74,6 +74,12 @@ public class ProjectVersionMeasurement extends MetricMeasurement {
     @Column(name="RESULT")
     private String result;
 
+    /**
+     * The calculation result as a number, null if the result is not numeric
+     */
+    @Column(name="NUMERIC_RESULT")
+    private Double numericResult;
+
 	/**
      * The ProjectVersion to which the instance relates
      */
@@ -141,6 +147,15 @@ public class ProjectVersionMeasurement extends MetricMeasurement {
      */
     public void setResult(String result) {
         this.result = result;
+        this.numericResult = toNumber(result);
+    }
+
+    public Double getNumericResult() {
+        return numericResult;
+    }
+
+    public void setNumericResult(Double numericResult) {
+        this.numericResult = numericResult;
     }
 }
 
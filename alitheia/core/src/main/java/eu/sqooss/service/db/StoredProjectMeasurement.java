@@ -75,6 +75,12 @@ public class StoredProjectMeasurement extends MetricMeasurement {
      */
     @Column(name="RESULT")
     private String result;
+
+    /**
+     * The calculation result as a number, null if the result is not numeric
+     */
+    @Column(name="NUMERIC_RESULT")
+    private Double numericResult;
 	
 	/**
      * The StoredPRoject to which this measurement relates
@@ -120,6 +126,15 @@ public class StoredProjectMeasurement extends MetricMeasurement {
 
     public void setResult(String result) {
         this.result = result;
+        this.numericResult = toNumber(result);
+    }
+
+    public Double getNumericResult() {
+        return numericResult;
+    }
+
+    public void setNumericResult(Double numericResult) {
+        this.numericResult = numericResult;
     }
 
 }
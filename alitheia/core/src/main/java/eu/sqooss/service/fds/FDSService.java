@@ -162,6 +162,15 @@ public interface FDSService extends AlitheiaCoreService {
      * @return the file contents or null if none.
      */
     InputStream getFileContents(ProjectFile pf);
+
+    /**
+     * Get the fraction of {@link #getFileContents(ProjectFile)} calls that
+     * were served from the file contents cache since the service started.
+     * File contents are cached when a cache service is available.
+     *
+     * @return The cache hit rate, between 0 and 1
+     */
+    double getFileContentsHitRate();
 }
 
 // vi: ai nosi sw=4 ts=4 expandtab
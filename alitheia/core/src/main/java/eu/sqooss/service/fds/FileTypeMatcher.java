@@ -35,6 +35,9 @@ package eu.sqooss.service.fds;
 
 import java.lang.StringBuffer;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 /**
@@ -288,6 +291,28 @@ public final class FileTypeMatcher {
 	    return false;
 	}
 
+	/**
+	 * Get the file extensions that identify a file type, for the file types
+	 * that are determined only by the file extension.
+	 * 
+	 * @param type
+	 *            The file type to get the extensions for
+	 * @return The extensions (including the leading .) or null if files of
+	 *         this type are also identified by heuristics on the path
+	 */
+	public static Set<String> getExtensions(FileType type) {
+		if (type == FileType.DOC || type == FileType.TRANS
+				|| type == FileType.TXT)
+			return null;
+
+		Set<String> extensions = new HashSet<String>();
+		for (Map.Entry<String, FileType> e : lookupTable.entrySet()) {
+			if (e.getValue() == type)
+				extensions.add(e.getKey());
+		}
+		return extensions;
+	}
+
 	/**
 	 * Given a filename extension ext, check the known lists of file extensions
 	 * for an exact match.
@@ -35,9 +35,9 @@ package eu.sqooss.service.scheduler;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import java.lang.Comparable;
 import java.lang.InterruptedException;
@@ -83,13 +83,19 @@ public abstract class Job implements Comparable<Job> {
      * List of jobs which depend on this job
      */
     private List<Job> m_dependees;
+    
+    /**
+     * Number of jobs this job depends on that have not finished yet. 
+     * The job can be executed when this drops to zero.
+     */
+    private final AtomicInteger m_outstanding = new AtomicInteger();
 
     /**
      * A list of objects that listen to this job's state changes  
      */
     private List<JobStateListener> listeners;
     
-    private State m_state;
+    private volatile State m_state;
 
     private Scheduler m_scheduler;
 
@@ -147,7 +153,13 @@ public abstract class Job implements Comparable<Job> {
         synchronized (m_dependencies) {
             Pair<Job,Job> newDependency = new Pair<Job,Job>(other, this);
             m_dependencies.add(newDependency);
-            other.addDependee(this);
+            /* 
+             * Count first, so that the dependency cannot finish and 
+             * decrement the counter before it has been incremented 
+             */
+            m_outstanding.incrementAndGet();
+            if (!other.addDependee(this))
+                m_outstanding.decrementAndGet();
         }
         callDependenciesChanged();
     }
@@ -159,17 +171,19 @@ public abstract class Job implements Comparable<Job> {
     public final void removeDependency(Job other) {
         if (m_dependencies == null)
             return;
+        List<Pair<Job,Job>> doomed = new LinkedList<Pair<Job,Job>>();
         synchronized(m_dependencies) {
-            List<Pair<Job,Job>> doomed = new LinkedList<Pair<Job,Job>>();
             for (Pair<Job,Job> p: m_dependencies ) {
                 if ( (p.first == other) && (p.second == this) ) {
                     doomed.add(p);
-                    removeDependee(other);
                 }
             }
             m_dependencies.removeAll(doomed);
         }
-        callDependenciesChanged();
+        for (int i = 0; i < doomed.size(); i++) {
+            if (other.removeDependee(this))
+                dependencyFinished();
+        }
     }
 
     /**
@@ -192,22 +206,47 @@ public abstract class Job implements Comparable<Job> {
         }
     }
 
-    private final synchronized void addDependee(Job other) {
+    /**
+     * Register a job to be notified when this job finishes.
+     * 
+     * @return false if this job has already finished
+     */
+    private final synchronized boolean addDependee(Job other) {
+        if (m_state == State.Finished || m_state == State.Error)
+            return false;
         if (m_dependees == null)
             m_dependees = new ArrayList<Job>();
-        synchronized (m_dependees) {
-            m_dependees.add(other);
-        }
+        m_dependees.add(other);
+        return true;
     }
     
-    private final synchronized void removeDependee(Job other) {
+    /**
+     * @return true if the job was waiting for this job to finish
+     */
+    private final synchronized boolean removeDependee(Job other) {
         if (m_dependees == null)
-            return;
-        synchronized (m_dependees) {
-            m_dependees.remove(other);
+            return false;
+        return m_dependees.remove(other);
+    }
+    
+    /**
+     * Called when one of the jobs this job depends on has finished. When 
+     * the last one finishes, the scheduler is informed that the job 
+     * is ready.
+     */
+    private void dependencyFinished() {
+        if (m_outstanding.decrementAndGet() == 0) {
+            callDependenciesChanged();
         }
     }
     
+    /**
+     * @return The number of jobs this job is still waiting for
+     */
+    public final int outstandingDependencies() {
+        return m_outstanding.get();
+    }
+    
     /**
      * Executes the job. Makes sure that all dependencies are met. 
      * 
@@ -344,15 +383,7 @@ public abstract class Job implements Comparable<Job> {
      * @return true, when all dependencies are met.
      */
     public boolean canExecute() {
-        final List<Job> deps = dependencies();
-        Iterator<Job> it = deps.iterator();
-        while (it.hasNext()) {
-            Job j = it.next();
-            if (j.state() != State.Finished && j.state() != State.Error) {
-                return false;
-            }
-        }
-        return true;
+        return m_outstanding.get() == 0;
     }
     
     /**
@@ -389,35 +420,24 @@ public abstract class Job implements Comparable<Job> {
             return;
         }
 
-        m_state = s;
-
-        if ((m_state == State.Finished || m_state == State.Error) && m_dependencies != null) {
-            // remove the job from the dependency list
-            List<Job> unblockedJobs = new LinkedList<Job>();
-            synchronized (m_dependencies) {
-                List<Pair<Job,Job>> doomed = new LinkedList<Pair<Job,Job>>();
-                for (Pair<Job,Job> p: m_dependencies) {
-                    if (p.first == this) {
-                        doomed.add(p);
-                        unblockedJobs.add(p.second);
-                    }
-                }
-                m_dependencies.removeAll(doomed);
-            }
-            /* tell all jobs depending on the now finished on to forward that
-             * to the scheduler
-             */
-            for (Job j: unblockedJobs) {
-                j.callDependenciesChanged();
+        List<Job> unblockedJobs = null;
+        synchronized (this) {
+            m_state = s;
+            if ((m_state == State.Finished || m_state == State.Error) 
+                    && m_dependees != null) {
+                unblockedJobs = m_dependees;
+                m_dependees = null;
             }
         }
-        
-        if ((m_state == State.Finished || m_state == State.Error) && m_dependees != null) {
-            synchronized (m_dependees) {
-                for (Job p: m_dependees) {
-                    p.callDependenciesChanged();
-                }
-                m_dependees.clear();
+
+        /* 
+         * tell all jobs depending on the now finished one, they will
+         * forward that to the scheduler when they have no other 
+         * dependencies left
+         */
+        if (unblockedJobs != null) {
+            for (Job j : unblockedJobs) {
+                j.dependencyFinished();
             }
         }
 
@@ -72,6 +72,10 @@ public interface Scheduler extends AlitheiaCoreService {
 
     /**
      * This method is called, when dependencies of the job \a were changed.
+     * Jobs keep count of their unfinished dependencies and call this
+     * method when a dependency is added while they are queued and when 
+     * the count drops to zero, so a queued job becomes ready exactly once.
+     * {@link Job#canExecute()} is a constant time check.
      */
     void jobDependenciesChanged(Job job);
 
@@ -0,0 +1,306 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.service.updater;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.sqooss.service.db.DBService;
+import eu.sqooss.service.db.ProjectFile;
+import eu.sqooss.service.db.ProjectFileState;
+import eu.sqooss.service.db.ProjectVersion;
+import eu.sqooss.service.db.StoredProject;
+
+/**
+ * In-memory index of the latest entry for each path of a project, used by
+ * source updaters to find the previous version of a file without
+ * querying the database. The index is a trie over the path components.
+ * It is loaded once from the database when an update starts, and then
+ * kept up to date as revisions are processed.
+ * 
+ * Files added while a revision is processed are recorded with
+ * {@link #record(ProjectFile)}. They can be looked up with
+ * {@link #find(String, String, boolean)} right away, but
+ * {@link #findCommitted(String, String, boolean)} only sees them after the
+ * revision has been stored and {@link #commit(String, Collection)} has been
+ * called. The committed state corresponds to revision {@link #getRevision()}.
+ * 
+ * The index keeps only the id and deletion state of committed entries, as
+ * updaters restart the database session after each revision. Committed
+ * entries returned by the find methods are therefore loaded by primary
+ * key, which is a single row select unless the entry is already in the
+ * session. Callers that only need to know whether a path has an entry
+ * should use {@link #contains(String, String, boolean)} and 
+ * {@link #containsCommitted(String, String, boolean)}, which do not 
+ * touch the database.
+ * 
+ * Unlike {@link ProjectFile#findFile(Long, String, String, String, boolean)},
+ * lookups that exclude deleted files return null for paths whose latest
+ * entry is a deletion, instead of the entry before the deletion.
+ */
+public class ProjectFileTree {
+
+    /*
+     * The latest entry of a path is either live, or a deletion, which is
+     * valid only in the version that created it. Entries that were valid
+     * for a single version only are also returned, so the query orders
+     * entries by version and the latest one wins.
+     */
+    private static final String QRY_LATEST = "select pf.id, d.path, pf.name, " +
+    		"pf.state.status from ProjectFile pf, Directory d " +
+    		"where pf.dir = d and pf.project.id = :project " +
+    		"and (pf.validUntilSeq = :live or pf.validUntilSeq = pf.validFromSeq) " +
+    		"order by pf.validFromSeq, pf.id";
+
+    private DBService dbs;
+    private StoredProject project;
+    
+    private Node root = new Node();
+    private List<Node> recorded = new ArrayList<Node>();
+    private String revision;
+    private int size = 0;
+
+    public ProjectFileTree(DBService dbs, StoredProject project) {
+        this.dbs = dbs;
+        this.project = project;
+    }
+
+    /**
+     * Load the latest entry of each path from the database. Must be 
+     * called with an active database session.
+     * 
+     * @return The number of paths loaded
+     */
+    public int load() {
+        root = new Node();
+        recorded.clear();
+        size = 0;
+        
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("project", project.getId());
+        params.put("live", ProjectFile.LIVE);
+        List<?> entries = dbs.doHQL(QRY_LATEST, params);
+        
+        for (Object o : entries) {
+            Object[] entry = (Object[]) o;
+            Node n = node(path((String) entry[1], (String) entry[2]), true);
+            n.id = (Long) entry[0];
+            n.deleted = ((Integer) entry[3]) == ProjectFileState.STATE_DELETED;
+        }
+        
+        ProjectVersion latest = ProjectVersion.getLastProjectVersion(project);
+        revision = (latest == null ? null : latest.getRevisionId());
+        return size;
+    }
+
+    /**
+     * Get the latest entry for a path, including entries recorded for the
+     * revision being processed.
+     * 
+     * @param path The directory path the file resides in
+     * @param name The name of the file
+     * @param inclDeleted Whether to return entries marking a deletion 
+     */
+    public ProjectFile find(String path, String name, boolean inclDeleted) {
+        Node n = node(path(path, name), false);
+        if (n == null)
+            return null;
+
+        if (n.pending != null) {
+            if (!inclDeleted && n.pending.isDeleted())
+                return null;
+            return n.pending;
+        }
+        return committed(n, inclDeleted);
+    }
+
+    /**
+     * Get the latest entry for a path in the last committed revision.
+     * 
+     * @param path The directory path the file resides in
+     * @param name The name of the file
+     * @param inclDeleted Whether to return entries marking a deletion 
+     */
+    public ProjectFile findCommitted(String path, String name,
+            boolean inclDeleted) {
+        Node n = node(path(path, name), false);
+        if (n == null)
+            return null;
+        return committed(n, inclDeleted);
+    }
+
+    /**
+     * Check whether a path has an entry, including entries recorded for
+     * the revision being processed. Does not access the database.
+     * 
+     * @param path The directory path the file resides in
+     * @param name The name of the file
+     * @param inclDeleted Whether to count entries marking a deletion 
+     */
+    public boolean contains(String path, String name, boolean inclDeleted) {
+        Node n = node(path(path, name), false);
+        if (n == null)
+            return false;
+
+        if (n.pending != null)
+            return inclDeleted || !n.pending.isDeleted();
+        return hasCommitted(n, inclDeleted);
+    }
+
+    /**
+     * Check whether a path has an entry in the last committed revision.
+     * Does not access the database.
+     * 
+     * @param path The directory path the file resides in
+     * @param name The name of the file
+     * @param inclDeleted Whether to count entries marking a deletion 
+     */
+    public boolean containsCommitted(String path, String name, 
+            boolean inclDeleted) {
+        Node n = node(path(path, name), false);
+        return n != null && hasCommitted(n, inclDeleted);
+    }
+
+    /**
+     * Record a file entry of the revision being processed.
+     */
+    public void record(ProjectFile pf) {
+        Node n = node(path(pf.getDir().getPath(), pf.getName()), true);
+        if (n.pending == null)
+            recorded.add(n);
+        n.pending = pf;
+    }
+
+    /**
+     * Make the file entries of a revision visible to lookups of the 
+     * committed state. Must be called after the entries have been
+     * stored, as the index keeps only their ids.
+     * 
+     * @param revisionId The revision that was stored
+     * @param files The entries stored for that revision
+     */
+    public void commit(String revisionId, Collection<ProjectFile> files) {
+        discard();
+        for (ProjectFile pf : files) {
+            Node n = node(path(pf.getDir().getPath(), pf.getName()), true);
+            n.id = pf.getId();
+            n.deleted = pf.isDeleted();
+        }
+        revision = revisionId;
+    }
+
+    /**
+     * Forget the entries recorded for the revision being processed.
+     */
+    public void discard() {
+        for (Node n : recorded)
+            n.pending = null;
+        recorded.clear();
+    }
+
+    /**
+     * Get the revision the committed state corresponds to, or null
+     * if no revision has been stored yet.
+     */
+    public String getRevision() {
+        return revision;
+    }
+
+    /** Number of paths in the index */
+    public int size() {
+        return size;
+    }
+
+    private boolean hasCommitted(Node n, boolean inclDeleted) {
+        return n.id > 0 && (inclDeleted || !n.deleted);
+    }
+
+    private ProjectFile committed(Node n, boolean inclDeleted) {
+        if (!hasCommitted(n, inclDeleted))
+            return null;
+        return dbs.findObjectById(ProjectFile.class, n.id);
+    }
+
+    private static String path(String path, String name) {
+        if (path.endsWith("/"))
+            return path + name;
+        return path + "/" + name;
+    }
+
+    private Node node(String path, boolean create) {
+        Node n = root;
+        int start = 0;
+        while (start < path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0)
+                end = path.length();
+            if (end > start) {
+                String component = path.substring(start, end);
+                Node child = (n.children == null ? null : n.children.get(component));
+                if (child == null) {
+                    if (!create)
+                        return null;
+                    child = new Node();
+                    if (n.children == null)
+                        n.children = new HashMap<String, Node>(4);
+                    n.children.put(component, child);
+                }
+                n = child;
+            }
+            start = end + 1;
+        }
+        if (create && !n.exists) {
+            n.exists = true;
+            size++;
+        }
+        return n;
+    }
+
+    private static class Node {
+        Map<String, Node> children;
+        /** Id of the latest committed entry */
+        long id;
+        /** Whether the latest committed entry is a deletion */
+        boolean deleted;
+        /** Entry recorded for the revision being processed */
+        ProjectFile pending;
+        /** Whether the path has an entry, as opposed to being a prefix */
+        boolean exists;
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -0,0 +1,223 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package eu.sqooss.service.util;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+/**
+ * An immutable set of longs, stored as a sorted primitive array. Meant for
+ * large sets of object ids, which would otherwise need one boxed
+ * <code>Long</code> and one tree node per id. Can be used wherever a
+ * read-only <code>SortedSet&lt;Long&gt;</code> is expected; code that knows
+ * about this class can use the primitive accessors instead.
+ */
+public class SortedLongSet extends AbstractSet<Long> implements SortedSet<Long> {
+
+    public static final SortedLongSet EMPTY = new SortedLongSet(new long[0], 0, 0);
+
+    private final long[] values;
+    private final int from;
+    private final int to;
+
+    private SortedLongSet(long[] values, int from, int to) {
+        this.values = values;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Create a set from the first <code>length</code> elements of an
+     * array. The array is sorted in place and must not be modified
+     * afterwards.
+     */
+    public static SortedLongSet wrap(long[] values, int length) {
+        Arrays.sort(values, 0, length);
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            if (n == 0 || values[n - 1] != values[i])
+                values[n++] = values[i];
+        }
+        return new SortedLongSet(values, 0, n);
+    }
+
+    /** Create a set containing a copy of the provided values. */
+    public static SortedLongSet of(long... values) {
+        return wrap(Arrays.copyOf(values, values.length), values.length);
+    }
+
+    /** Create a set containing the provided values. */
+    public static SortedLongSet of(Collection<Long> values) {
+        if (values instanceof SortedLongSet)
+            return (SortedLongSet) values;
+        long[] a = new long[values.size()];
+        int n = 0;
+        for (Long l : values)
+            a[n++] = l;
+        return wrap(a, n);
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    /** Get the i-th smallest element of the set. */
+    public long get(int i) {
+        if (i < 0 || i >= size())
+            throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size());
+        return values[from + i];
+    }
+
+    public boolean contains(long value) {
+        return Arrays.binarySearch(values, from, to, value) >= 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return (o instanceof Long) && contains(((Long) o).longValue());
+    }
+
+    /** A copy of the set contents, in ascending order. */
+    public long[] toLongArray() {
+        return Arrays.copyOfRange(values, from, to);
+    }
+
+    /** Return a set containing the elements of both this and the other set. */
+    public SortedLongSet union(SortedLongSet other) {
+        if (other.isEmpty())
+            return this;
+        if (isEmpty())
+            return other;
+        long[] result = new long[size() + other.size()];
+        int i = from, j = other.from, n = 0;
+        while (i < to || j < other.to) {
+            long next;
+            if (j == other.to || (i < to && values[i] < other.values[j]))
+                next = values[i++];
+            else if (i == to || other.values[j] < values[i])
+                next = other.values[j++];
+            else {
+                next = values[i++];
+                j++;
+            }
+            result[n++] = next;
+        }
+        return new SortedLongSet(result, 0, n);
+    }
+
+    @Override
+    public Iterator<Long> iterator() {
+        return new Iterator<Long>() {
+            int next = from;
+
+            public boolean hasNext() {
+                return next < to;
+            }
+
+            public Long next() {
+                if (next >= to)
+                    throw new NoSuchElementException();
+                return values[next++];
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /** Iterate over the set elements from the largest to the smallest. */
+    public Iterator<Long> descendingIterator() {
+        return new Iterator<Long>() {
+            int next = to - 1;
+
+            public boolean hasNext() {
+                return next >= from;
+            }
+
+            public Long next() {
+                if (next < from)
+                    throw new NoSuchElementException();
+                return values[next--];
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    public Comparator<? super Long> comparator() {
+        return null;
+    }
+
+    public Long first() {
+        if (isEmpty())
+            throw new NoSuchElementException();
+        return values[from];
+    }
+
+    public Long last() {
+        if (isEmpty())
+            throw new NoSuchElementException();
+        return values[to - 1];
+    }
+
+    public SortedSet<Long> subSet(Long fromElement, Long toElement) {
+        if (fromElement > toElement)
+            throw new IllegalArgumentException("fromElement > toElement");
+        return new SortedLongSet(values, indexOf(fromElement), indexOf(toElement));
+    }
+
+    public SortedSet<Long> headSet(Long toElement) {
+        return new SortedLongSet(values, from, indexOf(toElement));
+    }
+
+    public SortedSet<Long> tailSet(Long fromElement) {
+        return new SortedLongSet(values, indexOf(fromElement), to);
+    }
+
+    /* Position of the first element that is >= value */
+    private int indexOf(long value) {
+        int idx = Arrays.binarySearch(values, from, to, value);
+        return idx >= 0 ? idx : -(idx + 1);
+    }
+}
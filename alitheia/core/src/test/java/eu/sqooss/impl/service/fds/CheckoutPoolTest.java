@@ -0,0 +1,227 @@
+package eu.sqooss.impl.service.fds;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.sqooss.service.db.ProjectVersion;
+import eu.sqooss.service.db.StoredProject;
+import eu.sqooss.service.fds.CheckoutException;
+import eu.sqooss.service.fds.OnDiskCheckout;
+import eu.sqooss.service.logging.Logger;
+import eu.sqooss.service.tds.InvalidRepositoryException;
+import eu.sqooss.service.tds.Revision;
+import eu.sqooss.service.tds.SCMAccessor;
+import eu.sqooss.service.util.FileUtils;
+
+public class CheckoutPoolTest {
+
+    /** Ignores all messages */
+    static class NullLogger implements Logger {
+        public void debug(String message) {}
+        public void info(String message) {}
+        public void warn(String message) {}
+        public void warn(String message, Exception e) {}
+        public void error(String message) {}
+        public void error(String message, Exception e) {}
+        public String getName() { return "test"; }
+    }
+
+    /**
+     * An accessor whose checkouts consist of a single file named after
+     * the revision. Records the checkout and update calls.
+     */
+    static class TestAccessor implements InvocationHandler {
+        List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+        volatile CountDownLatch gate = null;
+        volatile boolean fail = false;
+
+        SCMAccessor proxy() {
+            return (SCMAccessor) Proxy.newProxyInstance(
+                    getClass().getClassLoader(),
+                    new Class<?>[] {SCMAccessor.class}, this);
+        }
+
+        public Object invoke(Object proxy, Method m, Object[] args)
+                throws Throwable {
+            String name = m.getName();
+            if (name.equals("newRevision"))
+                return revision((String) args[0]);
+            if (name.equals("getCheckout")) {
+                if (gate != null)
+                    gate.await();
+                if (fail)
+                    throw new InvalidRepositoryException("test", "failed");
+                String rev = ((Revision) args[1]).getUniqueId();
+                calls.add("checkout " + rev);
+                new File((File) args[2], rev).createNewFile();
+                return null;
+            }
+            if (name.equals("updateCheckout")) {
+                String from = ((Revision) args[1]).getUniqueId();
+                String to = ((Revision) args[2]).getUniqueId();
+                calls.add("update " + from + " " + to);
+                File root = (File) args[3];
+                new File(root, from).delete();
+                new File(root, to).createNewFile();
+                return null;
+            }
+            if (name.equals("toString"))
+                return "TestAccessor";
+            throw new UnsupportedOperationException(name);
+        }
+
+        private Revision revision(final String id) {
+            return (Revision) Proxy.newProxyInstance(
+                    getClass().getClassLoader(),
+                    new Class<?>[] {Revision.class}, new InvocationHandler() {
+                public Object invoke(Object proxy, Method m, Object[] args) {
+                    if (m.getName().equals("getUniqueId"))
+                        return id;
+                    return null;
+                }
+            });
+        }
+    }
+
+    private File root;
+    private TestAccessor scm;
+    private StoredProject project;
+    private CheckoutPool pool;
+
+    @Before
+    public void setUp() throws IOException {
+        root = File.createTempFile("checkoutpool", "");
+        root.delete();
+        root.mkdirs();
+        scm = new TestAccessor();
+        project = new StoredProject();
+        project.setId(1);
+        project.setName("test");
+        pool = new CheckoutPool(new NullLogger(), root, 2, 0);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteRecursive(root);
+    }
+
+    private ProjectVersion version(int seq) {
+        ProjectVersion pv = new ProjectVersion(project);
+        pv.setId(seq);
+        pv.setSequence(seq);
+        pv.setRevisionId(Integer.toString(seq));
+        return pv;
+    }
+
+    @Test
+    public void testCheckout() throws Exception {
+        OnDiskCheckout co = pool.acquire(scm.proxy(), version(1), "/");
+        assertTrue(new File(co.getRoot(), "1").exists());
+        assertEquals(1, scm.calls.size());
+
+        /* The same version is shared, without checking it out again */
+        OnDiskCheckout co2 = pool.acquire(scm.proxy(), version(1), "/");
+        assertSame(co, co2);
+        assertEquals(1, scm.calls.size());
+        pool.release(co2);
+        pool.release(co);
+
+        /* Released checkouts are kept */
+        assertSame(co, pool.acquire(scm.proxy(), version(1), "/"));
+        assertEquals(1, scm.calls.size());
+        pool.release(co);
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        OnDiskCheckout co = pool.acquire(scm.proxy(), version(1), "/");
+        pool.release(co);
+
+        /* An idle older checkout is updated instead of checking out */
+        OnDiskCheckout co2 = pool.acquire(scm.proxy(), version(3), "/");
+        assertSame(co, co2);
+        assertEquals("update 1 3", scm.calls.get(1));
+        assertTrue(new File(co2.getRoot(), "3").exists());
+        assertFalse(new File(co2.getRoot(), "1").exists());
+
+        /* Checkouts in use are not updated */
+        OnDiskCheckout co3 = pool.acquire(scm.proxy(), version(4), "/");
+        assertNotSame(co2, co3);
+        assertEquals("checkout 4", scm.calls.get(2));
+
+        /* A checkout held by one client can be updated in place */
+        assertTrue(pool.update(co3, version(5)));
+        assertEquals("update 4 5", scm.calls.get(3));
+        pool.release(co2);
+        pool.release(co3);
+    }
+
+    @Test
+    public void testSharedWaitsForCheckout() throws Exception {
+        scm.gate = new CountDownLatch(1);
+        ExecutorService ex = Executors.newFixedThreadPool(2);
+        try {
+            Callable<OnDiskCheckout> get = new Callable<OnDiskCheckout>() {
+                public OnDiskCheckout call() throws Exception {
+                    OnDiskCheckout co = pool.acquire(scm.proxy(), version(1), "/");
+                    /* The checkout must be complete when it is returned */
+                    assertTrue(new File(co.getRoot(), "1").exists());
+                    return co;
+                }
+            };
+            Future<OnDiskCheckout> first = ex.submit(get);
+            Future<OnDiskCheckout> second = ex.submit(get);
+            Thread.sleep(100);
+            assertFalse(first.isDone());
+            assertFalse(second.isDone());
+
+            scm.gate.countDown();
+            OnDiskCheckout co = first.get(5, TimeUnit.SECONDS);
+            assertSame(co, second.get(5, TimeUnit.SECONDS));
+            assertEquals(1, scm.calls.size());
+            pool.release(co);
+            pool.release(co);
+        } finally {
+            ex.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedCheckout() throws Exception {
+        scm.fail = true;
+        try {
+            pool.acquire(scm.proxy(), version(1), "/");
+            fail("Failed checkout returned");
+        } catch (CheckoutException e) {}
+
+        /* The failed checkout is not reused */
+        scm.fail = false;
+        OnDiskCheckout co = pool.acquire(scm.proxy(), version(1), "/");
+        assertTrue(new File(co.getRoot(), "1").exists());
+        assertEquals(1, scm.calls.size());
+        pool.release(co);
+    }
+}
@@ -0,0 +1,240 @@
+package eu.sqooss.test.service.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import eu.sqooss.impl.service.scheduler.SchedulerServiceImpl;
+import eu.sqooss.impl.service.scheduler.ShardedSchedulerServiceImpl;
+import eu.sqooss.service.scheduler.Job;
+import eu.sqooss.service.scheduler.Scheduler;
+import eu.sqooss.service.scheduler.SchedulerException;
+
+/**
+ * Measures the enqueue/dequeue throughput of the scheduler implementations
+ * with several concurrent producer and consumer threads. Jobs are taken
+ * from the scheduler but not executed, so that only the cost of queue
+ * management is measured.
+ */
+public class SchedulerStressTests {
+
+    static final int PRODUCERS = 4;
+    static final int CONSUMERS = 4;
+    static final int JOBS_PER_PRODUCER = 25000;
+    static final int OUT_OF_TURN_JOBS = 20000;
+
+    @Test
+    public void testSchedulerServiceImplThroughput() throws Exception {
+        stress(new SchedulerServiceImpl());
+    }
+
+    @Test
+    public void testShardedSchedulerThroughput() throws Exception {
+        stress(new ShardedSchedulerServiceImpl(CONSUMERS));
+    }
+
+    @Test
+    public void testSchedulerServiceImplTakeOutOfTurn() throws Exception {
+        takeOutOfTurn(new SchedulerServiceImpl());
+    }
+
+    @Test
+    public void testShardedSchedulerTakeOutOfTurn() throws Exception {
+        takeOutOfTurn(new ShardedSchedulerServiceImpl(CONSUMERS));
+    }
+
+    @Test
+    public void testShardedSchedulerBlockRace() throws Exception {
+        final ShardedSchedulerServiceImpl sched = new ShardedSchedulerServiceImpl(2);
+
+        for (int i = 0; i < 2000; i++) {
+            final NullJob job = new NullJob(0);
+            final NullJob dep = new NullJob(0);
+            sched.enqueue(job);
+            job.yieldNoResume();
+
+            //Blocking the job races with its new dependency finishing
+            Thread t = new Thread() {
+                public void run() {
+                    dep.finish();
+                }
+            };
+            t.start();
+            job.addDependency(dep);
+            t.join();
+
+            assertSame(job, sched.takeJob(job));
+        }
+    }
+
+    @Test
+    public void testShardedSchedulerDependencies() throws Exception {
+        ShardedSchedulerServiceImpl sched = new ShardedSchedulerServiceImpl(2);
+        NullJob first = new NullJob(1);
+        NullJob second = new NullJob(0);
+        second.addDependency(first);
+
+        sched.enqueue(second);
+        sched.enqueue(first);
+
+        //The dependency must run first, regardless of priorities
+        assertSame(first, sched.takeJob());
+        first.finish();
+        assertSame(second, sched.takeJob());
+        second.finish();
+        assertEquals(0, sum(sched.getShardSizes()));
+    }
+
+    @Test
+    public void testDependencyCounter() throws Exception {
+        NullJob finished = new NullJob(0);
+        finished.finish();
+        NullJob a = new NullJob(0);
+        NullJob b = new NullJob(0);
+        NullJob c = new NullJob(0);
+
+        c.addDependency(a);
+        c.addDependency(b);
+        //Finished jobs do not block their dependees
+        c.addDependency(finished);
+        assertEquals(2, c.outstandingDependencies());
+
+        a.finish();
+        assertEquals(1, c.outstandingDependencies());
+        c.removeDependency(b);
+        assertEquals(0, c.outstandingDependencies());
+        assertTrue(c.canExecute());
+    }
+
+    @Test(expected = SchedulerException.class)
+    public void testShardedSchedulerTakeBlockedJob() throws Exception {
+        ShardedSchedulerServiceImpl sched = new ShardedSchedulerServiceImpl(2);
+        NullJob first = new NullJob(1);
+        NullJob second = new NullJob(0);
+        second.addDependency(first);
+
+        sched.enqueue(second);
+        sched.enqueue(first);
+        assertSame(first, sched.takeJob(first));
+        sched.takeJob(second);
+    }
+
+    private void stress(final Scheduler sched) throws Exception {
+        final int total = PRODUCERS * JOBS_PER_PRODUCER;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(PRODUCERS + CONSUMERS);
+        final AtomicInteger taken = new AtomicInteger();
+        final ConcurrentHashMap<Job, Job> seen = new ConcurrentHashMap<Job, Job>();
+        final Exception[] error = new Exception[1];
+
+        for (int i = 0; i < PRODUCERS; i++) {
+            final int producer = i;
+            new Thread("Producer " + i) {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < JOBS_PER_PRODUCER; j++) {
+                            sched.enqueue(new NullJob(producer * JOBS_PER_PRODUCER + j));
+                        }
+                    } catch (Exception e) {
+                        error[0] = e;
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        for (int i = 0; i < CONSUMERS; i++) {
+            new Thread("Consumer " + i) {
+                public void run() {
+                    try {
+                        start.await();
+                        while (taken.incrementAndGet() <= total) {
+                            Job j = sched.takeJob();
+                            if (seen.put(j, j) != null)
+                                throw new Exception("Job " + j + " taken twice");
+                        }
+                    } catch (Exception e) {
+                        error[0] = e;
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        long ts = System.currentTimeMillis();
+        start.countDown();
+        done.await();
+        long time = Math.max(1, System.currentTimeMillis() - ts);
+
+        assertNull(error[0]);
+        assertEquals(total, seen.size());
+        System.out.println(sched.getClass().getSimpleName() + ": " + total
+                + " jobs enqueued and taken in " + time + " ms ("
+                + (total * 1000L / time) + " jobs/sec)");
+    }
+
+    /**
+     * Queue a large number of jobs and take them out of turn, in the 
+     * order the jobs were queued.
+     */
+    private void takeOutOfTurn(Scheduler sched) throws Exception {
+        final int total = OUT_OF_TURN_JOBS;
+        NullJob[] jobs = new NullJob[total];
+        for (int i = 0; i < total; i++) {
+            jobs[i] = new NullJob(total - i);
+            sched.enqueue(jobs[i]);
+        }
+
+        long ts = System.currentTimeMillis();
+        for (NullJob j : jobs)
+            assertSame(j, sched.takeJob(j));
+        long time = Math.max(1, System.currentTimeMillis() - ts);
+
+        System.out.println(sched.getClass().getSimpleName() + ": " + total
+                + " jobs taken out of turn in " + time + " ms ("
+                + (total * 1000L / time) + " jobs/sec)");
+    }
+
+    private static int sum(int[] a) {
+        int s = 0;
+        for (int i : a)
+            s += i;
+        return s;
+    }
+
+    /**
+     * Job that does nothing and can be marked finished without running.
+     */
+    static class NullJob extends Job {
+        private long priority;
+
+        NullJob(long priority) {
+            this.priority = priority;
+        }
+
+        public long priority() {
+            return priority;
+        }
+
+        protected void run() throws Exception {}
+
+        void finish() {
+            setState(State.Finished);
+        }
+
+        /* What yield() does, without a resume point to store */
+        void yieldNoResume() {
+            setState(State.Yielded);
+        }
+    }
+}
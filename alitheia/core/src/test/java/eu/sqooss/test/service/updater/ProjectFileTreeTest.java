@@ -0,0 +1,114 @@
+package eu.sqooss.test.service.updater;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import eu.sqooss.service.db.Directory;
+import eu.sqooss.service.db.ProjectFile;
+import eu.sqooss.service.db.ProjectFileState;
+import eu.sqooss.service.db.StoredProject;
+import eu.sqooss.service.updater.ProjectFileTree;
+
+public class ProjectFileTreeTest {
+
+    @Test
+    public void testFindRecorded() {
+        ProjectFileTree tree = new ProjectFileTree(null, new StoredProject());
+        ProjectFile root = file("/", "", ProjectFileState.STATE_ADDED);
+        ProjectFile dir = file("/src", "main", ProjectFileState.STATE_ADDED);
+        ProjectFile f = file("/src/main", "Foo.java", ProjectFileState.STATE_ADDED);
+        tree.record(root);
+        tree.record(dir);
+        tree.record(f);
+
+        assertSame(root, tree.find("/", "", false));
+        assertSame(dir, tree.find("/src", "main", false));
+        assertSame(f, tree.find("/src/main/", "Foo.java", false));
+        assertEquals(3, tree.size());
+
+        //Prefixes of recorded paths are not entries
+        assertNull(tree.find("/", "src", true));
+        assertNull(tree.find("/src/main", "Bar.java", true));
+        
+        //Not visible in the committed state until committed
+        assertNull(tree.findCommitted("/src/main", "Foo.java", true));
+    }
+
+    @Test
+    public void testDeleted() {
+        ProjectFileTree tree = new ProjectFileTree(null, new StoredProject());
+        ProjectFile f = file("/src", "Foo.java", ProjectFileState.STATE_ADDED);
+        ProjectFile del = file("/src", "Foo.java", ProjectFileState.STATE_DELETED);
+        tree.record(f);
+        tree.record(del);
+
+        assertSame(del, tree.find("/src", "Foo.java", true));
+        assertNull(tree.find("/src", "Foo.java", false));
+    }
+
+    @Test
+    public void testDiscardAndCommit() {
+        ProjectFileTree tree = new ProjectFileTree(null, new StoredProject());
+        ProjectFile f = file("/src", "Foo.java", ProjectFileState.STATE_ADDED);
+        tree.record(f);
+        tree.discard();
+        assertNull(tree.find("/src", "Foo.java", true));
+        assertNull(tree.getRevision());
+
+        //Deletions are committed, but not returned
+        ProjectFile del = file("/src", "Foo.java", ProjectFileState.STATE_DELETED);
+        tree.record(del);
+        tree.commit("abcd", Collections.singletonList(del));
+        assertEquals("abcd", tree.getRevision());
+        assertNull(tree.find("/src", "Foo.java", false));
+        assertNull(tree.findCommitted("/src", "Foo.java", false));
+    }
+
+    @Test
+    public void testContains() {
+        //No database service, so lookups must not load committed entries
+        ProjectFileTree tree = new ProjectFileTree(null, new StoredProject());
+        ProjectFile f = file("/src", "Foo.java", ProjectFileState.STATE_ADDED);
+        f.setId(1);
+        ProjectFile del = file("/src", "Bar.java", ProjectFileState.STATE_DELETED);
+        del.setId(2);
+        tree.record(f);
+        assertTrue(tree.contains("/src", "Foo.java", false));
+        assertFalse(tree.containsCommitted("/src", "Foo.java", true));
+
+        tree.commit("abcd", Arrays.asList(f, del));
+        assertTrue(tree.containsCommitted("/src", "Foo.java", false));
+        assertTrue(tree.contains("/src", "Foo.java", false));
+        assertTrue(tree.containsCommitted("/src", "Bar.java", true));
+        assertFalse(tree.containsCommitted("/src", "Bar.java", false));
+        assertFalse(tree.containsCommitted("/", "src", true));
+        assertFalse(tree.contains("/src", "Baz.java", true));
+
+        //Recorded deletions hide committed entries
+        ProjectFile del2 = file("/src", "Foo.java", ProjectFileState.STATE_DELETED);
+        tree.record(del2);
+        assertFalse(tree.contains("/src", "Foo.java", false));
+        assertTrue(tree.contains("/src", "Foo.java", true));
+        assertTrue(tree.containsCommitted("/src", "Foo.java", false));
+    }
+
+    private static ProjectFile file(String path, String name, int status) {
+        Directory d = new Directory();
+        d.setPath(path);
+        ProjectFileState state = new ProjectFileState();
+        state.setStatus(status);
+        ProjectFile pf = new ProjectFile();
+        pf.setDir(d);
+        pf.setName(name);
+        pf.setState(state);
+        return pf;
+    }
+}
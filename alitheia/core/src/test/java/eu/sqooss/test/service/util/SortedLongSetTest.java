@@ -0,0 +1,50 @@
+package eu.sqooss.test.service.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import eu.sqooss.service.util.SortedLongSet;
+
+public class SortedLongSetTest {
+
+    @Test
+    public void testSortAndDedupe() {
+        SortedLongSet s = SortedLongSet.of(5, 1, 3, 5, 1);
+        assertArrayEquals(new long[] {1, 3, 5}, s.toLongArray());
+        assertEquals(3, s.size());
+        assertTrue(s.contains(3L));
+        assertFalse(s.contains(4L));
+        assertEquals(new TreeSet<Long>(Arrays.asList(1L, 3L, 5L)), s);
+    }
+
+    @Test
+    public void testUnion() {
+        SortedLongSet a = SortedLongSet.of(1, 4, 6);
+        SortedLongSet b = SortedLongSet.of(2, 4, 7, 9);
+        assertArrayEquals(new long[] {1, 2, 4, 6, 7, 9}, a.union(b).toLongArray());
+        assertArrayEquals(new long[] {1, 2, 4, 6, 7, 9}, b.union(a).toLongArray());
+        assertEquals(a, a.union(SortedLongSet.EMPTY));
+    }
+
+    @Test
+    public void testViews() {
+        SortedLongSet s = SortedLongSet.of(10, 20, 30, 40);
+        assertEquals(new TreeSet<Long>(Arrays.asList(20L, 30L)), s.subSet(15L, 40L));
+        assertEquals(new TreeSet<Long>(Arrays.asList(10L, 20L)), s.headSet(30L));
+        assertEquals(new TreeSet<Long>(Arrays.asList(30L, 40L)), s.tailSet(30L));
+        assertEquals(Long.valueOf(10), s.first());
+        assertEquals(Long.valueOf(40), s.last());
+
+        Iterator<Long> i = s.descendingIterator();
+        assertEquals(Long.valueOf(40), i.next());
+        assertEquals(Long.valueOf(30), i.next());
+    }
+}
@@ -38,6 +38,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -229,6 +230,66 @@ public class ContributionMetricImpl extends AbstractMetric {
         return res;
     }
 
+    /*
+     * The dummy results above are not stored in a measurement table, so
+     * look up all resources that have a recorded contribution action at
+     * once instead of letting AbstractMetric search the measurement tables.
+     */
+    @Override
+    public Map<Long, List<Result>> getResults(Class<? extends DAObject> clazz,
+            long[] ids, List<Metric> l) throws MetricMismatchException {
+        ActionCategory ac = null;
+        if (MailingListThread.class.isAssignableFrom(clazz)
+                || MailMessage.class.isAssignableFrom(clazz)) {
+            ac = ActionCategory.M;
+        } else if (ProjectVersion.class.isAssignableFrom(clazz)) {
+            ac = ActionCategory.C;
+        } else if (Bug.class.isAssignableFrom(clazz)) {
+            ac = ActionCategory.B;
+        } else {
+            return super.getResults(clazz, ids, l);
+        }
+
+        checkMetrics(l);
+        Map<Long, List<Result>> results = new LinkedHashMap<Long, List<Result>>();
+        for (long id : ids)
+            results.put(id, new ArrayList<Result>());
+
+        if (ids.length == 0 || l.isEmpty())
+            return results;
+
+        String paramChResources = "paramChResources";
+        String paramActionCategory = "paramActionCategory";
+
+        String query = "select distinct ca.changedResourceId " +
+            "from ContribAction ca, ContribActionType cat " +
+            " where ca.contribActionType = cat " +
+            " and cat.actionCategory = :" + paramActionCategory +
+            " and ca.changedResourceId in (:" + paramChResources + ")";
+
+        Map<String,Object> parameters = new HashMap<String,Object>();
+        parameters.put(paramActionCategory, ac.toString());
+
+        for (int from = 0; from < ids.length; from += RESULTS_QUERY_SIZE) {
+            int to = Math.min(ids.length, from + RESULTS_QUERY_SIZE);
+            List<Long> chunk = new ArrayList<Long>(to - from);
+            for (int i = from; i < to; i++)
+                chunk.add(ids[i]);
+
+            Map<String, Collection> listParams = new HashMap<String, Collection>();
+            listParams.put(paramChResources, chunk);
+            List<Long> found = (List<Long>) db.doHQL(query, parameters, listParams);
+
+            for (Long id : found) {
+                List<Result> res = results.get(id);
+                for (Metric m : l)
+                    res.add(new Result(id, m.getId(), "1", ResultType.INTEGER));
+            }
+        }
+
+        return results;
+    }
+
     private ContribAction getResult(DAObject o) {
         String paramChResource = "paramChResource";
         String paramActionCategory = "paramActionCategory";
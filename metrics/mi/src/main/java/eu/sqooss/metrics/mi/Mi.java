@@ -31,7 +31,8 @@
 package eu.sqooss.metrics.mi;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -40,6 +41,8 @@ import org.osgi.framework.BundleContext;
 import eu.sqooss.service.abstractmetric.AbstractMetric;
 import eu.sqooss.service.abstractmetric.AlitheiaPlugin;
 import eu.sqooss.service.abstractmetric.AlreadyProcessingException;
+import eu.sqooss.service.abstractmetric.MeasurementQuery;
+import eu.sqooss.service.abstractmetric.MeasurementQuery.Aggregate;
 import eu.sqooss.service.abstractmetric.MetricDecl;
 import eu.sqooss.service.abstractmetric.MetricDeclarations;
 import eu.sqooss.service.abstractmetric.Result;
@@ -49,7 +52,6 @@ import eu.sqooss.service.db.Metric;
 import eu.sqooss.service.db.ProjectDirectory;
 import eu.sqooss.service.db.ProjectFile;
 import eu.sqooss.service.db.ProjectFileMeasurement;
-import eu.sqooss.service.db.ProjectFileState;
 import eu.sqooss.service.db.ProjectVersion;
 import eu.sqooss.service.db.ProjectVersionMeasurement;
 import eu.sqooss.service.fds.FileTypeMatcher;
@@ -113,78 +115,45 @@ public class Mi extends AbstractMetric {
             return;
 
         /* We now know that we are working with a dir*/
-        List<ProjectFile> fileList = pf.getProjectVersion().getFiles(
-                Directory.getDirectory(pf.getFileName(), false), 
-                ProjectVersion.MASK_FILES);
+        Directory dir = Directory.getDirectory(pf.getFileName(), false);
+        long numFiles = MeasurementQuery.liveFiles(pf.getProjectVersion())
+            .inDirectory(dir).countFiles();
         
-        AlitheiaPlugin loc =  pa.getImplementingPlugin(MNEM_LOC);
         Metric locmetric = Metric.getMetricByMnemonic(MNEM_LOC);
         Metric locommetric = Metric.getMetricByMnemonic(MNEM_LOCOM);
-        
-        AlitheiaPlugin structure = pa.getImplementingPlugin(MNEM_HV);
         Metric hvmetric = Metric.getMetricByMnemonic(MNEM_HV);
         Metric eccmetric = Metric.getMetricByMnemonic(MNEM_ECC);
         
         /*Empty directory*/
-        if (fileList.size() == 0)
+        if (numFiles == 0)
             return;
         
-        double aveV = 0, aveG = 0, perCM = 0, aveLOC = 0 ;
-        double totalV = 0;
-        int totalLoCom = 0, totalG = 0, totalLoC = 0;
-        FileTypeMatcher ftm = FileTypeMatcher.getInstance();
+        /* Totals over the source files for which all metrics are available */
+        List<Metric> metrics = Arrays.asList(hvmetric, eccmetric, 
+                locmetric, locommetric);
+        MeasurementQuery q = MeasurementQuery.liveFiles(pf.getProjectVersion())
+            .inDirectory(dir).ofType(FileTypeMatcher.FileType.SRC);
+        long srcFiles = q.countFiles();
+        for (Metric m : metrics)
+            q.measuredBy(m);
         
-        for (ProjectFile f : fileList) {
-                        
-            if (f.getIsDirectory() || !ftm.isSourceFile(f.getFileName()))
-                continue;
-            
-            Double HV = getResult(structure, hvmetric, f, Double.class);
-            
-            if (HV == null) {
-                log.warn("Error getting metric " + MNEM_HV 
-                        + " for file " + f);
-                continue;
-            } else {
-                totalV += HV;
-            }
-            
-            Integer ECC_TOTAL = getResult(structure, eccmetric, f, Integer.class);
-            
-            if (ECC_TOTAL == null) {
-                log.warn("Error getting metric " + MNEM_ECC 
-                        + " for file " + f);
-                totalV -= HV;
-                continue;
-            } else {
-                totalG += ECC_TOTAL;
-            }
-            
-            Integer LOC = getResult(loc, locmetric, f, Integer.class);
-            
-            if (LOC == null) {
-                log.warn("Error getting metric " + MNEM_LOC
-                        + " for file " + f);
-                totalV -= HV;
-                totalG -= ECC_TOTAL;
-                continue;
-            } else {
-                totalLoC += LOC;
-            }
-            
-            Integer LOCOM = getResult(loc, locommetric , f, Integer.class);
-            
-            if (LOCOM == null) {
-                log.warn("Error getting metric " + MNEM_LOCOM 
-                        + " for file " + f);
-                totalV -= HV;
-                totalG -= ECC_TOTAL;
-                totalLoC -= LOC;
-                continue;
-            } else {
-                totalLoCom += LOCOM;
-            }
+        /* Calculate the results the dependencies have not stored yet */
+        if (q.countFiles() < srcFiles) {
+            calculateMissing(pf.getProjectVersion().getFiles(dir, 
+                    ProjectVersion.MASK_FILES), metrics);
+            long missing = srcFiles - q.countFiles();
+            if (missing > 0)
+                log.warn("MI: " + missing + " source files in " + pf 
+                        + " have no HV, ECC, LOC or LOCOM result, "
+                        + "leaving them out of the module MI");
         }
+        Map<Metric, Aggregate> totals = q.aggregate(metrics);
+        
+        double aveV = 0, aveG = 0, perCM = 0, aveLOC = 0 ;
+        double totalV = totals.get(hvmetric).sum();
+        long totalG = (long) totals.get(eccmetric).sum(); 
+        long totalLoCom = (long) totals.get(locommetric).sum();
+        long totalLoC = (long) totals.get(locmetric).sum();
          
         /* This means that while the module is a source module
          * no parser has been defined in the Structural metrics
@@ -194,10 +163,10 @@ public class Mi extends AbstractMetric {
             return;
         }
         
-        aveLOC = (double)(totalLoC / fileList.size());
-        aveV = (double)(totalV / fileList.size());
-        aveG = (double)(totalG / fileList.size());
-        perCM = (double)(totalLoCom / fileList.size());
+        aveLOC = (double)(totalLoC / numFiles);
+        aveV = (double)(totalV / numFiles);
+        aveG = (double)(totalG / numFiles);
+        perCM = (double)(totalLoCom / numFiles);
         
         double MI = 171 - 
             5.2 * Math.log(aveV) - 
@@ -217,65 +186,12 @@ public class Mi extends AbstractMetric {
 
     public void run(ProjectVersion pv) throws AlreadyProcessingException {
         
-        String paramIsDirectory = "is_directory";
-        String paramMNOL = "paramMNOL";
-        String paramISSRCDIR = "paramISSRCDIR";
-        String paramVersionId = "paramVersionId";
-        String paramProjectId = "paramProjectId";
-        String paramState = "paramStatus";
-        
-        StringBuffer q = new StringBuffer("select pfm ");
-        Map<String,Object> params = new HashMap<String,Object>();
-
-        if (pv.getSequence() == ProjectVersion.getLastProjectVersion(pv.getProject()).getSequence()) {
-            q.append(" from ProjectFile pf, ProjectFileMeasurement pfm");
-            q.append(" where pf.validUntil is null ");
-        } else {
-            q.append(" from ProjectVersion pv, ProjectVersion pv2,");
-            q.append(" ProjectVersion pv3, ProjectFile pf, ");
-            q.append(" ProjectFileMeasurement pfm ");
-            q.append(" where pv.project.id = :").append(paramProjectId);
-            q.append(" and pv.id = :").append(paramVersionId);
-            q.append(" and pv2.project.id = :").append(paramProjectId);
-            q.append(" and pv3.project.id = :").append(paramProjectId);
-            q.append(" and pf.validFrom.id = pv2.id");
-            q.append(" and pf.validUntil.id = pv3.id");
-            q.append(" and pv2.sequence <= pv.sequence");
-            q.append(" and pv3.sequence >= pv.sequence");
-           
-            params.put(paramProjectId, pv.getProject().getId());
-            params.put(paramVersionId, pv.getId());
-        }
-        
-        q.append(" and pf.state <> :").append(paramState);
-        q.append(" and pf.isDirectory = :").append(paramIsDirectory);
-        q.append(" and pfm.projectFile = pf");
-        q.append(" and pfm.metric = :").append(paramMNOL);
-        q.append(" and exists (select pfm1 ");
-        q.append(" from ProjectFileMeasurement pfm1 ");
-        q.append(" where pfm1.projectFile = pfm.projectFile ");
-        q.append(" and pfm1.metric = :").append(paramISSRCDIR).append(")");
-        
-
-        params.put(paramState, ProjectFileState.deleted());
-        params.put(paramIsDirectory, true);
-        params.put(paramMNOL, Metric.getMetricByMnemonic(MNEMONIC_MODMI));
-        params.put(paramISSRCDIR, Metric.getMetricByMnemonic(MNEM_ISSRC));
-        
-        // Get the list of folders which exist in this project version.
-        List<ProjectFileMeasurement> srcDirs = 
-            (List<ProjectFileMeasurement>) db.doHQL(q.toString(), params);
-
-        // Calculate the metric results
-        double miTotal = 0;
-       
-        //For source directory directory
-        for (ProjectFileMeasurement pfm : srcDirs) {
-            double mi = Double.parseDouble(pfm.getResult());
-            // Try to retrieve the MNOL measurement for this folder
-            if (mi > 0)
-                miTotal += mi;
-        } 
+        // Sum up the module MI of the source folders that exist in this project version.
+        Aggregate srcDirs = rollUp(MeasurementQuery.liveDirectories(pv)
+                .measuredBy(Metric.getMetricByMnemonic(MNEM_ISSRC)),
+                Metric.getMetricByMnemonic(MNEMONIC_MODMI));
+        long numDirs = srcDirs.count();
+        double miTotal = (double) srcDirs.positiveSum();
         
         if (miTotal > 0) {
 
@@ -283,7 +199,7 @@ public class Mi extends AbstractMetric {
             ProjectVersionMeasurement ams = new ProjectVersionMeasurement(
                     metric, pv, String.valueOf(0));
             
-            ams.setResult(String.valueOf(((float) (miTotal / srcDirs.size()))));
+            ams.setResult(String.valueOf(((float) (miTotal / numDirs))));
             db.addRecord(ams);
         }
     }
@@ -302,6 +218,35 @@ public class Mi extends AbstractMetric {
      * 
      * @return The metric result or null if no result is in the database.
      */
+    /**
+     * Run the plug-ins implementing the provided metrics on the source 
+     * files that do not have a result for them yet.
+     */
+    private void calculateMissing(List<ProjectFile> files, List<Metric> metrics)
+    throws AlreadyProcessingException {
+        FileTypeMatcher ftm = FileTypeMatcher.getInstance();
+        for (Metric m : metrics) {
+            AlitheiaPlugin plugin = pa.getImplementingPlugin(m.getMnemonic());
+            if (plugin == null) {
+                log.error("No plug-in implements metric " + m.getMnemonic());
+                continue;
+            }
+            List<Metric> l = Collections.singletonList(m);
+            for (ProjectFile f : files) {
+                if (!ftm.isSourceFile(f.getFileName()))
+                    continue;
+                try {
+                    plugin.getResult(f, l);
+                } catch (AlreadyProcessingException ape) {
+                    throw ape;
+                } catch (Exception e) {
+                    log.warn("MI: Cannot calculate " + m.getMnemonic() 
+                            + " for file " + f + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
     private <E extends Number> E getResult(AlitheiaPlugin plugin, Metric m, 
             DAObject c, Class<E> resultType) {
         
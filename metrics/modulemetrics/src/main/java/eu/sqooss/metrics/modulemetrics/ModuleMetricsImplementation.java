@@ -34,7 +34,7 @@
 package eu.sqooss.metrics.modulemetrics;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -45,15 +45,17 @@ import eu.sqooss.core.AlitheiaCore;
 import eu.sqooss.service.abstractmetric.AbstractMetric;
 import eu.sqooss.service.abstractmetric.AlitheiaPlugin;
 import eu.sqooss.service.abstractmetric.AlreadyProcessingException;
+import eu.sqooss.service.abstractmetric.MeasurementQuery;
+import eu.sqooss.service.abstractmetric.MeasurementQuery.Aggregate;
 import eu.sqooss.service.abstractmetric.MetricDecl;
 import eu.sqooss.service.abstractmetric.MetricDeclarations;
+import eu.sqooss.service.abstractmetric.MetricMismatchException;
 import eu.sqooss.service.abstractmetric.Result;
 import eu.sqooss.service.db.Directory;
 import eu.sqooss.service.db.Metric;
 import eu.sqooss.service.db.ProjectDirectory;
 import eu.sqooss.service.db.ProjectFile;
 import eu.sqooss.service.db.ProjectFileMeasurement;
-import eu.sqooss.service.db.ProjectFileState;
 import eu.sqooss.service.db.ProjectVersion;
 import eu.sqooss.service.db.ProjectVersionMeasurement;
 import eu.sqooss.service.fds.FileTypeMatcher;
@@ -115,6 +117,7 @@ public class ModuleMetricsImplementation extends AbstractMetric {
         
         boolean foundSource = false; 
         FileTypeMatcher ftm = FileTypeMatcher.getInstance();
+        List<ProjectFile> textFiles = new ArrayList<ProjectFile>();
         for (ProjectFile f : pfs) {
 
             if (ftm.getFileType(f.getName()) 
@@ -125,12 +128,14 @@ public class ModuleMetricsImplementation extends AbstractMetric {
             mnof++;
             foundSource = true;
             
-            // Get the necessary measurement from the Wc.loc metric
             if (ftm.isTextType(f.getName())) {
-                mnol += getMeasurement(DEP_WC_LOC, f);
+                textFiles.add(f);
             }
         }
         
+        // Get the necessary measurements from the Wc.loc metric
+        mnol = sumMeasurements(DEP_WC_LOC, textFiles);
+        
         //Only store results for source dirs
         if (foundSource) {
             Metric m = Metric.getMetricByMnemonic(MET_ISSRCMOD);
@@ -153,76 +158,69 @@ public class ModuleMetricsImplementation extends AbstractMetric {
 
     public void run(ProjectVersion pv) throws AlreadyProcessingException {
         
-        String paramIsDirectory = "is_directory";
-        String paramMNOL = "paramMNOL";
-        String paramISSRCDIR = "paramISSRCDIR";
-        String paramVersionId = "paramVersionId";
-        String paramProjectId = "paramProjectId";
-        String paramState = "paramStatus";
-        Map<String,Object> params = new HashMap<String,Object>();
-
-        StringBuffer q = new StringBuffer("select pfm ");
-        if (pv.getSequence() == ProjectVersion.getLastProjectVersion(pv.getProject()).getSequence()) {
-            q.append(" from ProjectFile pf, ProjectFileMeasurement pfm");
-            q.append(" where pf.validUntil is null ");
-        } else {
-            q.append(" from ProjectVersion pv, ProjectVersion pv2,");
-            q.append(" ProjectVersion pv3, ProjectFile pf, ");
-            q.append(" ProjectFileMeasurement pfm ");
-            q.append(" where pv.project.id = :").append(paramProjectId);
-            q.append(" and pv.id = :").append(paramVersionId);
-            q.append(" and pv2.project.id = :").append(paramProjectId);
-            q.append(" and pv3.project.id = :").append(paramProjectId);
-            q.append(" and pf.validFrom.id = pv2.id");
-            q.append(" and pf.validUntil.id = pv3.id");
-            q.append(" and pv2.sequence <= pv.sequence");
-            q.append(" and pv3.sequence >= pv.sequence");
-            
-            params.put(paramProjectId, pv.getProject().getId());
-            params.put(paramVersionId, pv.getId());
-        }
-
-        q.append(" and pf.state <> :").append(paramState);
-        q.append(" and pf.isDirectory = :").append(paramIsDirectory);
-        q.append(" and pfm.projectFile = pf");
-        q.append(" and pfm.metric = :").append(paramMNOL);
-        q.append(" and exists (select pfm1 ");
-        q.append(" from ProjectFileMeasurement pfm1 ");
-        q.append(" where pfm1.projectFile = pfm.projectFile ");
-        q.append(" and pfm1.metric = :").append(paramISSRCDIR).append(")");
+        // Sum up the MNOL of the source folders that exist in this project version.
+        Aggregate srcDirs = rollUp(MeasurementQuery.liveDirectories(pv)
+                .measuredBy(Metric.getMetricByMnemonic(MET_ISSRCMOD)),
+                Metric.getMetricByMnemonic(MET_MNOL));
+        long numDirs = srcDirs.count();
+        long locs = (long) srcDirs.positiveSum();
         
-        params.put(paramState, ProjectFileState.deleted());
-        params.put(paramIsDirectory, true);
-        params.put(paramMNOL, Metric.getMetricByMnemonic(MET_MNOL));
-        params.put(paramISSRCDIR, Metric.getMetricByMnemonic(MET_ISSRCMOD));
-        
-        // Get the list of folders which exist in this project version.
-        List<ProjectFileMeasurement> srcDirs = 
-            (List<ProjectFileMeasurement>) db.doHQL(q.toString(), params);
-
-        // Calculate the metric results
-        int locs = 0;
-       
-        //For source directory directory
-        for (ProjectFileMeasurement pfm : srcDirs) {
-            log.debug("Reading measurement for dir " + pfm.getProjectFile().getFileName());
-            int mnolValue = Integer.parseInt(pfm.getResult());
-            // Try to retrieve the MNOL measurement for this folder
-            if (mnolValue > 0)
-                locs += mnolValue;
-        } 
-
         if (locs > 0) {
             // Store the "AMS" metric result
             Metric metric = Metric.getMetricByMnemonic(MET_AMS);
             ProjectVersionMeasurement ams = new ProjectVersionMeasurement(
                     metric, pv, String.valueOf(0));
             
-            ams.setResult(String.valueOf(((float) (locs / srcDirs.size()))));
+            ams.setResult(String.valueOf(((float) (locs / numDirs))));
             db.addRecord(ams);
         }
     }
     
+    /**
+     * Sum the results of a metric for a list of files. Results already in
+     * the database are fetched with a single query, the rest are
+     * calculated one file at a time.
+     */
+    private int sumMeasurements(String mnemonic, List<ProjectFile> files)
+        throws AlreadyProcessingException {
+        if (files.isEmpty())
+            return 0;
+        
+        AlitheiaPlugin plugin = core.getPluginAdmin().getImplementingPlugin(mnemonic);
+        if (plugin == null) {
+            log.error("Could not find the " + mnemonic + " metric's plug-in");
+            return 0;
+        }
+        
+        long[] ids = new long[files.size()];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = files.get(i).getId();
+        
+        Map<Long, List<Result>> results;
+        try {
+            results = plugin.getResults(ProjectFile.class, ids, 
+                    Collections.singletonList(Metric.getMetricByMnemonic(mnemonic)));
+        } catch (MetricMismatchException e) {
+            log.error("ModuleMetrics: " + e.getMessage());
+            return 0;
+        }
+        
+        int sum = 0;
+        for (ProjectFile f : files) {
+            List<Result> r = results.get(f.getId());
+            if (r == null || r.isEmpty()) {
+                sum += getMeasurement(mnemonic, f);
+                continue;
+            }
+            try {
+                sum += Integer.parseInt(r.get(0).getResult().toString());
+            } catch (NumberFormatException ex) {
+                log.warn("ModuleMetrics: Not an integer: " + ex);
+            }
+        }
+        return sum;
+    }
+    
     private int getMeasurement(String mnemonic, ProjectFile f) 
         throws AlreadyProcessingException {
         List<Metric> metric = new ArrayList<Metric>();
@@ -50,13 +50,14 @@ import org.osgi.framework.ServiceReference;
 import eu.sqooss.core.AlitheiaCore;
 import eu.sqooss.service.abstractmetric.AbstractMetric;
 import eu.sqooss.service.abstractmetric.AlreadyProcessingException;
+import eu.sqooss.service.abstractmetric.MeasurementQuery;
+import eu.sqooss.service.abstractmetric.MeasurementQuery.Aggregate;
 import eu.sqooss.service.abstractmetric.MetricDecl;
 import eu.sqooss.service.abstractmetric.MetricDeclarations;
 import eu.sqooss.service.abstractmetric.Result;
 import eu.sqooss.service.db.Metric;
 import eu.sqooss.service.db.ProjectFile;
 import eu.sqooss.service.db.ProjectFileMeasurement;
-import eu.sqooss.service.db.ProjectFileState;
 import eu.sqooss.service.db.ProjectVersion;
 import eu.sqooss.service.db.ProjectVersionMeasurement;
 import eu.sqooss.service.fds.FDSService;
@@ -252,25 +253,25 @@ public class WcImplementation extends AbstractMetric {
         Metric metric = Metric.getMetricByMnemonic(MNEMONIC_WC_LOC);
         ProjectFileMeasurement locm = new ProjectFileMeasurement(
                 metric,pf,String.valueOf(results[0]));
-        db.addRecord(locm);
+        addMeasurement(locm);
         toUpdate.add(metric);
 
         metric = Metric.getMetricByMnemonic(MNEMONIC_WC_LOCOM);
         ProjectFileMeasurement locc = new ProjectFileMeasurement(
                 metric,pf,String.valueOf(results[1]));
-        db.addRecord(locc);
+        addMeasurement(locc);
         toUpdate.add(metric);
         
         metric = Metric.getMetricByMnemonic(MNEMONIC_WC_LONB);
         ProjectFileMeasurement lonb = new ProjectFileMeasurement(
                 metric,pf,String.valueOf(results[2]));
-        db.addRecord(lonb);
+        addMeasurement(lonb);
         toUpdate.add(metric);
 
         metric = Metric.getMetricByMnemonic(MNEMONIC_WC_WORDS);
         ProjectFileMeasurement words_measure = new ProjectFileMeasurement(
                 metric,pf,String.valueOf(results[3]));
-        db.addRecord(words_measure);
+        addMeasurement(words_measure);
         toUpdate.add(metric);
     }
 
@@ -400,47 +401,13 @@ public class WcImplementation extends AbstractMetric {
 
     public void run(ProjectVersion v) throws AlreadyProcessingException {
         
-        String paramVersionId = "paramVersion";
-        String paramMetricLoC = "paramMetricLoC";
-        String paramMetricLoCom = "paramMetricLoCom";
-        String paramIsDirectory = "paramIsDirectory";
-        String paramProjectId = "paramProjectId";
-        String paramState = "paramState";
-        Map<String, Object> params = new HashMap<String, Object>();
-       
-        /* Get all measurements for live version files for metrics LoC and LoCom*/ 
-        StringBuffer q = new StringBuffer("select pfm ");
-        if (v.getSequence() == ProjectVersion.getLastProjectVersion(v.getProject()).getSequence()) {
-            q.append(" from ProjectFile pf, ProjectFileMeasurement pfm");
-            q.append(" where pf.validUntil is null ");
-        } else {
-            q.append(" from ProjectVersion pv, ProjectVersion pv2,");
-            q.append(" ProjectVersion pv3, ProjectFile pf, ProjectFileMeasurement pfm ");
-            q.append(" where pv.project.id = :").append(paramProjectId);
-            q.append(" and pv.id = :").append(paramVersionId);
-            q.append(" and pv2.project.id = :").append(paramProjectId);
-            q.append(" and pv3.project.id = :").append(paramProjectId);
-            q.append(" and pf.validFrom.id = pv2.id");
-            q.append(" and pf.validUntil.id = pv3.id");
-            q.append(" and pv2.sequence <= pv.sequence");
-            q.append(" and pv3.sequence >= pv.sequence");
-            
-            params.put(paramProjectId, v.getProject().getId());
-            params.put(paramVersionId, v.getId());
-        }
-        q.append(" and pfm.projectFile = pf ");
-        q.append(" and pf.state <> :").append(paramState);
-        q.append(" and pf.isDirectory = :").append(paramIsDirectory);
-        q.append(" and (pfm.metric.id = :").append(paramMetricLoC);
-        q.append(" or pfm.metric.id = :").append(paramMetricLoCom).append(")");
-
-        params.put(paramMetricLoC, Metric.getMetricByMnemonic(MNEMONIC_WC_LOC).getId());
-        params.put(paramMetricLoCom, Metric.getMetricByMnemonic(MNEMONIC_WC_LOCOM).getId());
-        params.put(paramIsDirectory, Boolean.FALSE);
-        params.put(paramState, ProjectFileState.deleted());
-        
-        List<ProjectFileMeasurement> results = 
-            (List<ProjectFileMeasurement>) db.doHQL(q.toString(), params);
+        /* Sum up LoC and LoCom of the version's live files, per file type */
+        Map<FileTypeMatcher.FileType, Aggregate> loc = rollUpByFileType(
+                MeasurementQuery.liveFiles(v), 
+                Metric.getMetricByMnemonic(MNEMONIC_WC_LOC));
+        Map<FileTypeMatcher.FileType, Aggregate> locom = rollUpByFileType(
+                MeasurementQuery.liveFiles(v), 
+                Metric.getMetricByMnemonic(MNEMONIC_WC_LOCOM));
         
         long nof = 0;            //Number of files
         int nosf = 0;           //Number of source code files
@@ -449,27 +416,25 @@ public class WcImplementation extends AbstractMetric {
         int totalLoComm = 0;    //Total Lines of comments
         int totalLocDoc = 0;    //Total Lines of doc
         
-        params.remove(paramMetricLoCom);
-        params.remove(paramMetricLoC);
         nof = v.getLiveFilesCount();
         
-        for (ProjectFileMeasurement pfm : results) {
-            String fname = pfm.getProjectFile().getName();
-            int result = Integer.parseInt(pfm.getResult());
-            if (ftm.getFileType(fname).equals(
-                            FileTypeMatcher.FileType.SRC)) {
-                nosf ++;
-                if (pfm.getMetric().getMnemonic().equals(MNEMONIC_WC_LOC)) {
-                    totalLoC += result;
-                } else {
-                    totalLoComm += result;
-                }
-            }
-            
-            if (ftm.getFileType(fname).equals(
-                            FileTypeMatcher.FileType.DOC)) {
-                nodf ++;
-                totalLocDoc += result;
+        Aggregate srcLoC = loc.get(FileTypeMatcher.FileType.SRC);
+        Aggregate srcLoCom = locom.get(FileTypeMatcher.FileType.SRC);
+        if (srcLoC != null) {
+            nosf += srcLoC.count();
+            totalLoC += (int) srcLoC.sum();
+        }
+        if (srcLoCom != null) {
+            nosf += srcLoCom.count();
+            totalLoComm += (int) srcLoCom.sum();
+        }
+        
+        for (Aggregate doc : new Aggregate[] {
+                loc.get(FileTypeMatcher.FileType.DOC), 
+                locom.get(FileTypeMatcher.FileType.DOC)}) {
+            if (doc != null) {
+                nodf += doc.count();
+                totalLocDoc += (int) doc.sum();
             }
         }
         
@@ -488,7 +453,7 @@ public class WcImplementation extends AbstractMetric {
         Metric m = Metric.getMetricByMnemonic(s); 
         ProjectVersionMeasurement pvm = new ProjectVersionMeasurement(m , pv, 
                 String.valueOf(value));
-        db.addRecord(pvm);
+        addMeasurement(pvm);
         return m;
     }
 }
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.tds.git;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Tags and parent-child relationships of the commits reachable from a 
+ * repository's HEAD. Commits are numbered in the order they are indexed;
+ * the children of each commit are stored as an array of commit numbers,
+ * sorted by commit time. The index is built on first use; after that,
+ * lookups never touch the repository. Calling {@link #refresh()} re-reads 
+ * the tags and extends the index with the commits added since HEAD was 
+ * last indexed. If HEAD moved to a commit that does not contain the 
+ * indexed one, the index is rebuilt.
+ */
+class CommitIndex {
+
+    private static final int[] NO_CHILDREN = new int[0];
+    
+    /** A commit and its number in the index */
+    private static class Node extends ObjectId {
+        final int index;
+        
+        Node(AnyObjectId id, int index) {
+            super(id);
+            this.index = index;
+        }
+    }
+    
+    /** A tagged object and the tag's name */
+    private static class TagName extends ObjectId {
+        String name;
+        
+        TagName(AnyObjectId id, String name) {
+            super(id);
+            this.name = name;
+        }
+    }
+    
+    private Repository git;
+    
+    /** The HEAD the index was built for, null if the repository is empty */
+    private ObjectId head;
+    private boolean built;
+    
+    private ObjectIdSubclassMap<Node> nodes;
+    private ObjectIdSubclassMap<TagName> tags;
+    
+    /* Per commit number: the commit, its commit time, its children */
+    private Node[] commits;
+    private int[] times;
+    private int[][] children;
+    private int[] numChildren;
+    private int size;
+    
+    CommitIndex(Repository git) {
+        this.git = git;
+        clear();
+    }
+    
+    /**
+     * Get the ids of the children of a commit, sorted by commit time.
+     * 
+     * @return The children ids, empty if the commit has no children or
+     * it is not reachable from HEAD
+     */
+    synchronized ObjectId[] getChildren(AnyObjectId id) throws IOException {
+        build();
+        Node n = nodes.get(id);
+        if (n == null)
+            return new ObjectId[0];
+        
+        ObjectId[] result = new ObjectId[numChildren[n.index]];
+        for (int i = 0; i < result.length; i++)
+            result[i] = commits[children[n.index][i]];
+        return result;
+    }
+    
+    /**
+     * Get the name of the tag pointing to an object.
+     * 
+     * @return The tag name or null if the object is not tagged
+     */
+    synchronized String getTag(AnyObjectId id) throws IOException {
+        build();
+        TagName t = tags.get(id);
+        return t == null ? null : t.name;
+    }
+    
+    /** Get all tags, as a map from tagged object ids to tag names */
+    synchronized Map<String, String> getTags() throws IOException {
+        build();
+        Map<String, String> result = new HashMap<String, String>();
+        for (TagName t : tags)
+            result.put(t.name(), t.name);
+        return result;
+    }
+    
+    /*
+     * Build the index if this is the first lookup.
+     */
+    private void build() throws IOException {
+        if (!built)
+            refresh();
+    }
+    
+    /**
+     * Bring the index up to date with the repository's tags and HEAD. Only 
+     * commits not reachable from the previously indexed HEAD are walked.
+     */
+    synchronized void refresh() throws IOException {
+        indexTags();
+        
+        ObjectId newHead = git.resolve(Constants.HEAD);
+        if (newHead == null || newHead.equals(head)) {
+            built = true;
+            return;
+        }
+        
+        RevWalk rw = new RevWalk(git);
+        try {
+            rw.setRetainBody(false);
+            RevCommit tip = rw.parseCommit(newHead);
+            RevCommit old = null;
+            
+            if (head != null) {
+                old = rw.parseCommit(head);
+                if (!rw.isMergedInto(old, tip)) {
+                    clear();
+                    head = null;
+                    old = null;
+                }
+                rw.reset();
+            }
+            
+            rw.markStart(tip);
+            if (old != null)
+                rw.markUninteresting(old);
+            
+            RevCommit c;
+            while ((c = rw.next()) != null) {
+                Node child = node(c);
+                times[child.index] = c.getCommitTime();
+                for (RevCommit parent : c.getParents())
+                    addChild(node(parent).index, child.index);
+            }
+            
+            head = newHead.copy();
+            built = true;
+        } finally {
+            rw.release();
+        }
+    }
+    
+    private void indexTags() {
+        tags = new ObjectIdSubclassMap<TagName>();
+        Map<String, Ref> all = git.getAllRefs();
+        
+        for (String ref : all.keySet()) {
+            if (!ref.contains("/tags/"))
+                continue;
+            String tagname = ref.substring(ref.lastIndexOf('/') + 1);
+            ObjectId id = all.get(ref).getObjectId();
+            TagName t = tags.get(id);
+            if (t != null)
+                t.name = tagname;
+            else
+                tags.add(new TagName(id, tagname));
+        }
+    }
+    
+    private Node node(AnyObjectId id) {
+        Node n = nodes.get(id);
+        if (n != null)
+            return n;
+        
+        if (size == commits.length) {
+            int len = size * 2;
+            commits = Arrays.copyOf(commits, len);
+            times = Arrays.copyOf(times, len);
+            children = Arrays.copyOf(children, len);
+            numChildren = Arrays.copyOf(numChildren, len);
+        }
+        
+        n = new Node(id, size);
+        nodes.add(n);
+        commits[size] = n;
+        children[size] = NO_CHILDREN;
+        size++;
+        return n;
+    }
+    
+    /* Insert a child, keeping the parent's children sorted by commit time */
+    private void addChild(int parent, int child) {
+        int[] c = children[parent];
+        int n = numChildren[parent];
+        
+        for (int i = 0; i < n; i++)
+            if (c[i] == child)
+                return;
+        
+        if (n == c.length) {
+            c = Arrays.copyOf(c, Math.max(2, n * 2));
+            children[parent] = c;
+        }
+        
+        int i = n;
+        while (i > 0 && times[c[i - 1]] > times[child]) {
+            c[i] = c[i - 1];
+            i--;
+        }
+        c[i] = child;
+        numChildren[parent] = n + 1;
+    }
+    
+    private void clear() {
+        nodes = new ObjectIdSubclassMap<Node>();
+        tags = new ObjectIdSubclassMap<TagName>();
+        commits = new Node[1024];
+        times = new int[1024];
+        children = new int[1024][];
+        numChildren = new int[1024];
+        size = 0;
+    }
+}
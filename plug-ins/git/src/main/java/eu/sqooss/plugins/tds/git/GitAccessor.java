@@ -33,17 +33,20 @@ package eu.sqooss.plugins.tds.git;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffFormatter;
@@ -51,7 +54,8 @@ import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.RepositoryBuilder;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -63,6 +67,7 @@ import org.eclipse.jgit.revwalk.filter.RevFilter;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
 import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
 import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
 import eu.sqooss.core.AlitheiaCore;
@@ -102,7 +107,19 @@ public class GitAccessor implements SCMAccessor {
     private Repository git = null;
     private Logger logger = null;
     
-    private Map<String, List<String>> childrenOf;
+    /** Tags and commit children */
+    private CommitIndex index;
+    
+    /** Number of revision root trees kept in {@link #trees} */
+    private static final int TREE_CACHE_SIZE = 64;
+    
+    /** Root trees of recently accessed revisions, by revision id */
+    private Map<String, RevTree> trees = Collections.synchronizedMap(
+            new LinkedHashMap<String, RevTree>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<String, RevTree> e) {
+                    return size() > TREE_CACHE_SIZE;
+                }
+            });
     
     static {
         supportedSchemes = new ArrayList<URI>();
@@ -309,13 +326,81 @@ public class GitAccessor implements SCMAccessor {
     public void getFile(String repoPath, Revision revision, File localPath)
         throws InvalidProjectRevisionException,
                InvalidRepositoryException,
-               FileNotFoundException {return;}
+               FileNotFoundException {
+        OutputStream stream = new BufferedOutputStream(
+                new FileOutputStream(localPath));
+        try {
+            getFile(repoPath, revision, stream);
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                warn("Cannot close file " + localPath + ": " + e.getMessage());
+            }
+        }
+    }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * The file contents are copied from the object database to the stream 
+     * in chunks, so large blobs are never held in memory in full. The 
+     * stream is closed when the file has been written.
+     */
     public void getFile(String repoPath, Revision revision, OutputStream stream)
         throws InvalidProjectRevisionException,
                InvalidRepositoryException,
-               FileNotFoundException {return;}
+               FileNotFoundException {
+        
+        RevTree tree = resolveTree(revision);
+        if (tree == null)
+            throw new InvalidProjectRevisionException(
+                    "Cannot resolve revision " + revision, getClass());
+        
+        String path = toGitPath(repoPath);
+        if (path == null || path.isEmpty())
+            throw new FileNotFoundException(repoPath + " (dir)");
+        
+        ObjectReader reader = git.newObjectReader();
+        TreeWalk tw = null;
+        try {
+            tw = TreeWalk.forPath(reader, path, tree);
+            
+            if (tw == null) {
+                warn(projectname + ": Requested path " + repoPath + "@" 
+                        + revision.getUniqueId() + " does not exist.");
+                throw new FileNotFoundException(repoPath);
+            }
+            
+            FileMode fm = tw.getFileMode(0);
+            if (fm.equals(FileMode.TREE) || fm.equals(FileMode.GITLINK)) {
+                warn(projectname + ": Requested path " + repoPath + "@" 
+                        + revision.getUniqueId() + " is a directory.");
+                throw new FileNotFoundException(repoPath + " (dir)");
+            }
+            
+            ObjectLoader blob = reader.open(tw.getObjectId(0), 
+                    Constants.OBJ_BLOB);
+            blob.copyTo(stream);
+            stream.close();
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new InvalidRepositoryException(uri.toString(), 
+                    "Cannot read " + repoPath + "@" + revision.getUniqueId() 
+                    + ": " + e.getMessage());
+        } finally {
+            if (tw != null) tw.release();
+            reader.release();
+        }
+    }
     
+    /**
+     * {@inheritDoc}
+     * 
+     * Logs of revision ranges are returned as {@link GitStreamingCommitLog}s,
+     * which walk the repository as they are iterated, in topological order.
+     */
     public CommitLog getCommitLog(String repoPath, Revision r1, Revision r2)
     throws InvalidProjectRevisionException, InvalidRepositoryException  {
     	long time = System.currentTimeMillis();
@@ -335,36 +420,33 @@ public class GitAccessor implements SCMAccessor {
                 throw new InvalidProjectRevisionException(r2.getUniqueId(),
                         this.getClass());
             
+            TreeFilter pathFilter = null;
             if (repoPath != null && !repoPath.isEmpty()) {
-                rw.setTreeFilter(AndTreeFilter.create(PathFilter.create(repoPath), TreeFilter.ANY_DIFF));
+                pathFilter = AndTreeFilter.create(PathFilter.create(repoPath), TreeFilter.ANY_DIFF);
             }
 
-            if (r2 != null) {
-                RevFilter exact = CommitTimeRevFilter.between(r1.getDate(), r2.getDate());
-                rw.setRevFilter(exact);
+            if (r2 == null) {
+                if (pathFilter != null)
+                    rw.setTreeFilter(pathFilter);
+                rw.markStart(rw.parseCommit(git.resolve(r1.getUniqueId())));
+                
+                GitCommitLog log = new GitCommitLog();
+                RevCommit c = rw.next();
+                if (c != null)
+                    log.entries().add(getRevision(c, false));
+                return log;
             }
             
-            if (r2 == null)
-                rw.markStart(rw.parseCommit(git.resolve(r1.getUniqueId())));
-            else if (r2.getUniqueId().equals(getHeadRevision().getUniqueId())) {
-                rw.markStart(rw.parseCommit(git.resolve(r2.getUniqueId())));
+            RevFilter exact = CommitTimeRevFilter.between(r1.getDate(), r2.getDate());
+            
+            ObjectId start;
+            if (r2.getUniqueId().equals(getHeadRevision().getUniqueId())) {
+                start = git.resolve(r2.getUniqueId());
             } else{
-                rw.markStart(rw.parseCommit(git.resolve(getNextRevision(r2).getUniqueId())));
+                start = git.resolve(getNextRevision(r2).getUniqueId());
             }
             
-            Iterator<RevCommit> i = rw.iterator();
-
-            GitCommitLog log = new GitCommitLog();
-
-            while (i.hasNext()) {
-                Revision r = getRevision(i.next(), false);
-                log.entries().add(r);
-                if (r2 == null)
-                    break;
-            }
-
-            Collections.reverse(log.entries());
-            return log;
+            return new GitStreamingCommitLog(this, git, start, exact, pathFilter);
 
         } catch (IOException ew) {
             throw new InvalidRepositoryException(this.uri.toString(),
@@ -387,7 +469,7 @@ public class GitAccessor implements SCMAccessor {
             throw new InvalidRepositoryException(repoPath, 
                     "The provided revision is not valid: " + r);
         
-        RevTree a = resolveGitRev(r.getUniqueId()).getTree();
+        RevTree a = resolveTree(r);
         TreeWalk tw = null;
         try {
         	String path = toGitPath(repoPath);
@@ -400,17 +482,7 @@ public class GitAccessor implements SCMAccessor {
             if (tw == null) 
                 return SCMNodeType.UNKNOWN;
             
-            FileMode fm = tw.getFileMode(0);
-
-            if (fm.equals(FileMode.REGULAR_FILE))
-            	return SCMNodeType.FILE;
-            if (fm.equals(FileMode.TREE))
-            	return SCMNodeType.DIR;
-            if(fm.equals(FileMode.GITLINK))
-            	return SCMNodeType.DIR;
-            if (fm.equals(FileMode.SYMLINK))
-            	return SCMNodeType.FILE; //FIXME: Need to track down link target
-            
+            return toNodeType(tw.getFileMode(0));
         } catch (Exception e) {
             warn("Path " + repoPath + " does not exist in revision " 
                     + r.getUniqueId() + ":" + e.getMessage());
@@ -420,6 +492,108 @@ public class GitAccessor implements SCMAccessor {
         return SCMNodeType.UNKNOWN;
     }
 
+    /**
+     * Resolve a number of paths in a revision with a single walk of the 
+     * revision's tree. Use this instead of repeated calls to 
+     * {@link #getNodeType(String, Revision)} when many paths of the same
+     * revision need to be looked up.
+     * 
+     * @param r The revision to resolve the paths against
+     * @param paths The paths to resolve
+     * @return A map from each of the provided paths to the node it 
+     * points to. Paths that do not exist in the revision are mapped to 
+     * nodes of type {@link SCMNodeType#UNKNOWN} with a null object id.
+     * @throws InvalidRepositoryException When the revision is not valid or
+     * the repository cannot be read
+     */
+    public Map<String, GitNode> getNodes(Revision r, Collection<String> paths)
+        throws InvalidRepositoryException {
+        
+        if (!isValidRevision(r))
+            throw new InvalidRepositoryException(uri.toString(), 
+                    "The provided revision is not valid: " + r);
+        
+        RevTree root = resolveTree(r);
+        Map<String, GitNode> result = new HashMap<String, GitNode>();
+        
+        /* Git path -> requested paths, as requests may differ in slashes */
+        Map<String, List<String>> requested = new HashMap<String, List<String>>();
+        /* Directories that lead to a requested path */
+        Set<String> ancestors = new HashSet<String>();
+        
+        for (String path : paths) {
+            String gitPath = toGitPath(path);
+            
+            if (gitPath.isEmpty()) { 
+                result.put(path, new GitNode(path, SCMNodeType.DIR, r, root.copy()));
+                continue;
+            }
+            
+            List<String> l = requested.get(gitPath);
+            if (l == null) {
+                l = new ArrayList<String>(1);
+                requested.put(gitPath, l);
+            }
+            l.add(path);
+            
+            int idx = gitPath.indexOf('/');
+            while (idx > 0) {
+                ancestors.add(gitPath.substring(0, idx));
+                idx = gitPath.indexOf('/', idx + 1);
+            }
+        }
+        
+        if (!requested.isEmpty()) {
+            TreeWalk tw = new TreeWalk(git);
+            try {
+                tw.addTree(root);
+                tw.setRecursive(false);
+                tw.setFilter(PathFilterGroup.createFromStrings(requested.keySet()));
+                
+                while (tw.next()) {
+                    String gitPath = tw.getPathString();
+                    
+                    List<String> l = requested.get(gitPath);
+                    if (l != null) {
+                        SCMNodeType type = toNodeType(tw.getFileMode(0));
+                        ObjectId id = tw.getObjectId(0);
+                        for (String path : l)
+                            result.put(path, new GitNode(path, type, r, id));
+                    }
+                    
+                    /* Only descend into trees that contain requested paths */
+                    if (tw.isSubtree() && ancestors.contains(gitPath))
+                        tw.enterSubtree();
+                }
+            } catch (IOException e) {
+                throw new InvalidRepositoryException(uri.toString(), 
+                        "Cannot walk the tree of revision " + r.getUniqueId() 
+                        + ": " + e.getMessage());
+            } finally {
+                tw.release();
+            }
+        }
+        
+        for (String path : paths) {
+            if (!result.containsKey(path))
+                result.put(path, new GitNode(path, SCMNodeType.UNKNOWN, r, null));
+        }
+        
+        return result;
+    }
+
+    private static SCMNodeType toNodeType(FileMode fm) {
+        if (fm.equals(FileMode.REGULAR_FILE))
+            return SCMNodeType.FILE;
+        if (fm.equals(FileMode.TREE))
+            return SCMNodeType.DIR;
+        if (fm.equals(FileMode.GITLINK))
+            return SCMNodeType.DIR;
+        if (fm.equals(FileMode.SYMLINK))
+            return SCMNodeType.FILE; //FIXME: Need to track down link target
+        return SCMNodeType.UNKNOWN;
+    }
+
     public String getSubProjectPath() throws InvalidRepositoryException 
         {return null;}
     
@@ -445,17 +619,27 @@ public class GitAccessor implements SCMAccessor {
      * are marked with a tag 
      */
     public Map<String, String> allTags() {
-    	Map<String, Ref> all = git.getAllRefs();
-		Map<String, String> result = new HashMap<String, String>();
-		
-		for (String ref : all.keySet()) {
-			if (!ref.contains("/tags/"))
-				continue;
-			String tagname = ref.substring(ref.lastIndexOf('/') + 1);
-			result.put(all.get(ref).getObjectId().getName(), tagname);
-		}
-		
-		return result;
+        try {
+            return index.getTags();
+        } catch (IOException e) {
+            err("Cannot read tags: " + e.getMessage());
+            return new HashMap<String, String>();
+        }
+    }
+    
+    /**
+     * Get the name of the tag that marks a revision. 
+     * 
+     * @return The tag name or null if the revision is not tagged
+     * @throws AccessorException When the tags cannot be read
+     */
+    public String getTag(String revisionId) throws AccessorException {
+        try {
+            return index.getTag(ObjectId.fromString(revisionId));
+        } catch (Exception e) {
+            throw new AccessorException(this.getClass(), "Error getting " +
+                    "tag for commit " + revisionId + ": " + e.getMessage());
+        }
     }
     
     /**
@@ -464,62 +648,42 @@ public class GitAccessor implements SCMAccessor {
      * first entry corresponds to the first commit that is the immediate
      * child of the provided commit.
      * 
-     * <b>Warning:</b> This method can cause the accessor to use a lot 
-     * of memory in very large repositories, as it calculates and 
-     * caches all parent-childrelationships beforehand. 
+     * The parent-child relationships of all commits reachable from HEAD
+     * are indexed on first use. Call {@link #refreshIndexes()} to extend 
+     * the index with commits added since. 
      * 
      * @throws AccessorException When an error occurs during 
      */
     public String[] getCommitChidren(String revisionId) throws AccessorException {
-    	if (childrenOf == null) {
-            childrenOf = new HashMap<String, List<String>>();
-    		resolveChildren();
-    	}
-    	
-    	Revision[] children = new Revision[childrenOf.get(revisionId).size()];
-    	int i = 0;
-    	for (String childid : childrenOf.get(revisionId)) {
-    		children[i] = getRevision(resolveGitRev(childid), false);
-    		i++;
-    	}
-    	
-    	Arrays.sort(children, children[0]);
-    	
-    	String[] chIds = new String[children.length];
-    	i = 0;
-    	for (Revision r : children) {
-    		chIds[i] = r.getUniqueId();
-    		i++;
-    	}
-    	
-    	return chIds;
+        ObjectId[] children;
+        try {
+            children = index.getChildren(ObjectId.fromString(revisionId));
+        } catch (Exception e) {
+            throw new AccessorException(this.getClass(), "Error getting " +
+                    "commit children: " + e.getMessage());
+        }
+        
+        String[] chIds = new String[children.length];
+        for (int i = 0; i < children.length; i++)
+            chIds[i] = children[i].getName();
+        
+        return chIds;
     }
     
-    private void resolveChildren() throws AccessorException {
-    	Long start = System.currentTimeMillis();
-    	RevWalk rw = new RevWalk(git);
-    	try {
-    		ObjectId revId = git.resolve(Constants.HEAD);
-            rw.sort(RevSort.COMMIT_TIME_DESC); //Doesn't really do anything
-            rw.markStart(rw.parseCommit(revId));
-            RevCommit c;
-            
-            while((c = rw.next()) != null) {
-            	for (RevCommit parent : c.getParents()) {
-            		if (!childrenOf.containsKey(parent.getName())) {
-            			childrenOf.put(parent.getName(), new ArrayList<String>());
-            		}
-            		childrenOf.get(parent.getName()).add(c.getName());
-            	}
-            }
-    	} catch (Exception e) {
-    		throw new AccessorException(this.getClass(), "Error getting " +
-    				"commit children: " + e.getMessage());
-		} finally {
-    		rw.release();
-    	}
-    	Long msec = System.currentTimeMillis() - start;
-    	debug("resolveChildren(): " + msec + " msec");
+    /**
+     * Bring the tag and commit children indexes up to date with the 
+     * repository. Lookups do not check the repository for changes, so 
+     * this must be called before processing newly fetched commits.
+     * 
+     * @throws AccessorException When the repository cannot be read
+     */
+    public void refreshIndexes() throws AccessorException {
+        try {
+            index.refresh();
+        } catch (IOException e) {
+            throw new AccessorException(this.getClass(), "Error indexing " +
+                    "tags and commits: " + e.getMessage());
+        }
     }
     
     /* Accessor internal methods*/
@@ -543,6 +707,7 @@ public class GitAccessor implements SCMAccessor {
             git = builder.setGitDir(toGitRepo(uri))
                 .findGitDir() // scan up the file system tree
                 .build();
+            index = new CommitIndex(git);
 
         } catch (IOException e) {
             throw new AccessorException(this.getClass(), 
@@ -656,6 +821,28 @@ public class GitAccessor implements SCMAccessor {
         return gitrev;
     }
     
+    /*
+     * Get the root tree of a revision. Trees of recently requested 
+     * revisions are cached, as file contents are usually requested 
+     * for many files of the same revision in a row.
+     */
+    private RevTree resolveTree(Revision r) {
+        if (r == null || r.getUniqueId() == null)
+            return null;
+        
+        RevTree tree = trees.get(r.getUniqueId());
+        if (tree != null)
+            return tree;
+        
+        RevCommit c = resolveGitRev(r.getUniqueId());
+        if (c == null)
+            return null;
+        
+        tree = c.getTree();
+        trees.put(r.getUniqueId(), tree);
+        return tree;
+    }
+    
     private RevCommit resolveGitRev(String rev) {
         RevWalk rw = new RevWalk(git);
 
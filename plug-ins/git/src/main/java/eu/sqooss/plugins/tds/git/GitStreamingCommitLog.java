@@ -0,0 +1,243 @@
+/*
+ * Copyright 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.tds.git;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.eclipse.jgit.errors.RevWalkException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import eu.sqooss.service.tds.CommitLog;
+import eu.sqooss.service.tds.Revision;
+
+/**
+ * A Git commit log that does not hold its entries in memory. Each iterator
+ * walks the repository from the newest commit of the log, in topological 
+ * order with parents before their children, and creates revisions as they 
+ * are requested. The walk does not keep commit messages, so the memory
+ * used while iterating is limited to the commit graph of the log.
+ * 
+ * Iterators are {@link Closeable}; an iterator that is not read to the end
+ * must be closed to release its walk.
+ * 
+ * Walk errors during iteration are reported as {@link RevWalkException}s.
+ */
+public class GitStreamingCommitLog implements CommitLog {
+
+    private GitAccessor accessor;
+    private Repository git;
+    private ObjectId start;
+    private RevFilter revFilter;
+    private TreeFilter treeFilter;
+    
+    private int size = -1;
+    
+    /**
+     * @param accessor The accessor to create revisions with
+     * @param git The repository to walk
+     * @param start The newest commit of the log
+     * @param revFilter Commits to include in the log
+     * @param treeFilter Paths whose commits to include in the log
+     */
+    GitStreamingCommitLog(GitAccessor accessor, Repository git, 
+            ObjectId start, RevFilter revFilter, TreeFilter treeFilter) {
+        this.accessor = accessor;
+        this.git = git;
+        this.start = start;
+        this.revFilter = revFilter;
+        this.treeFilter = treeFilter;
+    }
+
+    @Override
+    public Iterator<Revision> iterator() {
+        return new LogIterator();
+    }
+
+    /*
+     * Walks the log in topological order on the first call to hasNext()
+     * and returns the commits in reverse. Sorting has to see every commit 
+     * before returning the first one anyway, so the log is also counted.
+     */
+    private class LogIterator implements Iterator<Revision>, Closeable {
+        private RevWalk rw = newWalk();
+        private RevCommit[] commits;
+        private int next;
+
+        public boolean hasNext() {
+            if (rw == null)
+                return false;
+            if (commits == null)
+                walk();
+            if (next >= 0)
+                return true;
+            close();
+            return false;
+        }
+
+        public Revision next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            RevCommit c = commits[next];
+            commits[next--] = null;
+            return revision(c);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /** Release the walk, no more revisions are returned */
+        public void close() {
+            if (rw != null) {
+                rw.release();
+                rw = null;
+            }
+            commits = null;
+        }
+
+        private void walk() {
+            RevCommit[] c = new RevCommit[1024];
+            int n = 0;
+            try {
+                rw.sort(RevSort.TOPO);
+                RevCommit commit;
+                while ((commit = rw.next()) != null) {
+                    if (n == c.length)
+                        c = Arrays.copyOf(c, n * 2);
+                    c[n++] = commit;
+                }
+            } catch (IOException e) {
+                close();
+                throw new RevWalkException(e);
+            }
+            commits = c;
+            next = n - 1;
+            counted(n);
+        }
+    }
+
+    @Override
+    public Revision first() {
+        LogIterator i = new LogIterator();
+        try {
+            return i.hasNext() ? i.next() : null;
+        } finally {
+            i.close();
+        }
+    }
+
+    @Override
+    public Revision last() {
+        RevWalk rw = newWalk();
+        try {
+            rw.sort(RevSort.TOPO);
+            RevCommit c = rw.next();
+            if (c == null)
+                return null;
+            return revision(c);
+        } catch (IOException e) {
+            throw new RevWalkException(e);
+        } finally {
+            rw.release();
+        }
+    }
+
+    /**
+     * Count the entries of the log. Iterating over the log counts it, so
+     * after an iterator has returned its first revision this is free. 
+     * Otherwise the count is calculated once, with a walk that neither 
+     * sorts the commits nor reads their messages.
+     */
+    @Override
+    public synchronized int size() {
+        if (size < 0) {
+            RevWalk rw = newWalk();
+            try {
+                int n = 0;
+                while (rw.next() != null)
+                    n++;
+                size = n;
+            } catch (IOException e) {
+                throw new RevWalkException(e);
+            } finally {
+                rw.release();
+            }
+        }
+        return size;
+    }
+    
+    private synchronized void counted(int n) {
+        size = n;
+    }
+    
+    /*
+     * Create a revision from a commit of a walk that does not retain commit
+     * bodies. The commit is parsed again in a separate walk, so that its 
+     * message is freed along with the revision and not kept by the log walk.
+     */
+    private Revision revision(RevCommit c) {
+        RevWalk rw = new RevWalk(git);
+        try {
+            return accessor.getRevision(rw.parseCommit(c), false);
+        } catch (IOException e) {
+            throw new RevWalkException(e);
+        } finally {
+            rw.release();
+        }
+    }
+    
+    private RevWalk newWalk() {
+        RevWalk rw = new RevWalk(git);
+        rw.setRetainBody(false);
+        if (revFilter != null)
+            rw.setRevFilter(revFilter.clone());
+        if (treeFilter != null)
+            rw.setTreeFilter(treeFilter.clone());
+        try {
+            rw.markStart(rw.parseCommit(start));
+        } catch (IOException e) {
+            rw.release();
+            throw new RevWalkException(e);
+        }
+        return rw;
+    }
+}
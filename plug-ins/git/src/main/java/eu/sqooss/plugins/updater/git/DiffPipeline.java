@@ -0,0 +1,275 @@
+/*
+ * Copyright 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.updater.git;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.sqooss.plugins.tds.git.GitAccessor;
+import eu.sqooss.plugins.tds.git.GitNode;
+import eu.sqooss.service.logging.Logger;
+import eu.sqooss.service.tds.AccessorException;
+import eu.sqooss.service.tds.Revision;
+
+/**
+ * Resolves the changes of the upcoming revisions of a commit log on a pool
+ * of threads, while the updater stores the current one. For each revision,
+ * the changed paths and copy operations (diff with the first parent and 
+ * rename detection) and the types of the changed paths are resolved. 
+ * Revisions are returned in commit log order; revisions rejected by the
+ * {@link Filter} are dropped before they are resolved.
+ *
+ * Accepts the following system properties:
+ *
+ *  <dl>
+ *      <dt>eu.sqooss.updater.git.diffthreads</dt>
+ *      <dd>Number of threads resolving revisions (default: number of 
+ *      CPUs)</dd>
+ *      <dt>eu.sqooss.updater.git.lookahead</dt>
+ *      <dd>Maximum number of revisions resolved ahead of the one being
+ *      stored (default: 4 per thread)</dd>
+ *  </dl>
+ */
+class DiffPipeline {
+
+    public static final String THREADS = "eu.sqooss.updater.git.diffthreads";
+    public static final String LOOKAHEAD = "eu.sqooss.updater.git.lookahead";
+
+    /** Selects the revisions of the commit log to skip */
+    interface Filter {
+        /** 
+         * Called on the consumer thread, before the revision is queued 
+         * for resolution. 
+         */
+        boolean skip(Revision r);
+    }
+
+    /** A revision along with its resolved changed paths */
+    static class Entry {
+        final Revision revision;
+        final Map<String, GitNode> nodes;
+
+        Entry(Revision revision, Map<String, GitNode> nodes) {
+            this.revision = revision;
+            this.nodes = nodes;
+        }
+    }
+
+    private GitAccessor git;
+    private Iterator<Revision> source;
+    private Filter filter;
+    private Logger log;
+    private ExecutorService pool;
+    private ArrayDeque<Future<Entry>> ahead = new ArrayDeque<Future<Entry>>();
+    private int lookahead;
+
+    /* Diff stage counters, updated by the pool threads */
+    private AtomicInteger diffed = new AtomicInteger();
+    private AtomicLong diffTime = new AtomicLong();
+
+    /* Store stage counters, updated by the consumer */
+    private int stored = 0;
+    private long storeTime = 0;
+    private long waitTime = 0;
+    private long lastReturned = 0;
+    private long started = System.currentTimeMillis();
+
+    DiffPipeline(GitAccessor git, Iterator<Revision> source, Filter filter,
+            Logger log) {
+        this(git, source, filter, log, Integer.getInteger(THREADS, -1), 
+                Integer.getInteger(LOOKAHEAD, -1));
+    }
+
+    /**
+     * @param git The accessor to resolve revisions with
+     * @param source The revisions to resolve, in the order to return them
+     * @param filter The revisions to skip, null to resolve all revisions
+     * @param log Logger for resolution failures, if null they are printed 
+     * to stderr
+     * @param threads Number of threads resolving revisions, if less than 1
+     * one thread per CPU is used
+     * @param lookahead Maximum number of revisions resolved ahead of the 
+     * one being stored, if less than 1 4 revisions per thread are used
+     */
+    DiffPipeline(GitAccessor git, Iterator<Revision> source, Filter filter,
+            Logger log, int threads, int lookahead) {
+        this.git = git;
+        this.source = source;
+        this.filter = filter;
+        this.log = log;
+        if (threads < 1)
+            threads = Runtime.getRuntime().availableProcessors();
+        this.lookahead = lookahead < 1 ? 4 * threads : lookahead;
+
+        pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private AtomicInteger num = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Git diff thread " + num.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        fill();
+    }
+
+    boolean hasNext() {
+        return !ahead.isEmpty();
+    }
+
+    /**
+     * Get the next revision. Waits until the revision has been resolved.
+     * 
+     * @throws AccessorException When the revision could not be resolved
+     */
+    Entry next() throws AccessorException {
+        if (ahead.isEmpty())
+            throw new NoSuchElementException();
+
+        long now = System.currentTimeMillis();
+        if (lastReturned > 0) {
+            storeTime += now - lastReturned;
+            stored++;
+        }
+
+        Future<Entry> f = ahead.poll();
+        fill();
+
+        Entry e;
+        try {
+            e = f.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new AccessorException(getClass(), 
+                    "Interrupted while resolving revisions");
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (log != null)
+                log.error("Cannot resolve revision", 
+                        cause instanceof Exception ? (Exception) cause : ee);
+            else
+                cause.printStackTrace();
+            AccessorException ae = new AccessorException(getClass(), 
+                    "Cannot resolve revision: " + cause);
+            ae.initCause(cause);
+            throw ae;
+        }
+
+        lastReturned = System.currentTimeMillis();
+        waitTime += lastReturned - now;
+        return e;
+    }
+
+    /** 
+     * Stop resolving revisions. Queued revisions are cancelled, the ones
+     * being resolved are left to finish so that repository reads are not
+     * interrupted. A {@link Closeable} source is closed.
+     */
+    void close() {
+        if (lastReturned > 0) {
+            storeTime += System.currentTimeMillis() - lastReturned;
+            stored++;
+            lastReturned = 0;
+        }
+        for (Future<Entry> f : ahead)
+            f.cancel(false);
+        ahead.clear();
+        pool.shutdown();
+        
+        if (source instanceof Closeable) {
+            try {
+                ((Closeable) source).close();
+            } catch (IOException e) {
+                if (log != null)
+                    log.warn("Cannot close commit log: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Throughput of the pipeline stages: revisions resolved per second 
+     * of resolver thread time, revisions stored per second of consumer
+     * time and the time the consumer spent waiting for resolved revisions.
+     */
+    String stats() {
+        long elapsed = Math.max(1, System.currentTimeMillis() - started);
+        return "diff: " + diffed.get() + " revisions, " 
+                + rate(diffed.get(), diffTime.get()) + " rev/sec/thread; " 
+                + "store: " + stored + " revisions, " 
+                + rate(stored, storeTime) + " rev/sec; "
+                + "waited " + waitTime + " msec for diffs; overall " 
+                + rate(stored, elapsed) + " rev/sec";
+    }
+
+    private static String rate(long count, long msec) {
+        if (msec <= 0)
+            return "-";
+        return String.format("%.1f", count * 1000.0 / msec);
+    }
+
+    /* Queue revisions for resolution, up to the lookahead limit */
+    private void fill() {
+        while (ahead.size() < lookahead && source.hasNext()) {
+            final Revision r = source.next();
+            if (filter != null && filter.skip(r))
+                continue;
+            ahead.add(pool.submit(new Callable<Entry>() {
+                public Entry call() throws Exception {
+                    long start = System.currentTimeMillis();
+                    Entry e = resolve(r);
+                    diffTime.addAndGet(System.currentTimeMillis() - start);
+                    diffed.incrementAndGet();
+                    return e;
+                }
+            }));
+        }
+    }
+
+    /** Resolve a revision, called on the pool threads */
+    Entry resolve(Revision r) throws Exception {
+        /* Resolving the changed paths runs the diff */
+        Map<String, GitNode> nodes = git.getNodes(r, r.getChangedPaths());
+        r.getCopyOperations();
+        return new Entry(r, nodes);
+    }
+}
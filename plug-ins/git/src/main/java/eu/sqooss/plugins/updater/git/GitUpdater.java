@@ -42,6 +42,7 @@ import javax.mail.internet.InternetAddress;
 
 import eu.sqooss.core.AlitheiaCore;
 import eu.sqooss.plugins.tds.git.GitAccessor;
+import eu.sqooss.plugins.tds.git.GitNode;
 import eu.sqooss.service.db.Branch;
 import eu.sqooss.service.db.DBService;
 import eu.sqooss.service.db.Developer;
@@ -49,6 +50,7 @@ import eu.sqooss.service.db.Directory;
 import eu.sqooss.service.db.ProjectFile;
 import eu.sqooss.service.db.ProjectFileState;
 import eu.sqooss.service.db.ProjectVersion;
+import eu.sqooss.service.db.ProjectVersionIndex;
 import eu.sqooss.service.db.ProjectVersionParent;
 import eu.sqooss.service.db.StoredProject;
 import eu.sqooss.service.db.Tag;
@@ -63,6 +65,7 @@ import eu.sqooss.service.tds.Revision;
 import eu.sqooss.service.tds.SCMAccessor;
 import eu.sqooss.service.tds.SCMNodeType;
 import eu.sqooss.service.updater.MetadataUpdater;
+import eu.sqooss.service.updater.ProjectFileTree;
 import eu.sqooss.service.updater.Updater;
 import eu.sqooss.service.updater.UpdaterService.UpdaterStage;
 import eu.sqooss.service.util.FileUtils;
@@ -82,6 +85,8 @@ public class GitUpdater implements MetadataUpdater {
     private GitAccessor git;
     private DBService dbs;
     private float progress;
+    /* Latest entry for each path, avoids looking up files in the DB */
+    private ProjectFileTree tree;
     
     /*
      * Possible set of valid file state transitions
@@ -187,34 +192,61 @@ public class GitUpdater implements MetadataUpdater {
             return;
         int numRevisions = 0;
 
+        /* Pick up the tags and commits fetched since the last update */
+        git.refreshIndexes();
+
+        /* Revisions are read from the repository as they are processed */
         CommitLog commitLog = git.getCommitLog("", from, to);
         if(!dbs.isDBSessionActive()) dbs.startDBSession();
+        
+        tree = new ProjectFileTree(dbs, project);
+        debug("Loaded " + tree.load() + " paths");
+
+        /* Diffs of the next revisions are calculated while storing one */
+        DiffPipeline revisions = new DiffPipeline(git, commitLog.iterator(),
+                new DiffPipeline.Filter() {
+            public boolean skip(Revision r) {
+                if (ProjectVersion.getVersionByRevision(project, r.getUniqueId()) == null)
+                    return false;
+                info("Skipping processed revision: " + r.getUniqueId());
+                return true;
+            }
+        }, log);
+        /* The pipeline walked the log when it started, so it is counted */
+        int total = Math.max(1, commitLog.size());
+        try {
+            while (revisions.hasNext()) {
+                DiffPipeline.Entry next = revisions.next();
+                Revision entry = next.revision;
 
-        for (Revision entry : commitLog) {
-        	if (ProjectVersion.getVersionByRevision(project, entry.getUniqueId()) != null) {
-        		info("Skipping processed revision: " + entry.getUniqueId());
-        		continue;
-        	}
-        	
-            ProjectVersion pv = processOneRevision(entry);
-            
-            processCopiedFiles(git, entry, pv, pv.getPreviousVersion());
-            
-            processRevisionFiles(git, entry, pv);
-            
-            replayLog(pv);
-            
-            updateValidUntil(pv, pv.getVersionFiles());
+                ProjectVersion pv = processOneRevision(entry);
+
+                processCopiedFiles(git, entry, pv, pv.getPreviousVersion());
+
+                processRevisionFiles(entry, next.nodes, pv);
+
+                replayLog(pv);
 
-            if (!dbs.commitDBSession()) {
-                warn("Intermediate commit failed, failing update");
-                return;
+                updateValidUntil(pv, pv.getVersionFiles());
+
+                List<ProjectFile> stored = new ArrayList<ProjectFile>(pv.getVersionFiles());
+                if (!dbs.commitDBSession()) {
+                    warn("Intermediate commit failed, failing update");
+                    return;
+                }
+                tree.commit(pv.getRevisionId(), stored);
+                ProjectVersionIndex.versionStored(pv);
+
+                dbs.startDBSession();
+                progress = (float) (((double)numRevisions / (double)total) * 100);
+
+                numRevisions++;
+                if (numRevisions % 1000 == 0)
+                    debug("Pipeline throughput: " + revisions.stats());
             }
-            
-            dbs.startDBSession();
-            progress = (float) (((double)numRevisions / (double)commitLog.size()) * 100);
-            
-            numRevisions++;
+        } finally {
+            revisions.close();
+            info("Pipeline throughput: " + revisions.stats());
         }
     }
 
@@ -239,7 +271,7 @@ public class GitUpdater implements MetadataUpdater {
         dbs.addRecord(pv);
         
         //Tags
-        String tag = git.allTags().get(entry.getUniqueId());
+        String tag = git.getTag(entry.getUniqueId());
         if (tag != null) {
             Tag t = new Tag(pv);
             t.setName(tag);
@@ -363,10 +395,15 @@ public class GitUpdater implements MetadataUpdater {
         	}
         	
             ProjectFile copyFrom = null;
-            copyFrom = ProjectFile.findFile(project.getId(), 
+            if (cce.fromRev().getUniqueId().equals(tree.getRevision())) {
+                copyFrom = tree.findCommitted(FileUtils.dirname(cce.fromPath()),
+                        FileUtils.basename(cce.fromPath()), false);
+            } else {
+                copyFrom = ProjectFile.findFile(project.getId(), 
                         FileUtils.basename(cce.fromPath()), 
                         FileUtils.dirname(cce.fromPath()), 
                         cce.fromRev().getUniqueId());
+            }
                 
             /* Source location is an entry we do not have info for, 
              * due to updater settings. Use the SCM to retrieve
@@ -440,12 +477,12 @@ public class GitUpdater implements MetadataUpdater {
     	return true;
     }
     
-    private void processRevisionFiles(SCMAccessor scm, Revision entry,
-            ProjectVersion curVersion) throws InvalidRepositoryException {
+    private void processRevisionFiles(Revision entry, 
+            Map<String, GitNode> nodes, ProjectVersion curVersion) {
        
         for (String chPath : entry.getChangedPaths()) {
             
-            SCMNodeType t = scm.getNodeType(chPath, entry);
+            SCMNodeType t = nodes.get(chPath).getType();
 
             ProjectFile file = addFile(curVersion, chPath,
                     ProjectFileState.fromPathChangeType(entry.getChangedPathsStatus().get(chPath)), 
@@ -498,7 +535,10 @@ public class GitUpdater implements MetadataUpdater {
                 }
                 
                 if (!delAfterCopy) {
-                    curVersion.getVersionFiles().addAll(handleDirDeletion(file, curVersion));
+                    for (ProjectFile deleted : handleDirDeletion(file, curVersion)) {
+                        tree.record(deleted);
+                        curVersion.getVersionFiles().add(deleted);
+                    }
                 } else {
                 	warn("FIXME: DELETED DIRECTORY AFTER COPY");
                     //handleCopiedDirDeletion(toAdd);
@@ -613,8 +653,7 @@ public class GitUpdater implements MetadataUpdater {
          * file has been processed before whithin this revision
          * or the previous file version
          */
-        ProjectFile cur = ProjectFile.findFile(project.getId(), fname,
-        		path, version.getRevisionId(), true);
+        ProjectFile cur = tree.find(path, fname, true);
 
         if (cur != null && 
         	!cur.getProjectVersion().getRevisionId().equals(version.getRevisionId()) &&
@@ -654,6 +693,7 @@ public class GitUpdater implements MetadataUpdater {
         
         debug("addFile(): Adding entry " + pf + "(" + decided + ")");
         version.getVersionFiles().add(pf);
+        tree.record(pf);
 
         return pf;
     }
@@ -667,18 +707,16 @@ public class GitUpdater implements MetadataUpdater {
     	String pathname = FileUtils.dirname(path);
     	String filename = FileUtils.basename(path);
     	
-    	ProjectVersion previous = pv.getPreviousVersion();
-
-        if (previous == null) { // Special case for first version
-            previous = pv;
-        }
-        
-    	ProjectFile prev = ProjectFile.findFile(project.getId(),
-    			filename, pathname, previous.getRevisionId());
+    	boolean exists = false;
+    	if (tree.getRevision() == null) { // Special case for first version
+    	    exists = tree.contains(pathname, filename, false);
+    	} else {
+    	    exists = tree.containsCommitted(pathname, filename, false);
+    	}
     	
     	ProjectFile pf = new ProjectFile(pv);
     	
-    	if (prev == null) {
+    	if (!exists) {
             pf.setState(ProjectFileState.added());
             //Recursion reached the root directory
             if (!(pathname.equals("/") && filename.equals(""))) 
@@ -694,6 +732,7 @@ public class GitUpdater implements MetadataUpdater {
         pf.setValidFrom(pv);
         
         files.add(pf);
+        tree.record(pf);
         debug("mkdirs(): Adding directory " + pf);
     	return files;
     }
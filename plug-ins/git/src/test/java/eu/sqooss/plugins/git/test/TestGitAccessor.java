@@ -7,11 +7,19 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -20,8 +28,11 @@ import java.util.Set;
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
@@ -30,6 +41,8 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import eu.sqooss.plugins.tds.git.GitAccessor;
+import eu.sqooss.plugins.tds.git.GitNode;
 import eu.sqooss.plugins.tds.git.GitRevision;
 import eu.sqooss.service.tds.AccessorException;
 import eu.sqooss.service.tds.CommitCopyEntry;
@@ -264,6 +277,31 @@ public class TestGitAccessor extends TestGitSetup {
         assertNotNull(l);
     }
 
+    @Test
+    public void testGetCommitLogOrder() 
+    throws InvalidProjectRevisionException, InvalidRepositoryException {
+        //Commit sequence including tags and branches
+        Revision r1 = git.newRevision("6683463ed6b2da9eed309c305806f9393d1ae728");
+        Revision r2 = git.newRevision("839a7a06f35bf8cd563a41d6db97f453ab108129");
+        CommitLog l = git.getCommitLog("", r1, r2);
+        
+        //Parents that are part of the log must come before their children
+        Set<String> seen = new HashSet<String>();
+        List<String> ids = new ArrayList<String>();
+        for (Revision r : l) 
+            ids.add(r.getUniqueId());
+        for (Revision r : l) {
+            for (String parent : r.getParentIds()) {
+                if (ids.contains(parent))
+                    assertTrue(seen.contains(parent));
+            }
+            seen.add(r.getUniqueId());
+        }
+        assertEquals(l.size(), seen.size());
+        assertEquals(ids.get(0), l.first().getUniqueId());
+        assertEquals(ids.get(ids.size() - 1), l.last().getUniqueId());
+    }
+
     @Test
     public void testGetNodeType() throws InvalidRepositoryException, MissingObjectException, 
     IncorrectObjectTypeException, CorruptObjectException, IOException, URISyntaxException {
@@ -320,6 +358,30 @@ public class TestGitAccessor extends TestGitSetup {
 		assertFalse(a.equals(b)); //This should fail when the correspoding bug in Jgit gets fixed*/
     }
     
+    @Test
+    public void testGetNodes() throws InvalidRepositoryException {
+        Revision r = git.newRevision("33a59fd07d8d75e58a5b1edbcc3c5798c98aa8bf");
+        List<String> paths = Arrays.asList("/", "/compat", 
+                "/contrib/colordiff/README", "/contrib/colordiff", 
+                "/alitheia/core/test", "/Makefile");
+        
+        Map<String, GitNode> nodes = git.getNodes(r, paths);
+        assertEquals(paths.size(), nodes.size());
+        
+        //Batch resolution should agree with resolving one path at a time
+        for (String path : paths) {
+            GitNode n = nodes.get(path);
+            assertNotNull(n);
+            assertEquals(git.getNodeType(path, r), n.getType());
+            assertEquals(n.getType() == SCMNodeType.UNKNOWN, 
+                    n.getObjectId() == null);
+        }
+        
+        assertEquals(SCMNodeType.FILE, nodes.get("/contrib/colordiff/README").getType());
+        assertEquals(SCMNodeType.DIR, nodes.get("/contrib/colordiff").getType());
+        assertEquals(SCMNodeType.UNKNOWN, nodes.get("/alitheia/core/test").getType());
+    }
+    
     @Test
     public void testGetTags() {
     	Map<String, String> tags = git.allTags();
@@ -329,6 +391,25 @@ public class TestGitAccessor extends TestGitSetup {
     	assertTrue(tags.values().contains("gitgui-0.7.0-rc1"));
     }
 
+    @Test
+    public void testGetTag() throws AccessorException {
+    	Map<String, Set<String>> tags = new HashMap<String, Set<String>>();
+    	for (Ref ref : local.getAllRefs().values()) {
+    		if (!ref.getName().contains("/tags/"))
+    			continue;
+    		String id = ref.getObjectId().getName();
+    		if (!tags.containsKey(id))
+    			tags.put(id, new HashSet<String>());
+    		tags.get(id).add(ref.getName().substring(ref.getName().lastIndexOf('/') + 1));
+    	}
+    	
+    	assertFalse(tags.isEmpty());
+    	for (String id : tags.keySet())
+    		assertTrue(tags.get(id).contains(git.getTag(id)));
+    	
+    	assertNull(git.getTag("15000d78996db926d18dd68e6f5f5770de09cad3"));
+    }
+
     @Test
     public void testGetCommitChidren() throws AccessorException, InvalidProjectRevisionException {
     	Revision normal = git.newRevision("15000d78996db926d18dd68e6f5f5770de09cad3");
@@ -350,6 +431,76 @@ public class TestGitAccessor extends TestGitSetup {
     	assertTrue(first.compareTo(second) < 0);
     }
 
+    @Test
+    public void testGetCommitChidrenOrder() throws Exception {
+    	RevWalk rw = new RevWalk(local);
+    	Map<String, Integer> times = new HashMap<String, Integer>();
+    	Map<String, Set<String>> expected = new HashMap<String, Set<String>>();
+    	try {
+    		rw.markStart(rw.parseCommit(local.resolve(Constants.HEAD)));
+    		RevCommit c;
+    		while ((c = rw.next()) != null) {
+    			times.put(c.getName(), c.getCommitTime());
+    			for (RevCommit p : c.getParents()) {
+    				if (!expected.containsKey(p.getName()))
+    					expected.put(p.getName(), new HashSet<String>());
+    				expected.get(p.getName()).add(c.getName());
+    			}
+    		}
+    	} finally {
+    		rw.release();
+    	}
+    	
+    	for (String id : times.keySet()) {
+    		String[] children = git.getCommitChidren(id);
+    		Set<String> exp = expected.get(id);
+    		assertEquals(exp == null ? 0 : exp.size(), children.length);
+    		for (int i = 0; i < children.length; i++) {
+    			assertTrue(exp.contains(children[i]));
+    			if (i > 0)
+    				assertTrue(times.get(children[i - 1]) <= times.get(children[i]));
+    		}
+    	}
+    }
+
+    @Test
+    public void testRefreshIndexes() throws Exception {
+    	String branch = "6683463ed6b2da9eed309c305806f9393d1ae728";
+    	ObjectId head = local.resolve(Constants.HEAD);
+    	
+    	try {
+    		/* Index an older HEAD, where the branch point has no children yet */
+    		moveHead(ObjectId.fromString(branch));
+    		git.refreshIndexes();
+    		assertEquals(0, git.getCommitChidren(branch).length);
+    		
+    		/* Lookups do not see new commits until the indexes are refreshed */
+    		moveHead(head);
+    		assertEquals(0, git.getCommitChidren(branch).length);
+    		
+    		/* Incremental refresh must match an index built from scratch */
+    		git.refreshIndexes();
+    		GitAccessor fresh = new GitAccessor();
+    		fresh.testInit(new URI("git-file://" + localrepo), projectName);
+    		
+    		String[] children = git.getCommitChidren(branch);
+    		assertEquals(2, children.length);
+    		assertTrue(Arrays.equals(fresh.getCommitChidren(branch), children));
+    		for (String child : children)
+    			assertTrue(Arrays.equals(fresh.getCommitChidren(child), 
+    					git.getCommitChidren(child)));
+    		assertEquals(fresh.allTags(), git.allTags());
+    	} finally {
+    		moveHead(head);
+    	}
+    }
+    
+    private void moveHead(ObjectId id) throws IOException {
+    	RefUpdate u = local.updateRef(Constants.HEAD);
+    	u.setNewObjectId(id);
+    	u.forceUpdate();
+    }
+
     @Test
     public void testGetCheckout() {
         fail("Not yet implemented");
@@ -361,13 +512,82 @@ public class TestGitAccessor extends TestGitSetup {
     }
 
     @Test
-    public void testGetFileStringRevisionFile() {
-        fail("Not yet implemented");
+    public void testGetFileStringRevisionFile() throws Exception {
+        Revision r = git.newRevision("33a59fd07d8d75e58a5b1edbcc3c5798c98aa8bf");
+        
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        git.getFile("/contrib/colordiff/README", r, expected);
+        
+        File f = File.createTempFile("gitaccessor", null);
+        try {
+            git.getFile("/contrib/colordiff/README", r, f);
+            assertEquals(expected.size(), f.length());
+        } finally {
+            f.delete();
+        }
     }
 
     @Test
-    public void testGetFileStringRevisionOutputStream() {
-        fail("Not yet implemented");
+    public void testGetFileStringRevisionOutputStream() throws Exception {
+        Revision r = git.newRevision("33a59fd07d8d75e58a5b1edbcc3c5798c98aa8bf");
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        git.getFile("/contrib/colordiff/README", r, out);
+        assertTrue(out.size() > 0);
+        
+        //Compare with the blob as read directly from the repository
+        RevWalk rw = new RevWalk(local);
+        RevCommit c = rw.parseCommit(local.resolve(r.getUniqueId()));
+        TreeWalk tw = TreeWalk.forPath(local, "contrib/colordiff/README", c.getTree());
+        byte[] blob = local.open(tw.getObjectId(0)).getBytes();
+        assertTrue(Arrays.equals(blob, out.toByteArray()));
+        tw.release();
+        rw.release();
+        
+        //Directories and missing paths have no contents
+        try {
+            git.getFile("/compat", r, new ByteArrayOutputStream());
+            fail("Directory contents returned");
+        } catch (FileNotFoundException e) {}
+        
+        try {
+            git.getFile("/alitheia/core/test", r, new ByteArrayOutputStream());
+            fail("Missing file contents returned");
+        } catch (FileNotFoundException e) {}
+    }
+    
+    @Test
+    public void testGetFileThroughput() throws Exception {
+        Revision r = git.getHeadRevision();
+        
+        List<String> paths = new ArrayList<String>();
+        RevWalk rw = new RevWalk(local);
+        TreeWalk tw = new TreeWalk(local);
+        tw.addTree(rw.parseCommit(local.resolve(r.getUniqueId())).getTree());
+        tw.setRecursive(true);
+        while (tw.next()) {
+            if (tw.getFileMode(0).equals(FileMode.REGULAR_FILE))
+                paths.add("/" + tw.getPathString());
+        }
+        tw.release();
+        rw.release();
+        
+        final long[] bytes = new long[1];
+        OutputStream counter = new OutputStream() {
+            public void write(int b) {bytes[0]++;}
+            public void write(byte[] b, int off, int len) {bytes[0] += len;}
+        };
+        
+        long start = System.currentTimeMillis();
+        for (String path : paths)
+            git.getFile(path, r, counter);
+        long msec = Math.max(1, System.currentTimeMillis() - start);
+        
+        System.err.println("getFile(): " + paths.size() + " files, " 
+                + bytes[0] + " bytes in " + msec + " msec (" 
+                + (paths.size() * 1000 / msec) + " files/sec, "
+                + (bytes[0] / 1024 * 1000 / msec) + " KB/sec)");
+        assertTrue(bytes[0] > 0);
     }
 
     @Test
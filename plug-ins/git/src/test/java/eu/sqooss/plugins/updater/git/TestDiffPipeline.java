@@ -0,0 +1,195 @@
+package eu.sqooss.plugins.updater.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import eu.sqooss.service.tds.AccessorException;
+import eu.sqooss.service.tds.CommitCopyEntry;
+import eu.sqooss.service.tds.PathChangeType;
+import eu.sqooss.service.tds.Revision;
+
+public class TestDiffPipeline {
+
+    /** A revision that only has an id */
+    static class TestRevision implements Revision {
+        final int id;
+
+        TestRevision(int id) {
+            this.id = id;
+        }
+
+        public Date getDate() { return new Date(id); }
+        public String getUniqueId() { return Integer.toString(id); }
+        public String getAuthor() { return null; }
+        public String getMessage() { return null; }
+        public Set<String> getChangedPaths() { return null; }
+        public Map<String, PathChangeType> getChangedPathsStatus() { return null; }
+        public List<CommitCopyEntry> getCopyOperations() { return null; }
+        public Set<String> getParentIds() { return null; }
+        public int compareTo(Revision o) { return compare(this, o); }
+        public int compare(Revision a, Revision b) {
+            return ((TestRevision) a).id - ((TestRevision) b).id;
+        }
+    }
+
+    /** Revisions 0 to size - 1, counting how many have been read */
+    static class Source implements Iterator<Revision>, Closeable {
+        final int size;
+        final AtomicInteger read = new AtomicInteger();
+        boolean closed = false;
+
+        Source(int size) {
+            this.size = size;
+        }
+
+        public boolean hasNext() { return read.get() < size; }
+        public Revision next() { return new TestRevision(read.getAndIncrement()); }
+        public void remove() { throw new UnsupportedOperationException(); }
+        public void close() { closed = true; }
+    }
+
+    @Test
+    public void testOrder() throws AccessorException {
+        final int num = 200;
+        DiffPipeline p = new DiffPipeline(null, new Source(num), null, null, 4, 16) {
+            Entry resolve(Revision r) throws Exception {
+                /* Earlier revisions take longer, so they finish out of order */
+                int id = ((TestRevision) r).id;
+                Thread.sleep((16 - id % 16) / 4);
+                return new Entry(r, null);
+            }
+        };
+
+        try {
+            for (int i = 0; i < num; i++) {
+                assertTrue(p.hasNext());
+                assertEquals(i, ((TestRevision) p.next().revision).id);
+            }
+            assertFalse(p.hasNext());
+        } finally {
+            p.close();
+        }
+    }
+
+    @Test
+    public void testLookahead() throws Exception {
+        final CountDownLatch go = new CountDownLatch(1);
+        Source src = new Source(10);
+        DiffPipeline p = new DiffPipeline(null, src, null, null, 2, 3) {
+            Entry resolve(Revision r) throws Exception {
+                go.await();
+                return new Entry(r, null);
+            }
+        };
+
+        try {
+            /* Nothing is consumed, so only lookahead revisions are read */
+            assertEquals(3, src.read.get());
+            go.countDown();
+            assertEquals(0, ((TestRevision) p.next().revision).id);
+            assertEquals(4, src.read.get());
+            assertEquals(1, ((TestRevision) p.next().revision).id);
+            assertEquals(5, src.read.get());
+        } finally {
+            p.close();
+        }
+        /* The abandoned source is released */
+        assertTrue(src.closed);
+    }
+
+    @Test
+    public void testFilter() throws AccessorException {
+        final List<Integer> resolved = new ArrayList<Integer>();
+        DiffPipeline.Filter odd = new DiffPipeline.Filter() {
+            public boolean skip(Revision r) {
+                return ((TestRevision) r).id % 2 == 1;
+            }
+        };
+        DiffPipeline p = new DiffPipeline(null, new Source(20), odd, null, 2, 4) {
+            Entry resolve(Revision r) throws Exception {
+                synchronized (resolved) {
+                    resolved.add(((TestRevision) r).id);
+                }
+                return new Entry(r, null);
+            }
+        };
+
+        try {
+            for (int i = 0; i < 20; i += 2)
+                assertEquals(i, ((TestRevision) p.next().revision).id);
+            assertFalse(p.hasNext());
+        } finally {
+            p.close();
+        }
+
+        /* Skipped revisions are never resolved */
+        for (Integer id : resolved)
+            assertEquals(0, id % 2);
+        assertEquals(10, resolved.size());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        final AtomicInteger finished = new AtomicInteger();
+        final AtomicInteger calls = new AtomicInteger();
+        DiffPipeline p = new DiffPipeline(null, new Source(50), null, null, 1, 8) {
+            Entry resolve(Revision r) throws Exception {
+                int id = ((TestRevision) r).id;
+                calls.incrementAndGet();
+                if (id == 2)
+                    throw new IOException("Cannot read revision 2");
+                if (id == 3) {
+                    /* Running resolutions are not interrupted by close() */
+                    started.countDown();
+                    closed.await();
+                    Thread.sleep(50);
+                    finished.incrementAndGet();
+                }
+                return new Entry(r, null);
+            }
+        };
+
+        try {
+            assertEquals(0, ((TestRevision) p.next().revision).id);
+            assertEquals(1, ((TestRevision) p.next().revision).id);
+            try {
+                p.next();
+                fail("Resolution failure not reported");
+            } catch (AccessorException e) {
+                assertTrue(e.getMessage().contains("Cannot read revision 2"));
+                assertNotNull(e.getCause());
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+        } finally {
+            p.close();
+            closed.countDown();
+        }
+
+        /* Revision 3 was being resolved and finishes, the rest were cancelled */
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (finished.get() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(1, finished.get());
+        assertEquals(4, calls.get());
+    }
+}
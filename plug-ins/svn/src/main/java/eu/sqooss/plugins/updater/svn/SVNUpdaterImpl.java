@@ -49,6 +49,7 @@ import eu.sqooss.service.db.Directory;
 import eu.sqooss.service.db.ProjectFile;
 import eu.sqooss.service.db.ProjectFileState;
 import eu.sqooss.service.db.ProjectVersion;
+import eu.sqooss.service.db.ProjectVersionIndex;
 import eu.sqooss.service.db.ProjectVersionParent;
 import eu.sqooss.service.db.StoredProject;
 import eu.sqooss.service.db.ConfigOption;
@@ -65,6 +66,7 @@ import eu.sqooss.service.tds.SCMNode;
 import eu.sqooss.service.tds.SCMNodeType;
 import eu.sqooss.service.tds.TDSService;
 import eu.sqooss.service.updater.MetadataUpdater;
+import eu.sqooss.service.updater.ProjectFileTree;
 import eu.sqooss.service.updater.Updater;
 import eu.sqooss.service.updater.UpdaterService.UpdaterStage;
 import eu.sqooss.service.util.FileUtils;
@@ -121,6 +123,9 @@ public class SVNUpdaterImpl implements MetadataUpdater {
     /* Container for all project file records for each processed version*/
     private List<ProjectFile> versionFiles = new ArrayList<ProjectFile>();
     
+    /* Latest entry for each path, avoids looking up files in the DB */
+    private ProjectFileTree tree;
+    
     /* Currently processed commit log entry*/
     private Revision commitLogEntry;
     
@@ -216,6 +221,7 @@ public class SVNUpdaterImpl implements MetadataUpdater {
                 root.setValidUntil(zero);
                 dbs.addRecord(root);
                 dbs.commitDBSession();
+                ProjectVersionIndex.versionStored(zero);
                 dbs.startDBSession();
                 latestVersion = ProjectVersion.getLastProjectVersion(project);
             }
@@ -224,6 +230,9 @@ public class SVNUpdaterImpl implements MetadataUpdater {
                     scm.getHeadRevision());
             info("New revisions: " + commitLog.size());
             
+            tree = new ProjectFileTree(dbs, project);
+            debug("Loaded " + tree.load() + " paths");
+            
             for (Revision entry : commitLog) {
                 versionFiles.clear();
                 commitLogEntry = entry;
@@ -295,6 +304,8 @@ public class SVNUpdaterImpl implements MetadataUpdater {
                     //restart();
                     return;
                 }
+                tree.commit(curVersion.getRevisionId(), versionFiles);
+                ProjectVersionIndex.versionStored(curVersion);
                 dbs.startDBSession();
                 progress = (float) (((double)numRevisions / (double)commitLog.size()) * 100);
             }
@@ -459,10 +470,7 @@ public class SVNUpdaterImpl implements MetadataUpdater {
         		continue;
         	}
         	
-            ProjectFile copyFrom = null;
-            copyFrom = ProjectFile.findFile(project.getId(), 
-                        FileUtils.basename(cce.fromPath()), 
-                        FileUtils.dirname(cce.fromPath()), 
+            ProjectFile copyFrom = findFile(cce.fromPath(), 
                         cce.fromRev().getUniqueId());
                 
             /* Source location is an entry we do not have info for, 
@@ -711,6 +719,18 @@ public class SVNUpdaterImpl implements MetadataUpdater {
         }
     }
     
+    /**
+     * Find the latest entry for a path at the provided revision. Uses 
+     * the in-memory file tree if the revision is the last one processed.
+     */
+    private ProjectFile findFile(String path, String revisionId) {
+        if (revisionId.equals(tree.getRevision()))
+            return tree.findCommitted(FileUtils.dirname(path),
+                    FileUtils.basename(path), false);
+        return ProjectFile.findFile(project.getId(), FileUtils.basename(path),
+                FileUtils.dirname(path), revisionId);
+    }
+
     /**
      * Constructs a project file out of the provided elements and adds it
      * to the project file cache.
@@ -870,10 +890,7 @@ public class SVNUpdaterImpl implements MetadataUpdater {
     private void handleDirCopyFromRepository(ProjectVersion pv,
 			SCMNode fromFile, String to) {
 
-    	ProjectFile dest = ProjectFile.findFile(project.getId(), 
-                FileUtils.basename(to), 
-                FileUtils.dirname(to), 
-                fromFile.getRevision().getUniqueId());
+    	ProjectFile dest = findFile(to, fromFile.getRevision().getUniqueId());
     	
     	ProjectFileState pfs = ProjectFileState.added();
     	